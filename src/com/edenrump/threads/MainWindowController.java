@@ -12,18 +12,26 @@ package com.edenrump.threads;
 import com.edenrump.threads.output.PDFExporter;
 import com.edenrump.threads.views.TreeDepthGraphDisplay;
 import com.edenrump.toolkit.config.Defaults;
-import com.edenrump.toolkit.graph.DepthDirection;
+import com.edenrump.toolkit.graph.ColumnPosition;
 import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.graph.GraphSnapshot;
+import com.edenrump.toolkit.graph.PropertyNormalisers;
+import com.edenrump.toolkit.graph.RollUpIndex;
+import com.edenrump.toolkit.graph.RollUps;
+import com.edenrump.toolkit.graph.StructureReport;
+import com.edenrump.toolkit.loaders.BinaryLoader;
+import com.edenrump.toolkit.loaders.IndexedDocument;
 import com.edenrump.toolkit.loaders.JSONLoader;
+import com.edenrump.toolkit.loaders.LoadMonitor;
 import com.edenrump.toolkit.models.ThreadsData;
 import com.edenrump.toolkit.models.Vertex;
 import com.edenrump.toolkit.ui.display.DepthGraphDisplay;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
-import javafx.beans.property.IntegerProperty;
-import javafx.beans.property.SimpleIntegerProperty;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -39,7 +47,6 @@ import javafx.scene.image.ImageView;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
-import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
@@ -49,7 +56,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class MainWindowController implements Initializable {
@@ -94,6 +105,16 @@ public class MainWindowController implements Initializable {
      */
     private List<Vertex> vertexInfoInMemory = new ArrayList<>();
 
+    /**
+     * The leaves with a hyperlink at or downstream of each vertex
+     */
+    private RollUpIndex<Set<String>> linkedLeaves;
+
+    /**
+     * The greatest depth reached at or downstream of each vertex
+     */
+    private RollUpIndex<Integer> depthReached;
+
     /**
      * Initialise the application window
      */
@@ -102,12 +123,16 @@ public class MainWindowController implements Initializable {
         addMainMenu(borderBase);
 
         depthGraphDisplay = new TreeDepthGraphDisplay(displayWrapper);
+        depthGraphDisplay.getGraph().setPropertyNormaliser("color", PropertyNormalisers.colour());
+        linkedLeaves = depthGraphDisplay.getGraph().addRollUp(RollUps.leavesWithProperty("url"));
+        depthReached = depthGraphDisplay.getGraph().addRollUp(RollUps.maximumDepth());
         BooleanProperty unsavedInDisplay = depthGraphDisplay.hasUnsavedContentProperty();
         unsavedInDisplay.addListener((obs, o, n) -> {
             if (n) {
                 registerChange();
             }
         });
+        depthGraphDisplay.structureReportProperty().addListener((obs, o, n) -> warnOfNewStructuralProblems(o, n));
         createNew();
 
         ObservableList<String> selectedVertices = depthGraphDisplay.getSelectedVertexIdsObservable();
@@ -117,7 +142,6 @@ public class MainWindowController implements Initializable {
             setInfoPaneComments(c.getList().stream().map(id -> depthGraphDisplay.getReadOnlyVertex(id).get()).collect(Collectors.toList()));
         });
 
-        IntegerProperty priority = new SimpleIntegerProperty(192000);
         Platform.runLater(() -> stage.getScene().setOnKeyPressed(key -> {
             if (key.getCode() == KeyCode.DELETE) {
                 if (selectedVertices.size() == 1) {
@@ -133,15 +157,20 @@ public class MainWindowController implements Initializable {
                     alert.setContentText("Proceed to delete " + selectedVertices.size() + " vertices?");
 
                     alert.showAndWait();
-                    new ArrayList<>(selectedVertices).forEach(id -> depthGraphDisplay.deleteVertexAndUpdateDisplay(id));
+                    List<String> toDelete = new ArrayList<>(selectedVertices);
+                    depthGraphDisplay.runBatch(() -> toDelete.forEach(depthGraphDisplay::deleteVertexAndUpdateDisplay));
                 }
             } else if (key.getCode() == KeyCode.ESCAPE) {
+                if (loading != null && loading.isRunning()) loading.cancel();
                 depthGraphDisplay.deselectAll();
             } else if (key.getCode() == KeyCode.A && key.isControlDown()) {
                 depthGraphDisplay.selectAll();
+            } else if (key.getCode() == KeyCode.F && key.isControlDown()) {
+                findBox.requestFocus();
+                findBox.selectAll();
             } else if (key.getCode() == KeyCode.ENTER && key.isControlDown()) {
-                priority.set(priority.get() + 32000);
-                depthGraphDisplay.addVertexToDisplay(new Vertex("Module", 0, priority.get()));
+                int priority = depthGraphDisplay.getGraph().calculatePriority(0, ColumnPosition.LAST);
+                depthGraphDisplay.addVertexToDisplay(new Vertex("Module", 0, priority));
             }
         }));
     }
@@ -166,6 +195,8 @@ public class MainWindowController implements Initializable {
         openFile.setOnAction(actionEvent -> loadFile());
         MenuItem saveFile = new MenuItem("_Save");
         saveFile.setOnAction(event -> saveFile());
+        MenuItem saveSelection = new MenuItem("Save Se_lection");
+        saveSelection.setOnAction(event -> saveSelection());
         MenuItem close = new MenuItem("_Close");
         close.setOnAction(event -> closeFile());
 
@@ -203,7 +234,7 @@ public class MainWindowController implements Initializable {
         });
         help.getItems().add(about);
 
-        file.getItems().setAll(newFile, openFile, loadFromTemplate, export, saveFile, close);
+        file.getItems().setAll(newFile, openFile, loadFromTemplate, export, saveFile, saveSelection, close);
 
         Menu view = new Menu("_View");
 
@@ -227,7 +258,101 @@ public class MainWindowController implements Initializable {
         view.getItems().addAll(clearFilters, filter);
 
         menu.getMenus().addAll(file, view, help);
-        borderPane.setTop(menu);
+
+        findBox.setPromptText("Find (Ctrl+F)");
+        findBox.textProperty().addListener((obs, oldText, newText) -> find(newText));
+        findBox.setOnAction(e -> findNext());
+        findBox.setOnKeyPressed(key -> {
+            if (key.getCode() == KeyCode.ESCAPE) {
+                findBox.clear();
+                key.consume();
+            }
+        });
+        loadProgress.setTooltip(new Tooltip("Loading (Esc to cancel)"));
+        loadProgress.setVisible(false);
+        loadProgress.setManaged(false);
+        HBox top = new HBox(menu, loadProgress, findBox);
+        top.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(menu, Priority.ALWAYS);
+        borderPane.setTop(top);
+    }
+
+    /**
+     * The find box, the vertices matching its text in display order, and the position of the match in focus
+     */
+    private TextField findBox = new TextField();
+    private List<String> findMatches = new ArrayList<>();
+    private int findFocus = 0;
+
+    /**
+     * Search names and property values for the text as it is typed, select every match and scroll to the first
+     *
+     * @param text the text in the find box
+     */
+    private void find(String text) {
+        String query = text.trim();
+        if (sourceSearch != null) sourceSearch.cancel();
+        if (query.isEmpty()) {
+            findMatches = new ArrayList<>();
+            depthGraphDisplay.deselectAll();
+            return;
+        }
+        Graph graph = depthGraphDisplay.getGraph();
+        findMatches = graph.searchVertices(query);
+        findFocus = 0;
+        depthGraphDisplay.showSearchResults(findMatches, findMatches.isEmpty() ? null : findMatches.get(0));
+
+        sourceSearch = searchSource(graph.searchTest(query), roots -> {
+            for (String rootId : roots) {
+                if (!findMatches.contains(rootId)) findMatches.add(rootId);
+            }
+            depthGraphDisplay.showSearchResults(findMatches, findMatches.isEmpty() ? null : findMatches.get(findFocus));
+        });
+    }
+
+    /**
+     * The search of the unread part of the loaded file for the find box, if any
+     */
+    private Task<Set<String>> sourceSearch;
+
+    /**
+     * Search the vertices of the loaded file that the graph has not read in, on a background thread, for the roots
+     * they lie under. Matches in a subtree that has not been read are shown by their root, which is always displayed.
+     *
+     * @param test    the test a vertex must pass
+     * @param onFound receives the ids of the roots on the application thread, unless the search is cancelled first
+     * @return the search, or null if the graph holds the whole document
+     */
+    private Task<Set<String>> searchSource(Predicate<Vertex> test, Consumer<Set<String>> onFound) {
+        Graph graph = depthGraphDisplay.getGraph();
+        if (graph.getSource() == null) return null;
+        AtomicReference<Task<Set<String>>> running = new AtomicReference<>();
+        Supplier<Set<String>> search = graph.prepareSourceSearch(vertex -> {
+            if (running.get().isCancelled()) throw new CancellationException("Search cancelled");
+            return test.test(vertex);
+        });
+        Task<Set<String>> task = new Task<Set<String>>() {
+            @Override
+            protected Set<String> call() {
+                return search.get();
+            }
+        };
+        running.set(task);
+        task.setOnSucceeded(e -> onFound.accept(task.getValue()));
+
+        Thread searchThread = new Thread(task, "source-search");
+        searchThread.setDaemon(true);
+        searchThread.start();
+        return task;
+    }
+
+    /**
+     * Move the focus to the next match of the find box, wrapping round after the last
+     */
+    private void findNext() {
+        if (findMatches.isEmpty()) return;
+        findFocus = (findFocus + 1) % findMatches.size();
+        depthGraphDisplay.showSearchResults(findMatches, findMatches.get(findFocus));
     }
 
     private void clearCurrentVisibilityFilters() {
@@ -242,14 +367,24 @@ public class MainWindowController implements Initializable {
     private MenuItem colorFilterMenuItem(String cName, String cValue) {
         MenuItem m = new MenuItem(cName);
 
-        Predicate<Vertex> filter = data -> {
-            if (!data.hasProperty("color")) return false;
-            List<Vertex> downstream = Graph.unidirectionalFill(data.getId(), DepthDirection.INCREASING_DEPTH, depthGraphDisplay.getAllVertexData());
-            for (Vertex vertex : downstream) {
-                if (!vertex.hasProperty("color")) continue;
-                if (sameColor(vertex.getProperty("color"), cValue)) return true;
+        //pass coloured vertices with the colour at or downstream of them, found from the property index and
+        //recomputed only when the graph has changed, and coloured roots with the colour in the part of the file
+        //not yet read
+        AtomicReference<Set<String>> rootsInSource = new AtomicReference<>(Collections.emptySet());
+        Predicate<Vertex> filter = new Predicate<Vertex>() {
+            private long version = -1;
+            private Set<String> passing = Collections.emptySet();
+
+            @Override
+            public boolean test(Vertex data) {
+                Graph graph = depthGraphDisplay.getGraph();
+                if (graph.getVersion() != version) {
+                    passing = colouredAtOrUpstreamOf(graph, graph.getVertexIdsWithProperty("color", cValue));
+                    version = graph.getVersion();
+                }
+                return passing.contains(data.getId())
+                        || (rootsInSource.get().contains(data.getId()) && data.hasProperty("color"));
             }
-            return sameColor(data.getProperty("color"), cValue);
         };
 
         m.setOnAction(e -> {
@@ -258,18 +393,61 @@ public class MainWindowController implements Initializable {
             visibilityFilters.add(filter);
             depthGraphDisplay.addVisibilityFilter(filter);
             depthGraphDisplay.updateDisplay();
+
+            rootsInSource.set(Collections.emptySet());
+            String colour = PropertyNormalisers.colour().apply(cValue);
+            searchSource(vertex -> vertex.hasProperty("color")
+                    && colour.equals(PropertyNormalisers.colour().apply(vertex.getProperty("color"))), roots -> {
+                rootsInSource.set(roots);
+                if (visibilityFilters.contains(filter)) depthGraphDisplay.updateDisplay();
+            });
         });
         return m;
     }
 
-    private boolean sameColor(String cValue1, String cValue2) {
-        if (cValue1 == null || cValue2 == null) return false;
-        if (cValue1.length() == 0 || cValue2.length() == 0) return false;
-        Color c1 = Color.web(cValue1);
-        Color c2 = Color.web(cValue2);
-        return c1.getGreen() == c2.getGreen() &&
-                c1.getBlue() == c2.getBlue() &&
-                c1.getRed() == c2.getRed();
+    /**
+     * Collect the given vertices and the coloured vertices upstream of them. A vertex already collected as upstream of
+     * an earlier one needs no search of its own, as everything upstream of it has been collected too.
+     *
+     * @param graph   the graph
+     * @param matches the ids of the vertices with a colour
+     * @return the ids of the vertices that pass a colour filter
+     */
+    private Set<String> colouredAtOrUpstreamOf(Graph graph, Set<String> matches) {
+        Set<String> passing = new HashSet<>();
+        for (String id : matches) {
+            if (!passing.add(id)) continue;
+            for (Vertex upstream : graph.getUpstream(id)) {
+                if (upstream.hasProperty("color")) passing.add(upstream.getId());
+            }
+        }
+        return passing;
+    }
+
+    /**
+     * Warn the user when a load or an edit introduces a kind of structural problem the graph did not have before
+     *
+     * @param previous the previous structure report, or null
+     * @param current  the current structure report
+     */
+    private void warnOfNewStructuralProblems(StructureReport previous, StructureReport current) {
+        if (current == null) return;
+        Set<StructureReport.Problem> problems = current.getProblems();
+        if (previous != null) problems.removeAll(previous.getProblems());
+        if (problems.isEmpty()) return;
+
+        Platform.runLater(() -> {
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            Stage stage = (Stage) alert.getDialogPane().getScene().getWindow();
+            stage.getIcons().add(new Image(getClass().getResourceAsStream("/img/wool.png")));
+            alert.getDialogPane().getStylesheets().add("/css/Global.css");
+
+            alert.setTitle("Structural problems");
+            alert.setHeaderText("The connections between vertices are not consistent with their depths");
+            alert.setContentText(current.toString());
+
+            alert.showAndWait();
+        });
     }
 
     private void exportPNG() {
@@ -306,8 +484,17 @@ public class MainWindowController implements Initializable {
         File file = fileChooser.showSaveDialog(stage.getScene().getWindow());
         if (file == null) return;
 
-        try {
-            PDFExporter.exportCTDGraphToPDF(file, new ThreadsData(fileName, fileID, depthGraphDisplay.getAllVertexData()));
+        GraphSnapshot snapshot = depthGraphDisplay.getGraph().documentSnapshot();
+        String exportName = fileName;
+        String exportId = fileID;
+        Task<Void> export = new Task<Void>() {
+            @Override
+            protected Void call() throws IOException {
+                PDFExporter.exportCTDGraphToPDF(file, new ThreadsData(exportName, exportId, snapshot.toVertices()));
+                return null;
+            }
+        };
+        export.setOnSucceeded(e -> {
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
             Stage stage = (Stage) alert.getDialogPane().getScene().getWindow();
             stage.getIcons().add(new Image(getClass().getResourceAsStream("/img/wool.png")));
@@ -318,7 +505,8 @@ public class MainWindowController implements Initializable {
             alert.setContentText("Data successfully exported to: \n" + file.getAbsolutePath());
 
             alert.showAndWait();
-        } catch (IOException e) {
+        });
+        export.setOnFailed(e -> {
             Alert alert = new Alert(Alert.AlertType.ERROR);
             Stage stage = (Stage) alert.getDialogPane().getScene().getWindow();
             stage.getIcons().add(new Image(getClass().getResourceAsStream("/img/wool.png")));
@@ -326,48 +514,97 @@ public class MainWindowController implements Initializable {
 
             alert.setTitle("Export Failure");
             alert.setHeaderText("Failed to export file");
-            alert.setContentText(e.getMessage());
+            alert.setContentText(export.getException().getMessage());
 
             alert.showAndWait();
-            e.printStackTrace();
-        }
+            export.getException().printStackTrace();
+        });
+
+        Thread exportThread = new Thread(export, "pdf-export");
+        exportThread.setDaemon(true);
+        exportThread.start();
     }
 
     /**
      * Prompt the user to select a file and save the currently loaded process display to a flat file on the users hard drive
      */
     private void saveFile() {
-        FileChooser fc = new FileChooser();
-        fc.setTitle("Save To File");
-        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Threads file", "*.json"));
-        File file = fc.showSaveDialog(stage.getScene().getWindow());
+        File file = chooseFileToSave("Save To File");
         if (file == null) {
             return;
         }
 
-        if (!file.getName().contains(".")) {
-            file = new File(file.getAbsolutePath() + ".json");
-        }
-
-        boolean fate = JSONLoader.saveToJSON(new ThreadsData("Test", "Test", depthGraphDisplay.getAllVertexData()), file);
+        boolean fate = save("Test", "Test", depthGraphDisplay.getGraph().documentSnapshot(), file);
 
         if (fate) {
             stage.setTitle(Defaults.createTitle(file.getName()));
             depthGraphDisplay.setHasUnsavedContent(false);
         } else {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            Stage stage = (Stage) alert.getDialogPane().getScene().getWindow();
-            stage.getIcons().add(new Image(getClass().getResourceAsStream("/img/wool.png")));
-            alert.getDialogPane().getStylesheets().add("/css/Global.css");
+            alertSaveFailure();
+        }
+    }
 
-            alert.setTitle("Save Failure");
-            alert.setHeaderText("Failed to save file");
-            alert.setContentText("File name valid but a problem occurred saving the data to JSON format");
+    /**
+     * Prompt the user to select a file and save only the selected vertices to it, with the connections between them.
+     * The loaded file is left as it is.
+     */
+    private void saveSelection() {
+        List<String> selected = depthGraphDisplay.getSelectedVertexIdsObservable();
+        if (selected.isEmpty()) return;
+        File file = chooseFileToSave("Save Selection To File");
+        if (file == null) return;
 
-            alert.showAndWait();
+        Graph selection = depthGraphDisplay.getGraph().view(selected).extractInducedSubgraph();
+        if (!save(fileName, UUID.randomUUID().toString(), selection.snapshot(), file)) {
+            alertSaveFailure();
         }
     }
 
+    /**
+     * Save a snapshot of a graph in the format given by the extension of the file
+     *
+     * @return true if saved, false on error
+     */
+    private static boolean save(String name, String id, GraphSnapshot snapshot, File file) {
+        return BinaryLoader.isBinary(file)
+                ? BinaryLoader.saveToBinary(name, id, snapshot, file)
+                : JSONLoader.saveToJSON(name, id, snapshot, file);
+    }
+
+    /**
+     * Prompt the user for a threads file to save to, adding the extension of the chosen format if none was given
+     *
+     * @param title the title of the file chooser
+     * @return the file, or null if the user cancelled
+     */
+    private File chooseFileToSave(String title) {
+        FileChooser fc = new FileChooser();
+        fc.setTitle(title);
+        FileChooser.ExtensionFilter json = new FileChooser.ExtensionFilter("Threads file", "*.json");
+        FileChooser.ExtensionFilter binary =
+                new FileChooser.ExtensionFilter("Binary threads file", "*" + BinaryLoader.EXTENSION);
+        fc.getExtensionFilters().addAll(json, binary);
+        File file = fc.showSaveDialog(stage.getScene().getWindow());
+        if (file != null && !file.getName().contains(".")) {
+            String extension = fc.getSelectedExtensionFilter() == binary ? BinaryLoader.EXTENSION : ".json";
+            file = new File(file.getAbsolutePath() + extension);
+        }
+        return file;
+    }
+
+    private void alertSaveFailure() {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        Stage stage = (Stage) alert.getDialogPane().getScene().getWindow();
+        stage.getIcons().add(new Image(getClass().getResourceAsStream("/img/wool.png")));
+        alert.getDialogPane().getStylesheets().add("/css/Global.css");
+
+        alert.setTitle("Save Failure");
+        alert.setHeaderText("Failed to save file");
+        alert.setContentText("File name valid but a problem occurred saving the data");
+
+        alert.showAndWait();
+    }
+
     /**
      * Method attempts to load the file, if successful displays the information, if unsuccessful, prompts user
      */
@@ -376,28 +613,128 @@ public class MainWindowController implements Initializable {
 
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Open Resource File");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Threads file", "*.json"));
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("Threads file", "*.json", "*" + BinaryLoader.EXTENSION));
         File file = fileChooser.showOpenDialog(stage.getScene().getWindow());
         if (file == null) return;
 
-        loadFile(file);
-        registerChange();
+        loadFile(file).addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, e -> registerChange());
     }
 
-    private void loadFile(File file) {
-        ThreadsData loaded = JSONLoader.loadOneFromJSON(file);
-        if (loaded != null) {
+    /**
+     * Read a file on a background thread, showing progress beside the find box, and display it once it has been read.
+     * Any load already running is cancelled. Escape cancels the load.
+     * <p>
+     * A binary file with an index is not read in full: only its roots are loaded, and the graph faults in the subtree
+     * of a root when it is selected.
+     *
+     * @param file the file to load
+     * @return the task reading the file
+     */
+    private Task<ThreadsData> loadFile(File file) {
+        if (loading != null) loading.cancel();
+
+        AtomicReference<IndexedDocument> opened = new AtomicReference<>();
+        Task<ThreadsData> load = new Task<ThreadsData>() {
+            @Override
+            protected ThreadsData call() throws IOException {
+                if (BinaryLoader.isBinary(file)) {
+                    opened.set(IndexedDocument.open(file));
+                    if (opened.get() != null) {
+                        if (isCancelled()) {
+                            opened.get().close();
+                            return null;
+                        }
+                        return new ThreadsData(opened.get().getName(), opened.get().getId(),
+                                opened.get().readRoots());
+                    }
+                }
+                Task<ThreadsData> task = this;
+                List<Vertex> vertices = new ArrayList<>();
+                LoadMonitor monitor = new LoadMonitor() {
+                    @Override
+                    public void progress(long bytesRead, long totalBytes) {
+                        updateProgress(bytesRead, totalBytes);
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return task.isCancelled();
+                    }
+                };
+                ThreadsData header = BinaryLoader.isBinary(file)
+                        ? BinaryLoader.streamFromBinary(file, vertices::add, monitor)
+                        : JSONLoader.streamFromJSON(file, vertices::add, monitor);
+                return new ThreadsData(header.getName(), header.getId(), vertices);
+            }
+        };
+        load.setOnSucceeded(e -> {
+            ThreadsData loaded = load.getValue();
             clearAll();
             vertexInfoInMemory = loaded.getVertices();
             fileName = loaded.getName();
             fileID = loaded.getId();
 
             depthGraphDisplay.createNewDisplayFromVertexData(vertexInfoInMemory);
+            document = opened.get();
+            depthGraphDisplay.getGraph().setSource(document);
+            if (hasConnectionsButNoDepths(vertexInfoInMemory)) depthGraphDisplay.getGraph().assignDepths();
             depthGraphDisplay.show();
 
             setInfoPaneTitle(vertexInfoInMemory.size(), 0);
             setInfoPaneComments(new ArrayList<>());
-        }
+        });
+        load.setOnCancelled(e -> {
+            if (opened.get() != null) opened.get().close();
+        });
+        load.setOnFailed(e -> {
+            if (opened.get() != null) opened.get().close();
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            Stage stage = (Stage) alert.getDialogPane().getScene().getWindow();
+            stage.getIcons().add(new Image(getClass().getResourceAsStream("/img/wool.png")));
+            alert.getDialogPane().getStylesheets().add("/css/Global.css");
+
+            alert.setTitle("Load Failure");
+            alert.setHeaderText("Failed to load file");
+            alert.setContentText(load.getException().getMessage());
+
+            alert.showAndWait();
+            load.getException().printStackTrace();
+        });
+
+        loading = load;
+        loadProgress.progressProperty().bind(load.progressProperty());
+        loadProgress.visibleProperty().bind(load.runningProperty());
+        loadProgress.managedProperty().bind(load.runningProperty());
+
+        Thread loadThread = new Thread(load, "file-load");
+        loadThread.setDaemon(true);
+        loadThread.start();
+        return load;
+    }
+
+    /**
+     * The binary file the graph reads vertices from as roots are selected, if any. It is closed when another file
+     * replaces it or the display is cleared.
+     */
+    private IndexedDocument document;
+
+    /**
+     * The file load in progress, if any, and the bar showing its progress
+     */
+    private Task<ThreadsData> loading;
+    private ProgressBar loadProgress = new ProgressBar();
+
+    /**
+     * Return whether loaded data looks like it was imported without depths: everything sits at depth 0 even though
+     * some vertices are connected
+     *
+     * @param vertices the loaded vertices
+     * @return whether the vertices should be given depths
+     */
+    private boolean hasConnectionsButNoDepths(List<Vertex> vertices) {
+        return vertices.stream().allMatch(vertex -> vertex.getDepth() == 0) &&
+                vertices.stream().anyMatch(vertex -> !vertex.getConnectedVertices().isEmpty());
     }
 
     private void closeFile() {
@@ -494,6 +831,27 @@ public class MainWindowController implements Initializable {
             GridPane.setConstraints(launch, 2, 1);
             holder.getChildren().addAll(hyperlinkKey, hyperlinkValue);
 
+            Label leavesKey = new Label("Linked leaves");
+            leavesKey.setPrefHeight(27);
+            leavesKey.setPrefWidth(120);
+            //roll-ups only see the subtrees read from the file, so say so for a root whose subtree is still to be read
+            boolean holdsDownstream = depthGraphDisplay.getGraph().holdsDownstreamOf(vertex.getId());
+            Set<String> leaves = linkedLeaves.get(vertex.getId());
+            Label leavesValue = new Label(!holdsDownstream ? "(select to count)" :
+                    leaves == null ? "(none)" : String.valueOf(leaves.size()));
+            GridPane.setConstraints(leavesKey, 0, 2);
+            GridPane.setConstraints(leavesValue, 1, 2);
+
+            Label depthKey = new Label("Depth reached");
+            depthKey.setPrefHeight(27);
+            depthKey.setPrefWidth(120);
+            Integer depth = depthReached.get(vertex.getId());
+            Label depthValue = new Label(!holdsDownstream ? "(select to count)" :
+                    depth == null ? "(none)" : String.valueOf(depth));
+            GridPane.setConstraints(depthKey, 0, 3);
+            GridPane.setConstraints(depthValue, 1, 3);
+            holder.getChildren().addAll(leavesKey, leavesValue, depthKey, depthValue);
+
             edit.setOnAction(event -> {
                 holder.getChildren().removeAll(titleValue, hyperlinkValue);
                 titleEdit.setText(titleValue.getText());
@@ -604,8 +962,13 @@ public class MainWindowController implements Initializable {
      * Clear all vertices in memory. Clear the process dispaly. Close the current file. Reset the window title
      */
     private void clearAll() {
+        if (sourceSearch != null) sourceSearch.cancel();
         vertexInfoInMemory.clear();
         depthGraphDisplay.clearDisplay();
+        if (document != null) {
+            document.close();
+            document = null;
+        }
 
         programState = ProgramState.CLOSED;
         if (stage != null) stage.setTitle(Defaults.createTitle("Visualiser"));
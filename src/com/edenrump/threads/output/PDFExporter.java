@@ -11,6 +11,7 @@ package com.edenrump.threads.output;
 
 import com.edenrump.toolkit.graph.DepthDirection;
 import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.graph.PropertyNormalisers;
 import com.edenrump.toolkit.models.ThreadsData;
 import com.edenrump.toolkit.models.Vertex;
 import com.itextpdf.io.font.constants.StandardFonts;
@@ -29,13 +30,10 @@ import com.itextpdf.layout.element.Table;
 import com.itextpdf.layout.property.TextAlignment;
 import com.itextpdf.layout.property.UnitValue;
 import com.itextpdf.layout.property.VerticalAlignment;
-import javafx.scene.paint.Color;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
 public class PDFExporter {
 
@@ -54,17 +52,24 @@ public class PDFExporter {
         doc.add(contentHeader);
         doc.add(new Paragraph());
 
-        threadsData.getVertices().stream()
-                .filter(vertexData -> vertexData.getDepth() == 0)
-                .sorted(Comparator.comparingInt(Vertex::getPriority))
-                .forEach(vertexData -> addSectionContent(
-                        Graph.unidirectionalFill(vertexData.getId(), DepthDirection.INCREASING_DEPTH, threadsData.getVertices()),
-                        doc,
-                        vertexData));
+        //index copies of the vertices so that each depth can be read back in priority order without sorting; the
+        //vertices themselves may still be held by the caller's graph
+        Graph graph = new Graph();
+        threadsData.getVertices().forEach(vertex -> graph.addVertex(copy(vertex)));
+
+        graph.forEachVertexAtDepth(0, root -> addSectionContent(graph, doc, root));
         doc.close();
     }
 
-    private static void addSectionContent(List<Vertex> vertices, Document doc, Vertex root) {
+    private static Vertex copy(Vertex vertex) {
+        Vertex copy = new Vertex(vertex.getName(), vertex.getId(), vertex.getConnectedVertices(), vertex.getDepth(), vertex.getPriority());
+        for (Map.Entry<String, String> property : vertex.getProperties().entrySet()) {
+            copy.addProperty(property.getKey(), property.getValue());
+        }
+        return copy;
+    }
+
+    private static void addSectionContent(Graph graph, Document doc, Vertex root) {
 
         Paragraph sectionHeader = new Paragraph(root.getName()).setFont(header);
         doc.add(sectionHeader);
@@ -76,26 +81,34 @@ public class PDFExporter {
         int internalDocDepth = 1;
         int rootDataDepth = 2;
 
-        vertices.stream()
-                .filter(vertexData -> vertexData.getDepth() == internalDocDepth)
-                .sorted(Comparator.comparingInt(Vertex::getPriority))
-                .forEach(internalDoc -> {
-                    //get all leaves -> important to know rowSpan for internal document!
-                    List<Vertex> leaves = new ArrayList<>();
-                    for (Vertex vertex : vertices) {
-                        if (vertex.getDepth() == rootDataDepth && internalDoc.getConnectedVertices().contains(vertex.getId())) {
-                            leaves.add(vertex);
-                        }
-                    }
-
-                    //TODO: add option to include link with internal doc cell
-                    Cell internalDocCell = linkContentCell(internalDoc, "", leaves.size(), leaves.size() == 0 ? 2 : 1);
-
-                    table.addCell(internalDocCell);
-                    for (Vertex rawDataVertex : leaves) {
-                        table.addCell(linkContentCell(rawDataVertex, "(no link)", 1, 1));
-                    }
-                });
+        Set<String> section = new HashSet<>();
+        section.add(root.getId());
+        graph.view().forEachReachable(root.getId(), DepthDirection.INCREASING_DEPTH, vertex -> section.add(vertex.getId()));
+
+        //get all leaves -> important to know rowSpan for internal document! One pass down the ordered leaf column
+        //leaves each internal document's leaves in priority order
+        Map<String, List<Vertex>> leavesByInternalDoc = new HashMap<>();
+        graph.forEachVertexAtDepth(rootDataDepth, leaf -> {
+            if (!section.contains(leaf.getId())) return;
+            for (String listingId : graph.getIncomingConnections(leaf.getId())) {
+                if (section.contains(listingId) && graph.getVertexById(listingId).getDepth() == internalDocDepth) {
+                    leavesByInternalDoc.computeIfAbsent(listingId, id -> new ArrayList<>()).add(leaf);
+                }
+            }
+        });
+
+        graph.forEachVertexAtDepth(internalDocDepth, internalDoc -> {
+            if (!section.contains(internalDoc.getId())) return;
+            List<Vertex> leaves = leavesByInternalDoc.getOrDefault(internalDoc.getId(), Collections.emptyList());
+
+            //TODO: add option to include link with internal doc cell
+            Cell internalDocCell = linkContentCell(internalDoc, "", leaves.size(), leaves.size() == 0 ? 2 : 1);
+
+            table.addCell(internalDocCell);
+            for (Vertex rawDataVertex : leaves) {
+                table.addCell(linkContentCell(rawDataVertex, "(no link)", 1, 1));
+            }
+        });
         doc.add(table);
         doc.setTextAlignment(TextAlignment.CENTER);
         doc.add(new Paragraph(""));
@@ -113,10 +126,12 @@ public class PDFExporter {
         }
 
         if (data.hasProperty("color")) {
-            Color hex = Color.web(data.getProperty("color"));
-            cell.setBackgroundColor(new DeviceRgb((float) hex.getRed(), (float) hex.getGreen(), (float) hex.getBlue()));
-            if (hex.getBrightness() < 0.6) {
-                cell.setFontColor(ColorConstants.WHITE);
+            int[] rgb = parseColour(data.getProperty("color"));
+            if (rgb != null) {
+                cell.setBackgroundColor(new DeviceRgb(rgb[0], rgb[1], rgb[2]));
+                if (Math.max(rgb[0], Math.max(rgb[1], rgb[2])) < 0.6 * 255) {
+                    cell.setFontColor(ColorConstants.WHITE);
+                }
             }
         }
 
@@ -126,6 +141,23 @@ public class PDFExporter {
         return cell;
     }
 
+    /**
+     * Parse a colour property into its red, green and blue channels
+     *
+     * @param colour the colour, in any form understood by PropertyNormalisers.colour()
+     * @return the channels from 0 to 255, or null if the colour is not understood
+     */
+    private static int[] parseColour(String colour) {
+        String hex = PropertyNormalisers.colour().apply(colour);
+        if (hex.length() != 7 || hex.charAt(0) != '#') return null;
+        try {
+            int value = Integer.parseInt(hex.substring(1), 16);
+            return new int[]{(value >> 16) & 0xff, (value >> 8) & 0xff, value & 0xff};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private static Paragraph getAnchorTag(String startText, String linkText, String url, String endText) {
 
         if (linkText.startsWith("http://") || linkText.startsWith("www.")) {
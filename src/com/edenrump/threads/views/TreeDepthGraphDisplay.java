@@ -9,20 +9,19 @@
 
 package com.edenrump.threads.views;
 
-import com.edenrump.toolkit.graph.DataAndNodes;
-import com.edenrump.toolkit.graph.DepthDirection;
-import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.graph.ColumnPosition;
 import com.edenrump.toolkit.models.Vertex;
+import com.edenrump.toolkit.ui.display.DataAndNodes;
 import com.edenrump.toolkit.ui.display.DepthGraphDisplay;
 import javafx.collections.ObservableList;
 import javafx.geometry.HorizontalDirection;
-import javafx.geometry.VerticalDirection;
 import javafx.scene.control.*;
 import javafx.scene.input.MouseEvent;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * Class representing a display pane for a tree graph
@@ -40,6 +39,8 @@ import java.util.stream.Collectors;
  * 2. A depth of less than zero is not allowed (these vertices will be ignored)
  * 3. Non-root nodes are dynamically loaded and unloaded from the scene graph based on which root node is selected
  * 4. Multiple selections of root nodes is not by default supported.
+ * 5. If the graph reads from a VertexSource, the subtree of a root is faulted in when the root is selected and released
+ * when another root is selected.
  */
 public class TreeDepthGraphDisplay extends DepthGraphDisplay {
 
@@ -69,12 +70,16 @@ public class TreeDepthGraphDisplay extends DepthGraphDisplay {
     @Override
     public void addMouseActions(String vertexId, MouseEvent event) {
         if (getAllNodesIDMap().get(vertexId).getVertex().getDepth() == 0) {
+            String previousRootId = selectedRootNode == null ? null : selectedRootNode.getVertex().getId();
             selectedRootNode = getAllNodesIDMap().get(vertexId);
+            if (graph.getSource() != null && !vertexId.equals(previousRootId)) {
+                List<Vertex> faultedIn = graph.expand(vertexId);
+                List<String> released = previousRootId == null ? new ArrayList<>() : graph.collapse(previousRootId);
+                showFaultedInVertices(faultedIn, released);
+            }
 
             removeVisibilityFilter(selectorFilter);
-            selectorFilter = vertex -> Graph.unidirectionalFill(vertexId, DepthDirection.INCREASING_DEPTH, getAllVertexData())
-                    .stream()
-                    .map(Vertex::getId).collect(Collectors.toList()).contains(vertex.getId()) || vertex.getDepth() == 0;
+            selectorFilter = vertex -> vertex.getDepth() == 0 || graph.isDownstream(vertexId, vertex.getId());
             addVisibilityFilter(selectorFilter);
 
             vertexSelection.clearSelectedVertices();
@@ -93,11 +98,11 @@ public class TreeDepthGraphDisplay extends DepthGraphDisplay {
         MenuItem delete = new MenuItem("Delete last selected");
         delete.setOnAction(event -> deleteVertexAndUpdateDisplay(id));
         MenuItem deleteAll = new MenuItem("Delete all");
-        delete.setOnAction(event -> {
-            for (String vertex : vertexSelection.getSelectedVertexIdsObservable()) {
+        deleteAll.setOnAction(event -> runBatch(() -> {
+            for (String vertex : new ArrayList<>(vertexSelection.getSelectedVertexIdsObservable())) {
                 deleteVertexAndUpdateDisplay(vertex);
             }
-        });
+        }));
         delMenu.getItems().addAll(delete, deleteAll);
 
         Menu colorMenu = new Menu("Set color");
@@ -133,11 +138,13 @@ public class TreeDepthGraphDisplay extends DepthGraphDisplay {
 
     private void changeSelectedItemColors(String color) {
         ObservableList<String> vertices = vertexSelection.getSelectedVertexIdsObservable();
-        for (String id : vertices) {
-            Vertex v = getAllNodesIDMap().get(id).getVertex();
-            v.overwriteProperty("color", color);
-            updateVertexAndRefreshDisplay(id, v);
-        }
+        runBatch(() -> {
+            for (String id : vertices) {
+                Vertex v = graph.getVertexById(id);
+                v.overwriteProperty("color", color);
+                updateVertexAndRefreshDisplay(id, v);
+            }
+        });
 
     }
 
@@ -149,7 +156,7 @@ public class TreeDepthGraphDisplay extends DepthGraphDisplay {
             int depth = getAllNodesIDMap().get(id).getVertex().getDepth() + 1;
             addVertexToDisplay(new Vertex("New Node", UUID.randomUUID().toString(), Collections.singletonList(id),
                     depth,
-                    graph.calculatePriority(depth, VerticalDirection.DOWN)));
+                    graph.calculatePriority(depth, ColumnPosition.LAST)));
         });
         Menu add = new Menu("Add");
         add.getItems().add(addMoreDepth);
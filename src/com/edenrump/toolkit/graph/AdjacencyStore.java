@@ -0,0 +1,158 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Arrays;
+
+/**
+ * Class representing the mutable adjacency of the graph, stored as one primitive int array of neighbouring slots per
+ * vertex slot.
+ * <p>
+ * Rows are kept in insertion order, which is the same order as the connection list of the vertex. Traversals should
+ * not read this directly; they use a CompressedAdjacency compacted from it.
+ */
+final class AdjacencyStore {
+
+    private static final int[] EMPTY_ROW = new int[0];
+
+    private int[][] rows = new int[16][];
+    private int[] degrees = new int[16];
+    private int edgeCount = 0;
+
+    /**
+     * Make sure that the store can hold rows for all slots below the given limit
+     *
+     * @param slotLimit the slot limit
+     */
+    void ensureCapacity(int slotLimit) {
+        if (slotLimit <= rows.length) return;
+        int capacity = Math.max(slotLimit, rows.length * 2);
+        rows = Arrays.copyOf(rows, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+    }
+
+    /**
+     * Add a connection from one slot to another, if not already present
+     *
+     * @param from the slot the connection belongs to
+     * @param to   the connected slot
+     * @return whether the connection was added
+     */
+    boolean add(int from, int to) {
+        ensureCapacity(Math.max(from, to) + 1);
+        int[] row = rows[from];
+        int degree = degrees[from];
+        if (row == null) {
+            row = new int[4];
+            rows[from] = row;
+        }
+        for (int i = 0; i < degree; i++) {
+            if (row[i] == to) return false;
+        }
+        if (degree == row.length) {
+            row = Arrays.copyOf(row, degree * 2);
+            rows[from] = row;
+        }
+        row[degree] = to;
+        degrees[from] = degree + 1;
+        edgeCount++;
+        return true;
+    }
+
+    /**
+     * Remove a connection from one slot to another
+     *
+     * @param from the slot the connection belongs to
+     * @param to   the connected slot
+     * @return whether the connection was present
+     */
+    boolean remove(int from, int to) {
+        if (from >= rows.length || rows[from] == null) return false;
+        int[] row = rows[from];
+        int degree = degrees[from];
+        for (int i = 0; i < degree; i++) {
+            if (row[i] == to) {
+                System.arraycopy(row, i + 1, row, i, degree - i - 1);
+                degrees[from] = degree - 1;
+                edgeCount--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return whether one slot holds a connection to another
+     *
+     * @param from the slot the connection belongs to
+     * @param to   the connected slot
+     * @return whether the connection is present
+     */
+    boolean contains(int from, int to) {
+        if (from >= rows.length || rows[from] == null) return false;
+        int[] row = rows[from];
+        for (int i = 0; i < degrees[from]; i++) {
+            if (row[i] == to) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove every connection belonging to a slot
+     *
+     * @param slot the slot to clear
+     */
+    void clearRow(int slot) {
+        if (slot >= rows.length) return;
+        edgeCount -= degrees[slot];
+        rows[slot] = null;
+        degrees[slot] = 0;
+    }
+
+    /**
+     * Return the number of connections belonging to a slot
+     *
+     * @param slot the slot
+     * @return the number of connections
+     */
+    int degree(int slot) {
+        return slot < degrees.length ? degrees[slot] : 0;
+    }
+
+    /**
+     * Return the backing row of a slot. Only the first degree(slot) entries are valid and the array must not be
+     * modified by the caller.
+     *
+     * @param slot the slot
+     * @return the backing row
+     */
+    int[] row(int slot) {
+        int[] row = slot < rows.length ? rows[slot] : null;
+        return row == null ? EMPTY_ROW : row;
+    }
+
+    /**
+     * Return the total number of connections in the store
+     *
+     * @return the number of connections
+     */
+    int edgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Remove all connections
+     */
+    void clear() {
+        rows = new int[16][];
+        degrees = new int[16];
+        edgeCount = 0;
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+/**
+ * Enum representing whether a vertex is placed first or last in the column at its depth
+ */
+public enum ColumnPosition {
+    FIRST, LAST
+}
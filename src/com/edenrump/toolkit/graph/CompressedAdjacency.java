@@ -0,0 +1,107 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Arrays;
+
+/**
+ * Class representing an immutable compressed-sparse-row copy of an AdjacencyStore.
+ * <p>
+ * The neighbours of slot s are targets[offsets[s]] to targets[offsets[s + 1] - 1], sorted in ascending order. All
+ * neighbours of all vertices sit in a single int array, so traversals touch contiguous memory and never hash ids.
+ */
+final class CompressedAdjacency {
+
+    final int[] offsets;
+    final int[] targets;
+
+    private CompressedAdjacency(int[] offsets, int[] targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Compact the given store
+     *
+     * @param store     the store to compact
+     * @param slotLimit the slot limit of the graph
+     * @return the compressed adjacency
+     */
+    static CompressedAdjacency of(AdjacencyStore store, int slotLimit) {
+        int[] offsets = new int[slotLimit + 1];
+        for (int slot = 0; slot < slotLimit; slot++) {
+            offsets[slot + 1] = offsets[slot] + store.degree(slot);
+        }
+        int[] targets = new int[offsets[slotLimit]];
+        for (int slot = 0; slot < slotLimit; slot++) {
+            System.arraycopy(store.row(slot), 0, targets, offsets[slot], store.degree(slot));
+            Arrays.sort(targets, offsets[slot], offsets[slot + 1]);
+        }
+        return new CompressedAdjacency(offsets, targets);
+    }
+
+    /**
+     * Build a compressed adjacency from a list of edges. Duplicate edges are kept.
+     *
+     * @param slotLimit the slot limit of the graph
+     * @param sources   the source slot of each edge
+     * @param targets   the target slot of each edge
+     * @param edgeCount the number of edges held in the arrays
+     * @return the compressed adjacency
+     */
+    static CompressedAdjacency fromEdges(int slotLimit, int[] sources, int[] targets, int edgeCount) {
+        int[] offsets = new int[slotLimit + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            offsets[sources[i] + 1]++;
+        }
+        for (int slot = 0; slot < slotLimit; slot++) {
+            offsets[slot + 1] += offsets[slot];
+        }
+        int[] next = Arrays.copyOf(offsets, slotLimit);
+        int[] sorted = new int[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            sorted[next[sources[i]]++] = targets[i];
+        }
+        for (int slot = 0; slot < slotLimit; slot++) {
+            Arrays.sort(sorted, offsets[slot], offsets[slot + 1]);
+        }
+        return new CompressedAdjacency(offsets, sorted);
+    }
+
+    /**
+     * Return the number of slots covered
+     *
+     * @return the slot limit
+     */
+    int slotLimit() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Return the number of neighbours of a slot
+     *
+     * @param slot the slot
+     * @return the number of neighbours
+     */
+    int degree(int slot) {
+        return offsets[slot + 1] - offsets[slot];
+    }
+
+    /**
+     * Return whether one slot lists another as a neighbour
+     *
+     * @param from the slot whose neighbours are searched
+     * @param to   the neighbour to look for
+     * @return whether the neighbour is present
+     */
+    boolean contains(int from, int to) {
+        return Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to) >= 0;
+    }
+}
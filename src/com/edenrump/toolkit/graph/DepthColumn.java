@@ -0,0 +1,288 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Arrays;
+
+/**
+ * Class representing the vertex slots that share a depth, kept in priority order as an order-maintenance list.
+ * <p>
+ * Members form a doubly linked list through the link arrays of the owning DepthIndex, and each member's priority is
+ * its label in the list. The lowest and highest priorities are therefore the head and tail of the list. A new member
+ * placed next to an existing one takes a label halfway between its neighbours. When two neighbouring labels leave no
+ * room, the smallest enclosing run of members with enough room is spread out evenly (see labelAfter). Labels never
+ * leave the int range, however many members are inserted at the same place.
+ * <p>
+ * The list is also a skip list: each member is given a random number of express levels, and each express level links
+ * the members that reach it. A member can therefore be placed by priority, and a range of priorities found, in
+ * O(log n) steps rather than by walking the column. Relabelling never changes the order of the members, so it leaves
+ * every level intact.
+ */
+final class DepthColumn {
+
+    /**
+     * The distance left between a new member added at either end of the column and its neighbour
+     */
+    static final int END_GAP = 1 << 16;
+
+    /**
+     * The most levels a member can have, including the bottom level
+     */
+    static final int MAX_LEVELS = 32;
+
+    private final DepthIndex owner;
+    private int head = -1;
+    private int tail = -1;
+    private int size = 0;
+
+    /**
+     * The first member at each express level, indexed by level, and the number of levels in use
+     */
+    private final int[] expressHead = new int[MAX_LEVELS];
+    private int levels = 1;
+
+    DepthColumn(DepthIndex owner) {
+        this.owner = owner;
+        Arrays.fill(expressHead, -1);
+    }
+
+    /**
+     * Link a member into the column in priority order, after any members with the same priority. The member is placed
+     * directly after the hint if the hint is a member whose neighbourhood contains the priority, and otherwise found
+     * through the express levels.
+     *
+     * @param slot the slot of the vertex, whose label must already be set
+     * @param hint a member to search from, or -1
+     */
+    void add(int slot, int hint) {
+        int[] label = owner.label;
+        int priority = label[slot];
+        int previous;
+        if (tail < 0 || label[tail] <= priority) {
+            previous = tail;
+        } else if (priority < label[head]) {
+            previous = -1;
+        } else if (hint >= 0 && owner.columnOf(hint) == this && label[hint] <= priority
+                && (owner.next[hint] < 0 || priority < label[owner.next[hint]])) {
+            previous = hint;
+        } else {
+            previous = lastAtOrBefore(priority);
+        }
+        linkAfter(previous, slot);
+        linkExpress(previous, slot);
+    }
+
+    /**
+     * Find the last member whose priority is no greater than the given one, descending through the express levels
+     *
+     * @param priority the priority
+     * @return the member, or -1 if every member has a greater priority
+     */
+    int lastAtOrBefore(long priority) {
+        int[] label = owner.label;
+        int node = -1;
+        for (int level = levels - 1; level >= 1; level--) {
+            int following = node < 0 ? expressHead[level] : owner.expressNext[node][level - 1];
+            while (following >= 0 && label[following] <= priority) {
+                node = following;
+                following = owner.expressNext[node][level - 1];
+            }
+        }
+        int following = node < 0 ? head : owner.next[node];
+        while (following >= 0 && label[following] <= priority) {
+            node = following;
+            following = owner.next[node];
+        }
+        return node;
+    }
+
+    /**
+     * Find the first member whose priority is no less than the given one
+     *
+     * @param priority the priority
+     * @return the member, or -1 if every member has a lower priority
+     */
+    int firstAtOrAfter(long priority) {
+        int previous = lastAtOrBefore(priority - 1);
+        return previous < 0 ? head : owner.next[previous];
+    }
+
+    /**
+     * Unlink a member from the column
+     *
+     * @param slot the slot of the vertex
+     */
+    void remove(int slot) {
+        int[] expressNext = owner.expressNext[slot];
+        int[] expressPrev = owner.expressPrev[slot];
+        for (int level = 1; level < height(slot); level++) {
+            int before = expressPrev[level - 1];
+            int after = expressNext[level - 1];
+            if (before < 0) expressHead[level] = after;
+            else owner.expressNext[before][level - 1] = after;
+            if (after >= 0) owner.expressPrev[after][level - 1] = before;
+        }
+        int before = owner.prev[slot];
+        int after = owner.next[slot];
+        if (before < 0) head = after;
+        else owner.next[before] = after;
+        if (after < 0) tail = before;
+        else owner.prev[after] = before;
+        size--;
+    }
+
+    private void linkAfter(int previous, int slot) {
+        int after = previous < 0 ? head : owner.next[previous];
+        owner.prev[slot] = previous;
+        owner.next[slot] = after;
+        if (previous < 0) head = slot;
+        else owner.next[previous] = slot;
+        if (after < 0) tail = slot;
+        else owner.prev[after] = slot;
+        size++;
+    }
+
+    /**
+     * Link a member, already linked at the bottom level after previous, into each of its express levels. The
+     * predecessor at each level is the nearest member at or before the predecessor on the level below that is tall
+     * enough, which is on average two steps back.
+     */
+    private void linkExpress(int previous, int slot) {
+        int height = height(slot);
+        int[] expressNext = owner.expressNext[slot];
+        int[] expressPrev = owner.expressPrev[slot];
+        int before = previous;
+        for (int level = 1; level < height; level++) {
+            while (before >= 0 && height(before) <= level) {
+                before = level == 1 ? owner.prev[before] : owner.expressPrev[before][level - 2];
+            }
+            int after = before < 0 ? expressHead[level] : owner.expressNext[before][level - 1];
+            expressPrev[level - 1] = before;
+            expressNext[level - 1] = after;
+            if (before < 0) expressHead[level] = slot;
+            else owner.expressNext[before][level - 1] = slot;
+            if (after >= 0) owner.expressPrev[after][level - 1] = slot;
+        }
+        if (height > levels) levels = height;
+    }
+
+    private int height(int slot) {
+        int[] expressNext = owner.expressNext[slot];
+        return expressNext == null ? 1 : expressNext.length + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the member with the lowest priority, or -1 if the column is empty
+     */
+    int head() {
+        return head;
+    }
+
+    /**
+     * @return the member with the highest priority, or -1 if the column is empty
+     */
+    int tail() {
+        return tail;
+    }
+
+    /**
+     * Return the lowest priority in the column
+     *
+     * @return the lowest priority, or Integer.MAX_VALUE if the column is empty
+     */
+    int minPriority() {
+        return head < 0 ? Integer.MAX_VALUE : owner.label[head];
+    }
+
+    /**
+     * Return the highest priority in the column
+     *
+     * @return the highest priority, or Integer.MIN_VALUE if the column is empty
+     */
+    int maxPriority() {
+        return tail < 0 ? Integer.MIN_VALUE : owner.label[tail];
+    }
+
+    /**
+     * Find a label for a new member to be placed directly after the given one, relabelling members if there is no
+     * room. A run of members around the insertion point is grown, doubling each time, until the labels on either
+     * side of it leave a spacing at least as large as the run; the run is then spread out evenly. Dense spots thus
+     * get room in proportion to how often they are used, and the amortised cost of an insertion stays small.
+     *
+     * @param previous   the member to follow, or -1 to place the new member first
+     * @param relabelled receives the members whose labels changed
+     * @return the label for the new member
+     */
+    int labelAfter(int previous, IntBuffer relabelled) {
+        int[] label = owner.label;
+        int following = previous < 0 ? head : owner.next[previous];
+        if (previous < 0 && following < 0) return 0;
+        if (following < 0 && (long) Integer.MAX_VALUE - label[previous] > END_GAP) return label[previous] + END_GAP;
+        if (previous < 0 && (long) label[following] - Integer.MIN_VALUE > END_GAP) return label[following] - END_GAP;
+
+        long low = previous < 0 ? Integer.MIN_VALUE : label[previous];
+        long high = following < 0 ? Integer.MAX_VALUE : label[following];
+        if (high - low >= 2) return (int) (low + (high - low) / 2);
+
+        //grow a run [first, last] of members around the insertion point until it has room
+        int first = previous < 0 ? following : previous;
+        int last = following < 0 ? previous : following;
+        int members = first == last ? 1 : 2;
+        while (true) {
+            long lowBound = owner.prev[first] < 0 ? Integer.MIN_VALUE : label[owner.prev[first]];
+            long highBound = owner.next[last] < 0 ? Integer.MAX_VALUE : label[owner.next[last]];
+            long spacing = (highBound - lowBound) / (members + 2);
+            boolean wholeColumn = owner.prev[first] < 0 && owner.next[last] < 0;
+            if (spacing >= members + 2 || (wholeColumn && spacing >= 1)) {
+                return spread(first, last, previous, lowBound, spacing, relabelled);
+            }
+            if (wholeColumn) throw new IllegalStateException("No room left for another vertex at this depth");
+            int extension = Math.max(1, members / 2);
+            for (int i = 0; i < extension && owner.prev[first] >= 0; i++) {
+                first = owner.prev[first];
+                members++;
+            }
+            for (int i = 0; i < extension && owner.next[last] >= 0; i++) {
+                last = owner.next[last];
+                members++;
+            }
+        }
+    }
+
+    /**
+     * Give the members from first to last evenly spaced labels, leaving a free label after previous
+     */
+    private int spread(int first, int last, int previous, long lowBound, long spacing, IntBuffer relabelled) {
+        int[] label = owner.label;
+        long next = lowBound + spacing;
+        int reserved = 0;
+        if (previous < 0) {
+            reserved = (int) next;
+            next += spacing;
+        }
+        for (int slot = first; ; slot = owner.next[slot]) {
+            if (label[slot] != (int) next) {
+                label[slot] = (int) next;
+                relabelled.add(slot);
+            }
+            next += spacing;
+            if (slot == previous) {
+                reserved = (int) next;
+                next += spacing;
+            }
+            if (slot == last) break;
+        }
+        return reserved;
+    }
+}
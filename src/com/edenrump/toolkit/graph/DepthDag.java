@@ -0,0 +1,99 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+/**
+ * Class representing the connections of a graph oriented in the direction of increasing depth.
+ * <p>
+ * Connections are stored against the vertex that lists them, and are usually listed by both vertices. Each one is
+ * oriented as follows:
+ * <ul>
+ * <li>a connection listed by both vertices runs from the shallower vertex to the deeper one. If both vertices have
+ * the same depth it cannot be oriented, is left out and is counted as a level connection;</li>
+ * <li>a connection listed by only one vertex runs from the listed vertex to the one that lists it, since a vertex
+ * lists its upstream vertices. This holds even when depth says otherwise, so such connections may form cycles.</li>
+ * </ul>
+ * Connections to ids that have no vertex in the graph are ignored.
+ */
+final class DepthDag {
+
+    /**
+     * Downstream edges: from each slot to the slots one step deeper
+     */
+    final CompressedAdjacency down;
+
+    /**
+     * Upstream edges: the reverse of down
+     */
+    final CompressedAdjacency up;
+
+    /**
+     * The number of connections that could not be oriented because both ends share a depth
+     */
+    final int levelConnections;
+
+    private DepthDag(CompressedAdjacency down, CompressedAdjacency up, int levelConnections) {
+        this.down = down;
+        this.up = up;
+        this.levelConnections = levelConnections;
+    }
+
+    /**
+     * Orient the connections of a graph
+     *
+     * @param connections   the compressed connection lists of the graph
+     * @param verticesBySlot the vertex held in each slot, or null for slots without a vertex
+     * @return the oriented connections
+     */
+    static DepthDag of(CompressedAdjacency connections, Vertex[] verticesBySlot) {
+        int slotLimit = connections.slotLimit();
+        int[] sources = new int[connections.targets.length];
+        int[] targets = new int[connections.targets.length];
+        int edgeCount = 0;
+        int levelConnections = 0;
+
+        for (int from = 0; from < slotLimit; from++) {
+            if (verticesBySlot[from] == null) continue;
+            int fromDepth = verticesBySlot[from].getDepth();
+            for (int i = connections.offsets[from]; i < connections.offsets[from + 1]; i++) {
+                int to = connections.targets[i];
+                if (to == from || verticesBySlot[to] == null) continue;
+
+                if (connections.contains(to, from)) {
+                    int toDepth = verticesBySlot[to].getDepth();
+                    if (fromDepth < toDepth) {
+                        sources[edgeCount] = from;
+                        targets[edgeCount++] = to;
+                    } else if (fromDepth == toDepth && from < to) {
+                        levelConnections++;
+                    }
+                } else {
+                    sources[edgeCount] = to;
+                    targets[edgeCount++] = from;
+                }
+            }
+        }
+        return new DepthDag(CompressedAdjacency.fromEdges(slotLimit, sources, targets, edgeCount),
+                CompressedAdjacency.fromEdges(slotLimit, targets, sources, edgeCount),
+                levelConnections);
+    }
+
+    /**
+     * Return the edges leading away from a slot in the given direction
+     *
+     * @param direction the direction of travel
+     * @return the edges to follow
+     */
+    CompressedAdjacency edges(DepthDirection direction) {
+        return direction == DepthDirection.INCREASING_DEPTH ? down : up;
+    }
+}
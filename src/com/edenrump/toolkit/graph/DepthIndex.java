@@ -0,0 +1,165 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+/**
+ * Class representing an index of vertex slots by depth.
+ * <p>
+ * Each non-empty depth has a DepthColumn holding its slots in priority order. Columns are held in a sorted map, so
+ * the shallowest and deepest depths in the graph are available without visiting any vertices. The links and labels
+ * of every column live in arrays indexed by slot, shared by all columns, as do the express links of the skip list
+ * each column keeps over its members.
+ */
+final class DepthIndex {
+
+    private final TreeMap<Integer, DepthColumn> columns = new TreeMap<>();
+
+    int[] next = new int[16];
+    int[] prev = new int[16];
+    int[] label = new int[16];
+    int[][] expressNext = new int[16][];
+    int[][] expressPrev = new int[16][];
+    private DepthColumn[] columnOf = new DepthColumn[16];
+    private int seed = 0x2545F491;
+
+    /**
+     * Add a vertex slot to the column for its depth
+     *
+     * @param slot     the slot
+     * @param depth    the depth of the vertex
+     * @param priority the priority of the vertex
+     * @param hint     a slot in the column that the vertex probably follows, or -1
+     */
+    void add(int slot, int depth, int priority, int hint) {
+        ensureCapacity(slot + 1);
+        DepthColumn column = columns.computeIfAbsent(depth, d -> new DepthColumn(this));
+        label[slot] = priority;
+        columnOf[slot] = column;
+        int levels = randomHeight() - 1;
+        expressNext[slot] = levels == 0 ? null : new int[levels];
+        expressPrev[slot] = levels == 0 ? null : new int[levels];
+        column.add(slot, hint);
+    }
+
+    /**
+     * Draw a skip list height, where each level above the first is reached with probability one half
+     */
+    private int randomHeight() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return 1 + Math.min(Integer.numberOfTrailingZeros(seed), DepthColumn.MAX_LEVELS - 1);
+    }
+
+    /**
+     * Remove a vertex slot from the column for its depth
+     *
+     * @param slot  the slot
+     * @param depth the depth of the vertex
+     */
+    void remove(int slot, int depth) {
+        DepthColumn column = columns.get(depth);
+        if (column == null || columnOf[slot] != column) return;
+        column.remove(slot);
+        columnOf[slot] = null;
+        if (column.size() == 0) columns.remove(depth);
+    }
+
+    /**
+     * Move a vertex slot from one column to another
+     *
+     * @param slot     the slot
+     * @param from     the previous depth of the vertex
+     * @param to       the new depth of the vertex
+     * @param priority the priority of the vertex
+     */
+    void move(int slot, int from, int to, int priority) {
+        remove(slot, from);
+        add(slot, to, priority, -1);
+    }
+
+    /**
+     * Record a change in the priority of a vertex, moving it to its new place in its column
+     *
+     * @param slot     the slot
+     * @param depth    the depth of the vertex
+     * @param priority the new priority
+     * @param hint     a slot in the column that the vertex probably follows, or -1
+     */
+    void updatePriority(int slot, int depth, int priority, int hint) {
+        DepthColumn column = columns.get(depth);
+        if (column == null || columnOf[slot] != column || label[slot] == priority) return;
+        column.remove(slot);
+        label[slot] = priority;
+        column.add(slot, hint);
+    }
+
+    /**
+     * Return the column at a depth
+     *
+     * @param depth the depth
+     * @return the column, or null if no vertex has that depth
+     */
+    DepthColumn column(int depth) {
+        return columns.get(depth);
+    }
+
+    /**
+     * Return the column a slot belongs to
+     *
+     * @param slot the slot
+     * @return the column, or null if the slot is not indexed
+     */
+    DepthColumn columnOf(int slot) {
+        return slot < columnOf.length ? columnOf[slot] : null;
+    }
+
+    /**
+     * Return the depths that have at least one vertex, in ascending order
+     *
+     * @return the occupied depths
+     */
+    NavigableSet<Integer> depths() {
+        return Collections.unmodifiableNavigableSet(columns.navigableKeySet());
+    }
+
+    boolean isEmpty() {
+        return columns.isEmpty();
+    }
+
+    int minDepth() {
+        return columns.firstKey();
+    }
+
+    int maxDepth() {
+        return columns.lastKey();
+    }
+
+    void clear() {
+        columns.clear();
+        Arrays.fill(columnOf, null);
+    }
+
+    private void ensureCapacity(int slotLimit) {
+        if (slotLimit <= next.length) return;
+        int capacity = Math.max(slotLimit, next.length * 2);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        label = Arrays.copyOf(label, capacity);
+        expressNext = Arrays.copyOf(expressNext, capacity);
+        expressPrev = Arrays.copyOf(expressPrev, capacity);
+        columnOf = Arrays.copyOf(columnOf, capacity);
+    }
+}
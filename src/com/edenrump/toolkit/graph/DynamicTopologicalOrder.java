@@ -0,0 +1,320 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.Arrays;
+
+/**
+ * Class representing a topological order of the depth-oriented connections of a graph (see DepthDag), kept up to date
+ * as connections are added, using the algorithm of Pearce and Kelly.
+ * <p>
+ * Every vertex slot holds a distinct position, and every oriented connection runs from a lower position to a higher
+ * one. When a new connection a -&gt; b runs against the order, only the vertices between the positions of b and a are
+ * searched: those downstream of b and those upstream of a. If b reaches a, the connection closes a cycle. Otherwise
+ * the two groups swap positions, upstream group first, and the order holds again. The cost is proportional to the
+ * affected region, not to the graph.
+ * <p>
+ * Oriented connections are read straight from the adjacency and incoming stores, so nothing has to be rebuilt after
+ * an edit. When a change cannot be absorbed, for instance because the graph has become cyclic, the order is marked
+ * invalid and must be rebuilt from a full topological sort.
+ */
+final class DynamicTopologicalOrder {
+
+    private final AdjacencyStore adjacency;
+    private final AdjacencyStore incoming;
+
+    private int[] position = new int[0];
+    private int nextPosition = 0;
+    private boolean valid = true;
+
+    private int[] seen = new int[0];
+    private int epoch = 0;
+    private int[] stack = new int[16];
+    private int[] forward = new int[16];
+    private int forwardCount;
+    private int[] backward = new int[16];
+    private int backwardCount;
+    private int[] neighbours = new int[16];
+
+    DynamicTopologicalOrder(AdjacencyStore adjacency, AdjacencyStore incoming) {
+        this.adjacency = adjacency;
+        this.incoming = incoming;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    void clear() {
+        position = new int[0];
+        nextPosition = 0;
+        valid = true;
+    }
+
+    /**
+     * Reset the order from a full topological sort
+     *
+     * @param slotsInOrder every vertex slot, in topological order
+     * @param count        the number of slots held in the array
+     */
+    void rebuild(int[] slotsInOrder, int count) {
+        Arrays.fill(position, -1);
+        for (int i = 0; i < count; i++) {
+            ensureCapacity(slotsInOrder[i] + 1);
+            position[slotsInOrder[i]] = i;
+        }
+        nextPosition = count;
+        valid = true;
+    }
+
+    /**
+     * Return whether adding the oriented connection from one slot to another would close a cycle, ignoring one
+     * existing oriented connection that the change would remove
+     *
+     * @param from           the upstream end of the new connection
+     * @param to             the downstream end of the new connection
+     * @param verticesBySlot the vertex held in each slot
+     * @param ignoredFrom    the upstream end of the ignored connection
+     * @param ignoredTo      the downstream end of the ignored connection
+     * @return whether a cycle would be closed
+     */
+    boolean wouldCloseCycle(int from, int to, Vertex[] verticesBySlot, int ignoredFrom, int ignoredTo) {
+        if (from == to) return false;
+        ensureCapacity(verticesBySlot.length);
+        int bound = Integer.MAX_VALUE;
+        if (valid) {
+            place(from);
+            place(to);
+            if (position[from] < position[to]) return false;
+            bound = position[from];
+        }
+        return searchDownstream(to, from, bound, verticesBySlot, ignoredFrom, ignoredTo);
+    }
+
+    /**
+     * Restore the order after an oriented connection was added. If the connection closed a cycle, the order becomes
+     * invalid.
+     *
+     * @param from           the upstream end of the connection
+     * @param to             the downstream end of the connection
+     * @param verticesBySlot the vertex held in each slot
+     */
+    void connectionAdded(int from, int to, Vertex[] verticesBySlot) {
+        if (!valid || from == to) return;
+        ensureCapacity(verticesBySlot.length);
+        place(from);
+        place(to);
+        int lower = position[to];
+        int upper = position[from];
+        if (upper < lower) return;
+
+        if (searchDownstream(to, from, upper, verticesBySlot, -1, -1)) {
+            valid = false;
+            return;
+        }
+        searchUpstream(from, lower, verticesBySlot);
+        reorder();
+    }
+
+    /**
+     * Restore the order after any number of the oriented connections of one slot changed, as when a vertex is added
+     * or its depth changes
+     *
+     * @param slot           the slot
+     * @param verticesBySlot the vertex held in each slot
+     */
+    void slotChanged(int slot, Vertex[] verticesBySlot) {
+        if (!valid) return;
+        ensureCapacity(verticesBySlot.length);
+        place(slot);
+        for (int pass = 0; pass < 2 && valid; pass++) {
+            int count = downstreamOf(slot, verticesBySlot);
+            int[] targets = Arrays.copyOf(neighbours, count);
+            for (int target : targets) connectionAdded(slot, target, verticesBySlot);
+            count = upstreamOf(slot, verticesBySlot);
+            int[] sources = Arrays.copyOf(neighbours, count);
+            for (int source : sources) connectionAdded(source, slot, verticesBySlot);
+            if (valid && consistentAround(slot, verticesBySlot)) return;
+        }
+        valid = false;
+    }
+
+    private boolean consistentAround(int slot, Vertex[] verticesBySlot) {
+        int count = downstreamOf(slot, verticesBySlot);
+        for (int i = 0; i < count; i++) {
+            if (position[neighbours[i]] <= position[slot]) return false;
+        }
+        count = upstreamOf(slot, verticesBySlot);
+        for (int i = 0; i < count; i++) {
+            if (position[neighbours[i]] >= position[slot]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Collect into forward the slots downstream of start whose position is below the bound, stopping if target is
+     * reached
+     *
+     * @return whether target was reached
+     */
+    private boolean searchDownstream(int start, int target, int bound, Vertex[] verticesBySlot,
+                                     int ignoredFrom, int ignoredTo) {
+        nextEpoch();
+        forwardCount = 0;
+        int top = 0;
+        push(start, top++);
+        seen[start] = epoch;
+        while (top > 0) {
+            int slot = stack[--top];
+            forward = append(forward, forwardCount++, slot);
+            int count = downstreamOf(slot, verticesBySlot);
+            for (int i = 0; i < count; i++) {
+                int next = neighbours[i];
+                if (slot == ignoredFrom && next == ignoredTo) continue;
+                if (next == target) return true;
+                if (seen[next] == epoch) continue;
+                if (valid && bound != Integer.MAX_VALUE && position(next) > bound) continue;
+                seen[next] = epoch;
+                push(next, top++);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect into backward the slots upstream of start whose position is above the bound
+     */
+    private void searchUpstream(int start, int bound, Vertex[] verticesBySlot) {
+        backwardCount = 0;
+        int top = 0;
+        push(start, top++);
+        seen[start] = epoch;
+        while (top > 0) {
+            int slot = stack[--top];
+            backward = append(backward, backwardCount++, slot);
+            int count = upstreamOf(slot, verticesBySlot);
+            for (int i = 0; i < count; i++) {
+                int next = neighbours[i];
+                if (seen[next] == epoch || position(next) < bound) continue;
+                seen[next] = epoch;
+                push(next, top++);
+            }
+        }
+    }
+
+    /**
+     * Give the upstream group the lowest of the positions held by both groups, and the downstream group the rest,
+     * keeping the relative order within each group
+     */
+    private void reorder() {
+        sortByPosition(backward, backwardCount);
+        sortByPosition(forward, forwardCount);
+        int[] positions = new int[backwardCount + forwardCount];
+        for (int i = 0; i < backwardCount; i++) positions[i] = position[backward[i]];
+        for (int i = 0; i < forwardCount; i++) positions[backwardCount + i] = position[forward[i]];
+        Arrays.sort(positions);
+        for (int i = 0; i < backwardCount; i++) position[backward[i]] = positions[i];
+        for (int i = 0; i < forwardCount; i++) position[forward[i]] = positions[backwardCount + i];
+    }
+
+    private void sortByPosition(int[] slots, int count) {
+        long[] keyed = new long[count];
+        for (int i = 0; i < count; i++) keyed[i] = ((long) position[slots[i]] << 32) | slots[i];
+        Arrays.sort(keyed);
+        for (int i = 0; i < count; i++) slots[i] = (int) keyed[i];
+    }
+
+    /**
+     * Collect into neighbours the slots one oriented connection downstream of a slot
+     *
+     * @return the number of slots collected
+     */
+    private int downstreamOf(int slot, Vertex[] verticesBySlot) {
+        int count = 0;
+        int depth = verticesBySlot[slot].getDepth();
+        int[] row = adjacency.row(slot);
+        for (int i = 0; i < adjacency.degree(slot); i++) {
+            int other = row[i];
+            if (other == slot || verticesBySlot[other] == null || !adjacency.contains(other, slot)) continue;
+            if (depth < verticesBySlot[other].getDepth()) neighbours = append(neighbours, count++, other);
+        }
+        row = incoming.row(slot);
+        for (int i = 0; i < incoming.degree(slot); i++) {
+            int other = row[i];
+            if (other == slot || verticesBySlot[other] == null || adjacency.contains(slot, other)) continue;
+            neighbours = append(neighbours, count++, other);
+        }
+        return count;
+    }
+
+    /**
+     * Collect into neighbours the slots one oriented connection upstream of a slot
+     *
+     * @return the number of slots collected
+     */
+    private int upstreamOf(int slot, Vertex[] verticesBySlot) {
+        int count = 0;
+        int depth = verticesBySlot[slot].getDepth();
+        int[] row = adjacency.row(slot);
+        for (int i = 0; i < adjacency.degree(slot); i++) {
+            int other = row[i];
+            if (other == slot || verticesBySlot[other] == null) continue;
+            if (!adjacency.contains(other, slot) || verticesBySlot[other].getDepth() < depth) {
+                neighbours = append(neighbours, count++, other);
+            }
+        }
+        return count;
+    }
+
+    private int position(int slot) {
+        place(slot);
+        return position[slot];
+    }
+
+    /**
+     * Give a slot seen for the first time the next free position, after every other slot
+     */
+    private void place(int slot) {
+        ensureCapacity(slot + 1);
+        if (position[slot] < 0) position[slot] = nextPosition++;
+    }
+
+    private void ensureCapacity(int slotLimit) {
+        if (position.length >= slotLimit) return;
+        int previous = position.length;
+        int capacity = Math.max(slotLimit, previous * 2);
+        position = Arrays.copyOf(position, capacity);
+        Arrays.fill(position, previous, capacity, -1);
+        seen = Arrays.copyOf(seen, capacity);
+    }
+
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            epoch = 1;
+        }
+    }
+
+    private void push(int slot, int at) {
+        stack = append(stack, at, slot);
+    }
+
+    private static int[] append(int[] array, int at, int value) {
+        if (at == array.length) array = Arrays.copyOf(array, array.length * 2);
+        array[at] = value;
+        return array;
+    }
+}
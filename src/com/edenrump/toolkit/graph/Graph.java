@@ -9,264 +9,1492 @@
 
 package com.edenrump.toolkit.graph;
 
+import com.edenrump.toolkit.models.ConnectionStore;
 import com.edenrump.toolkit.models.Vertex;
-import javafx.beans.property.ReadOnlyObjectWrapper;
-import javafx.geometry.VerticalDirection;
+import com.edenrump.toolkit.models.VertexListener;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
  * Class representing a graph.
- *
- * Currently only has utility methods, but should eventually be refactored to include all elements of storing and
- * retrieving
+ * <p>
+ * Vertices are exposed by id, but internally every id is interned to a dense integer slot and connections are held as
+ * primitive int arrays of slots. While a vertex is attached, those arrays are the only record of its connections: the
+ * vertex reads them back through the graph (see ConnectionStore) rather than keeping a list of ids of its own.
+ * Traversals run over a compressed-sparse-row copy of the adjacency, which is rebuilt lazily after the structure of
+ * the graph changes.
+ * <p>
+ * An incoming index mirrors the adjacency, recording for each slot the slots whose vertices list it as a connection.
+ * Removing a vertex or a connection therefore only touches the vertices on either side of it.
+ * <p>
+ * Vertices are also indexed by depth. Each depth column keeps its vertices in priority order as an order-maintenance
+ * list whose labels are the vertex priorities, so vertices can be placed before or after one another indefinitely
+ * without renumbering the column and without re-sorting it.
+ * <p>
+ * The properties of attached vertices are held by the graph in dictionary-encoded columns (see PropertyColumns)
+ * rather than in a map per vertex. Property values are indexed too (see PropertyIndex), so the vertices with a given attribute value are found in
+ * time proportional to the number of matches rather than to the size of the graph. Names and text property values
+ * are also held in a trigram index (see TextIndex) for text search.
+ * <p>
+ * Upstream and downstream relationships follow the connections oriented by depth (see DepthDag). The closure of each
+ * vertex is cached when first asked for and only dropped when a change could affect it. A topological order of those
+ * connections is maintained as the graph is edited, so a connection that would close a cycle is refused without
+ * searching more of the graph than the change affects.
+ * <p>
+ * Vertices added to the graph are attached to it, so that connections added or removed through the vertex are
+ * reflected in the graph. A vertex can only be attached to one graph at a time.
+ * <p>
+ * Every change to the graph, whether made through the graph or through an attached vertex, advances its version and
+ * is reported to any registered GraphListener, so that views and indexes can recompute only what changed.
+ * <p>
+ * Immutable snapshots of the graph can be taken at any time for readers on other threads (see GraphSnapshot). The
+ * graph keeps the last published snapshot and the ids changed since, so each snapshot only copies what changed.
+ * <p>
+ * A graph need not hold every vertex of a document. Given a VertexSource, it holds the vertices at depth zero and
+ * faults in the vertices downstream of a root when the root is expanded, releasing them again when it is collapsed
+ * unless they have been changed. Queries see only the vertices the graph holds; documentSnapshot sees the whole
+ * document, and prepareSourceSearch finds the roots under which the rest of it holds a match.
  */
 public class Graph {
 
-    Map<String, Vertex> verticesById = new HashMap<>();
+    private final VertexIndex index = new VertexIndex();
+    private final AdjacencyStore adjacency = new AdjacencyStore();
+    private final AdjacencyStore incoming = new AdjacencyStore();
+    private final DepthIndex depthIndex = new DepthIndex();
+    private final PropertyColumns propertyColumns = new PropertyColumns();
+    private final PropertyIndex propertyIndex = new PropertyIndex();
+    private final TextIndex textIndex = new TextIndex();
+    private final IntBuffer relabelled = new IntBuffer();
+    private int priorityHint = -1;
+    private final DynamicTopologicalOrder topologicalOrder = new DynamicTopologicalOrder(adjacency, incoming);
+    private final VertexListener vertexListener = new VertexChangeListener();
+    private final ConnectionStore connectionStore = new SlotConnections();
 
+    private Vertex[] verticesBySlot = new Vertex[16];
+    private int vertexCount = 0;
 
+    /**
+     * Compressed copies of the adjacency and the incoming index, and the connections oriented by depth. Each is null
+     * when the graph has changed since it was last built.
+     */
+    private CompressedAdjacency compressed;
+    private CompressedAdjacency compressedIncoming;
+    private DepthDag depthDag;
+
+    private final PathFinder pathFinder = new PathFinder();
+    private final ReachabilityIndex reachability = new ReachabilityIndex();
+    private final List<RollUpIndex<?>> rollUps = new ArrayList<>();
+
+    private final List<GraphListener> graphListeners = new CopyOnWriteArrayList<>();
+    private long version = 0;
+
+    private PersistentHashMap<String, VertexRecord> published = PersistentHashMap.empty();
+    private final Set<String> changedSincePublished = new HashSet<>();
+    private GraphSnapshot lastSnapshot;
+    private boolean restoring = false;
+    private long structureVersion = 0;
+    private StructureReport structureReport;
+    private long reportedStructureVersion = -1;
+
+    private VertexSource source;
+    private final Set<String> faultedIn = new HashSet<>();
+    private final Set<String> discarded = new HashSet<>();
+    private final Map<String, List<String>> expandedRoots = new HashMap<>();
+
+    /**
+     * Add a vertex to the graph, which then holds it and is told about every change made to it. A vertex already
+     * held under the same id is replaced.
+     *
+     * @param vertex the vertex
+     * @throws IllegalArgumentException if the vertex is held by another graph
+     */
     public void addVertex(Vertex vertex) {
-        verticesById.put(vertex.getId(), vertex);
+        if (vertex.getListener() != null && vertex.getListener() != vertexListener) {
+            throw new IllegalArgumentException("Vertex " + vertex.getId() + " is held by another graph");
+        }
+        int slot = internSlot(index.intern(vertex.getVertexId()));
+        Vertex previous = verticesBySlot[slot];
+        if (previous == vertex) return;
+
+        if (previous != null) {
+            previous.setListener(null);
+            previous.storePropertiesIn(null, -1);
+            previous.storeConnectionsIn(null, -1);
+            propertyColumns.clearRow(slot);
+            depthIndex.remove(slot, previous.getDepth());
+            propertyIndex.removeVertex(previous);
+            unlinkAll(slot);
+        } else {
+            vertexCount++;
+        }
+        verticesBySlot[slot] = vertex;
+        vertex.setListener(vertexListener);
+        vertex.storePropertiesIn(propertyColumns, slot);
+        depthIndex.add(slot, vertex.getDepth(), vertex.getPriority(), priorityHint);
+        priorityHint = -1;
+        propertyIndex.addVertex(vertex);
+        textIndex.update(slot, vertex);
+        vertex.storeConnectionsIn(connectionStore, slot);
+        touchNeighbourhood(slot);
+        structureChanged();
+        topologicalOrder.slotChanged(slot, verticesBySlot);
+        fire(GraphChange.Type.VERTEX_ADDED, vertex.getId(), null, null);
     }
 
     public void removeVertex(String vertexId) {
-        verticesById.remove(vertexId);
-        for (String otherId : getAllVertexIds()) {
-            getVertexById(otherId).getConnectedVertices().remove(vertexId);
+        int slot = index.slotOf(vertexId);
+        if (slot < 0 || verticesBySlot[slot] == null) return;
+        if (source != null && source.contains(vertexId)) discarded.add(vertexId);
+        faultedIn.remove(vertexId);
+
+        detach(slot, vertexId);
+        int[] pointingHere = Arrays.copyOf(incoming.row(slot), incoming.degree(slot));
+        for (int other : pointingHere) {
+            verticesBySlot[other].removeConnection(vertexId);
         }
+        releaseIfUnused(slot);
+        structureChanged();
+        fire(GraphChange.Type.VERTEX_REMOVED, vertexId, null, null);
+    }
+
+    /**
+     * Take a vertex out of every index and drop the connections it holds, leaving those that other vertices hold to it
+     */
+    private void detach(int slot, String vertexId) {
+        touchNeighbourhood(slot);
+        verticesBySlot[slot].setListener(null);
+        verticesBySlot[slot].storePropertiesIn(null, -1);
+        verticesBySlot[slot].storeConnectionsIn(null, -1);
+        propertyColumns.clearRow(slot);
+        depthIndex.remove(slot, verticesBySlot[slot].getDepth());
+        propertyIndex.removeVertex(verticesBySlot[slot]);
+        textIndex.remove(slot);
+        verticesBySlot[slot] = null;
+        vertexCount--;
+        unlinkAll(slot);
+    }
+
+    /**
+     * Read vertices from a source on demand. The graph should already hold the vertices of the source at depth zero;
+     * the rest are faulted in a subtree at a time by expand. Clearing the graph detaches the source.
+     *
+     * @param source the source, or null for none
+     */
+    public void setSource(VertexSource source) {
+        this.source = source;
+        faultedIn.clear();
+        discarded.clear();
+        expandedRoots.clear();
+        structureVersion++;
+    }
+
+    /**
+     * Return the source the graph faults vertices in from
+     *
+     * @return the source, or null if the graph holds every vertex
+     */
+    public VertexSource getSource() {
+        return source;
+    }
+
+    /**
+     * Fault in the vertices downstream of a root from the source. Vertices the graph already holds, and vertices of
+     * the source that have been removed from the graph, are left as they are. Each vertex faulted in is reported as
+     * added.
+     *
+     * @param rootId the id of a vertex at depth zero
+     * @return the vertices faulted in
+     */
+    public List<Vertex> expand(String rootId) {
+        if (source == null || expandedRoots.containsKey(rootId)) return new ArrayList<>();
+        List<Vertex> subtree = source.readSubtree(rootId);
+        List<String> ids = new ArrayList<>(subtree.size());
+        List<Vertex> added = new ArrayList<>();
+        for (Vertex vertex : subtree) {
+            String id = vertex.getId();
+            ids.add(id);
+            if (discarded.contains(id) || getVertexById(id) != null) continue;
+            dropDiscardedConnections(vertex);
+            addVertex(vertex);
+            faultedIn.add(id);
+            added.add(vertex);
+        }
+        expandedRoots.put(rootId, ids);
+        return added;
+    }
+
+    /**
+     * Release the vertices faulted in for a root so that they no longer take up memory. Vertices that have changed
+     * since they were faulted in, and vertices downstream of another expanded root, are kept. Each vertex released is
+     * reported as removed. The source still holds it, so it can be faulted in again.
+     *
+     * @param rootId the id of a root passed to expand
+     * @return the ids of the vertices released
+     */
+    public List<String> collapse(String rootId) {
+        List<String> ids = expandedRoots.remove(rootId);
+        if (ids == null) return new ArrayList<>();
+        Set<String> stillExpanded = new HashSet<>();
+        for (List<String> other : expandedRoots.values()) {
+            stillExpanded.addAll(other);
+        }
+        List<String> released = new ArrayList<>();
+        for (String id : ids) {
+            if (stillExpanded.contains(id) || !faultedIn.remove(id)) continue;
+            int slot = index.slotOf(id);
+            detach(slot, id);
+            releaseIfUnused(slot);
+            structureChanged();
+            fire(GraphChange.Type.VERTEX_REMOVED, id, null, null);
+            released.add(id);
+        }
+        return released;
+    }
+
+    /**
+     * Take a snapshot of the whole document: the vertices the graph holds, as snapshot() takes them, and those of the
+     * source that have not been faulted in or removed. This reads every vertex of the source, so it is meant for
+     * saving and exporting.
+     *
+     * @return the snapshot
+     */
+    public GraphSnapshot documentSnapshot() {
+        GraphSnapshot resident = snapshot();
+        if (source == null) return resident;
+        List<VertexRecord> unloaded = new ArrayList<>();
+        source.forEachVertex(vertex -> {
+            String id = vertex.getId();
+            if (discarded.contains(id) || getVertexById(id) != null) return;
+            dropDiscardedConnections(vertex);
+            unloaded.add(VertexRecord.of(vertex));
+        });
+        PersistentHashMap<String, VertexRecord> vertices = published;
+        for (VertexRecord record : unloaded) {
+            vertices = vertices.plus(record.getId(), record);
+        }
+        return new GraphSnapshot(vertices, version);
+    }
+
+    /**
+     * Prepare a search of the vertices of the source that the graph does not hold, for the roots they lie under. The
+     * vertices the graph holds or has removed are noted when the search is prepared, so the search itself reads
+     * nothing the graph changes afterwards and can run on another thread. It reads every vertex of the source.
+     *
+     * @param test the test a vertex must pass
+     * @return the search, giving the ids of the roots with a vertex that passes the test at or downstream of them
+     */
+    public Supplier<Set<String>> prepareSourceSearch(Predicate<Vertex> test) {
+        VertexSource searched = source;
+        if (searched == null) return HashSet::new;
+        GraphSnapshot held = snapshot();
+        Set<String> removed = new HashSet<>(discarded);
+        return () -> searched.findRoots(vertex -> !held.containsVertex(vertex.getId())
+                && !removed.contains(vertex.getId()) && test.test(vertex));
+    }
+
+    /**
+     * Return whether the graph holds every vertex downstream of a vertex: whether it has no source, or the vertex is
+     * not a root whose subtree is still to be faulted in
+     *
+     * @param vertexId the id of the vertex
+     * @return whether queries about what lies downstream of the vertex see the whole document
+     */
+    public boolean holdsDownstreamOf(String vertexId) {
+        if (source == null || expandedRoots.containsKey(vertexId)) return true;
+        Vertex vertex = getVertexById(vertexId);
+        return vertex == null || vertex.getDepth() != 0;
+    }
+
+    /**
+     * Remove the connections a vertex read from the source holds to vertices since removed from the graph, as
+     * removeVertex would have done had the vertex been held at the time
+     */
+    private void dropDiscardedConnections(Vertex vertex) {
+        if (discarded.isEmpty()) return;
+        for (String connectedId : new ArrayList<>(vertex.getConnectedVertices())) {
+            if (discarded.contains(connectedId)) vertex.removeConnection(connectedId);
+        }
+    }
+
+    /**
+     * Return whether an id belongs to a vertex of the source that has not been faulted in
+     */
+    private boolean heldBySource(String vertexId) {
+        return source != null && !discarded.contains(vertexId) && source.contains(vertexId);
+    }
+
+    /**
+     * Add a connection from one vertex to another, unless it would close a cycle (see wouldCreateCycle)
+     *
+     * @param fromId the id of the vertex to hold the connection
+     * @param toId   the id of the vertex to connect to
+     * @return whether the connection was added
+     */
+    public boolean addConnection(String fromId, String toId) {
+        Vertex from = getVertexById(fromId);
+        return from != null && from.addConnection(toId);
+    }
+
+    /**
+     * Return whether adding a connection from one vertex to another would close a cycle among the connections
+     * oriented by depth. Only the region of the graph between the two vertices in topological order is searched.
+     *
+     * @param fromId the id of the vertex that would hold the connection
+     * @param toId   the id of the vertex it would connect to
+     * @return whether the connection would close a cycle
+     */
+    public boolean wouldCreateCycle(String fromId, String toId) {
+        int from = slotOfVertex(fromId);
+        int to = slotOfVertex(toId);
+        if (from < 0 || to < 0 || adjacency.contains(from, to) || !listedVertexIsUpstream(from, to)) return false;
+        ensureTopologicalOrder();
+        return topologicalOrder.wouldCloseCycle(to, from, verticesBySlot, from, to);
+    }
+
+    /**
+     * Remove the connection from one vertex to another. The connection in the opposite direction, if any, is left
+     * in place.
+     *
+     * @param fromId the id of the vertex holding the connection
+     * @param toId   the id of the connected vertex
+     * @return whether the connection was present
+     */
+    public boolean removeConnection(String fromId, String toId) {
+        Vertex from = getVertexById(fromId);
+        return from != null && from.removeConnection(toId);
+    }
+
+    /**
+     * Return the ids of all vertices in the graph that list the given vertex as a connection
+     *
+     * @param vertexId the id of the vertex
+     * @return the ids of the vertices pointing at the vertex
+     */
+    public List<String> getIncomingConnections(String vertexId) {
+        int slot = index.slotOf(vertexId);
+        if (slot < 0) return new ArrayList<>();
+        int[] row = incoming.row(slot);
+        List<String> ids = new ArrayList<>(incoming.degree(slot));
+        for (int i = 0; i < incoming.degree(slot); i++) {
+            ids.add(index.idOf(row[i]));
+        }
+        return ids;
     }
 
     public Set<String> getAllVertexIds() {
-        return verticesById.keySet();
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        while (from < index.slotLimit() && verticesBySlot[from] == null) from++;
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < index.slotLimit();
+                    }
+
+                    @Override
+                    public String next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        String id = verticesBySlot[next].getId();
+                        next = advance(next + 1);
+                        return id;
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && getVertexById((String) o) != null;
+            }
+
+            @Override
+            public int size() {
+                return vertexCount;
+            }
+        };
     }
 
     public Vertex getVertexById(String id) {
-        return verticesById.get(id);
+        int slot = index.slotOf(id);
+        return slot < 0 ? null : verticesBySlot[slot];
     }
 
-    public ReadOnlyObjectWrapper<Vertex> getReadOnlyVertex(String id) {
-        return verticesById.get(id).readOnly();
+    /**
+     * Return a new list of every vertex in the graph. To iterate or filter without copying, use view().
+     *
+     * @return the vertices
+     */
+    public List<Vertex> getAllVertexData() {
+        List<Vertex> vertices = new ArrayList<>(vertexCount);
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (verticesBySlot[slot] != null) vertices.add(verticesBySlot[slot]);
+        }
+        return vertices;
     }
 
-    public List<Vertex> getAllVertexData() {
-        return new ArrayList<>(verticesById.values());
+    /**
+     * Set how the values of a property are normalised in the property index, e.g. PropertyNormalisers.colour() so that
+     * "#FFF" and "#ffffff" are found together. Values already in the graph are indexed again. Values are trimmed
+     * unless a normaliser is set.
+     *
+     * @param propertyName the name of the property
+     * @param normaliser   the normaliser
+     */
+    public void setPropertyNormaliser(String propertyName, UnaryOperator<String> normaliser) {
+        propertyIndex.setNormaliser(propertyName, normaliser, getAllVertexData());
+    }
+
+    /**
+     * Return the ids of the vertices whose property has a value, compared after normalisation. The lookup costs the
+     * same however many vertices the graph holds.
+     *
+     * @param propertyName the name of the property
+     * @param value        the value to look for
+     * @return an unmodifiable set of ids that follows later changes to the graph
+     */
+    public Set<String> getVertexIdsWithProperty(String propertyName, String value) {
+        return propertyIndex.idsWith(propertyName, value);
+    }
+
+    /**
+     * Return the ids of the vertices that have a property, whatever its value
+     *
+     * @param propertyName the name of the property
+     * @return an unmodifiable set of ids that follows later changes to the graph
+     */
+    public Set<String> getVertexIdsWithProperty(String propertyName) {
+        return propertyIndex.idsWith(propertyName);
+    }
+
+    /**
+     * Return the distinct values of a property across the graph, as normalised for the index
+     *
+     * @param propertyName the name of the property
+     * @return an unmodifiable set of values that follows later changes to the graph
+     */
+    public Set<String> getPropertyValues(String propertyName) {
+        return propertyIndex.valuesOf(propertyName);
     }
 
-    public int calculatePriority(int depth, VerticalDirection topOrBottom) {
-        int rowPriorityIncrement = 32000;
+    /**
+     * Set whether searches look at the values of a property. Names are always searched, and so are properties other
+     * than hyperlinks ("url") and colours ("color") unless set otherwise.
+     *
+     * @param propertyName the name of the property
+     * @param searchable   whether searches should look at its values
+     */
+    public void setPropertySearchable(String propertyName, boolean searchable) {
+        textIndex.setSearchable(propertyName, searchable, verticesBySlot, index.slotLimit());
+    }
 
-        int maxPriority = calculateMaximumPriorityOfColumn(depth);
-        int minPriority = calculateMinimumPriorityOfColumn(depth);
+    /**
+     * Return a test of whether a vertex's name or a searchable property value contains the given text, ignoring case,
+     * as searchVertices finds them, e.g. to search the vertices of the source (see prepareSourceSearch). The test
+     * can run on any thread.
+     *
+     * @param text the text to look for
+     * @return the test
+     */
+    public Predicate<Vertex> searchTest(String text) {
+        return textIndex.containingTest(text);
+    }
 
-        if (maxPriority == Integer.MIN_VALUE) return 0;
-        return topOrBottom == VerticalDirection.DOWN ?
-                maxPriority + rowPriorityIncrement :
-                minPriority - rowPriorityIncrement;
+    /**
+     * Find the vertices whose name or a searchable property value contains the given text, ignoring case
+     *
+     * @param text the text to look for
+     * @return the ids of the matching vertices, ordered by depth and then by priority
+     */
+    public List<String> searchVertices(String text) {
+        return inDisplayOrder(textIndex.containing(text));
     }
 
-    private int calculateMaximumPriorityOfColumn(int depth) {
-        if(getAllVerticesAtDepth(depth).size()==0) return 0;
-        int maxPriority = Integer.MIN_VALUE;
-        for (String id : getAllVerticesAtDepth(depth)) {
-            maxPriority = Math.min(maxPriority, getVertexById(id).getDepth());
+    /**
+     * Find the vertices with a word in their name or a searchable property value that starts with the given text,
+     * ignoring case, e.g. for completing a search as it is typed
+     *
+     * @param prefix the start of a word
+     * @return the ids of the matching vertices, ordered by depth and then by priority
+     */
+    public List<String> searchVerticesByWordPrefix(String prefix) {
+        return inDisplayOrder(textIndex.withWordStarting(prefix));
+    }
+
+    private List<String> inDisplayOrder(IntBuffer slots) {
+        List<Vertex> vertices = new ArrayList<>(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            vertices.add(verticesBySlot[slots.get(i)]);
+        }
+        vertices.sort(Comparator.comparingInt(Vertex::getDepth).thenComparingInt(Vertex::getPriority));
+        List<String> ordered = new ArrayList<>(vertices.size());
+        for (Vertex vertex : vertices) {
+            ordered.add(vertex.getId());
         }
-        return maxPriority;
+        return ordered;
     }
 
-    private int calculateMinimumPriorityOfColumn(int depth) {
-        if(getAllVerticesAtDepth(depth).size()==0) return 0;
-        int minPriority = Integer.MAX_VALUE;
-        for (String id : getAllVerticesAtDepth(depth)) {
-            minPriority = Math.min(minPriority, getVertexById(id).getDepth());
+    /**
+     * Return a live view of the whole graph, to be narrowed with GraphView.filter
+     *
+     * @return the view
+     */
+    public GraphView view() {
+        return new GraphView(this, null, null);
+    }
+
+    /**
+     * Return a live view of the vertices that pass a predicate. The predicate is applied as the view is read, so the
+     * view follows later changes to the graph.
+     *
+     * @param predicate the predicate
+     * @return the view
+     */
+    public GraphView view(Predicate<Vertex> predicate) {
+        return new GraphView(this, null, predicate);
+    }
+
+    /**
+     * Return a live view of the vertices with the given ids, such as a selection. Ids not in the graph are ignored.
+     *
+     * @param vertexIds the ids of the vertices
+     * @return the view
+     */
+    public GraphView view(Collection<String> vertexIds) {
+        return GraphView.ofIds(this, vertexIds);
+    }
+
+    /**
+     * Return the number of vertices in the graph
+     *
+     * @return the number of vertices
+     */
+    public int size() {
+        return vertexCount;
+    }
+
+    /**
+     * Collect the vertex with the given id and all vertices upstream or downstream of it.
+     *
+     * @param vertexId  the id of the vertex to start from
+     * @param direction INCREASING_DEPTH for downstream vertices, DECREASING_DEPTH for upstream ones
+     * @return the vertex followed by all vertices reachable from it in the given direction
+     */
+    public List<Vertex> unidirectionalFill(String vertexId, DepthDirection direction) {
+        int slot = index.slotOf(vertexId);
+        if (slot < 0 || verticesBySlot[slot] == null) return new ArrayList<>();
+
+        int[] reached = closure(slot, direction);
+        List<Vertex> filled = new ArrayList<>(reached.length + 1);
+        filled.add(verticesBySlot[slot]);
+        for (int other : reached) {
+            if (other != slot) filled.add(verticesBySlot[other]);
         }
-        return minPriority;
+        return filled;
     }
 
-    public List<String> geAllVerticesSortedByPriority() {
-        List<String> vertices = new ArrayList<>(getAllVertexIds());
-        vertices.sort(Comparator.comparingInt(o -> getVertexById(o).getPriority()));
-        return vertices;
+    /**
+     * Return all vertices downstream of the given vertex, i.e. reachable by following connections towards
+     * increasing depth
+     *
+     * @param vertexId the id of the vertex
+     * @return the downstream vertices
+     */
+    public List<Vertex> getDownstream(String vertexId) {
+        int slot = index.slotOf(vertexId);
+        if (slot < 0 || verticesBySlot[slot] == null) return new ArrayList<>();
+        return toVertices(closure(slot, DepthDirection.INCREASING_DEPTH));
+    }
+
+    /**
+     * Return all vertices upstream of the given vertex, i.e. reachable by following connections towards decreasing
+     * depth
+     *
+     * @param vertexId the id of the vertex
+     * @return the upstream vertices
+     */
+    public List<Vertex> getUpstream(String vertexId) {
+        int slot = index.slotOf(vertexId);
+        if (slot < 0 || verticesBySlot[slot] == null) return new ArrayList<>();
+        return toVertices(closure(slot, DepthDirection.DECREASING_DEPTH));
     }
 
-    private Set<String> getAllVerticesAtDepth(int depth) {
-        Set<String> verticesAtDepth = new HashSet<>();
-        for (String id : getAllVertexIds()) {
-            if (getVertexById(id).getDepth() == depth) verticesAtDepth.add(id);
+    /**
+     * Return whether one vertex is downstream of another
+     *
+     * @param upstreamId   the id of the upstream vertex
+     * @param downstreamId the id of the candidate downstream vertex
+     * @return whether the second vertex can be reached from the first by following connections towards increasing
+     * depth
+     */
+    public boolean isDownstream(String upstreamId, String downstreamId) {
+        int from = index.slotOf(upstreamId);
+        int to = index.slotOf(downstreamId);
+        if (from < 0 || to < 0 || verticesBySlot[from] == null || verticesBySlot[to] == null) return false;
+        return reachability.reaches(from, to, depthDag(), verticesBySlot);
+    }
+
+    /**
+     * Start maintaining a roll-up over the graph
+     *
+     * @param rollUp the roll-up to maintain
+     * @param <T>    the type of the rolled up value
+     * @return an index from which the rolled up value of any vertex can be read
+     */
+    public <T> RollUpIndex<T> addRollUp(RollUp<T> rollUp) {
+        RollUpIndex<T> rollUpIndex = new RollUpIndex<>(this, rollUp);
+        rollUps.add(rollUpIndex);
+        return rollUpIndex;
+    }
+
+    /**
+     * Stop maintaining a roll-up
+     *
+     * @param rollUpIndex the index returned by addRollUp
+     */
+    public void removeRollUp(RollUpIndex<?> rollUpIndex) {
+        rollUps.remove(rollUpIndex);
+    }
+
+    /**
+     * Register a listener to be told about every subsequent change to the graph
+     *
+     * @param listener the listener
+     */
+    public void addGraphListener(GraphListener listener) {
+        graphListeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener about changes to the graph
+     *
+     * @param listener the listener
+     */
+    public void removeGraphListener(GraphListener listener) {
+        graphListeners.remove(listener);
+    }
+
+    /**
+     * Return the version of the graph. The version increases by one with every change, so a consumer can tell whether
+     * anything has changed since it last looked.
+     *
+     * @return the current version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Take an immutable snapshot of the graph as it is now. The graph itself is not thread-safe, so this must be
+     * called on the thread that edits the graph; the snapshot can then be read from any thread.
+     *
+     * @return the snapshot
+     */
+    public GraphSnapshot snapshot() {
+        if (lastSnapshot != null && lastSnapshot.getVersion() == version) return lastSnapshot;
+        for (String id : changedSincePublished) {
+            Vertex vertex = getVertexById(id);
+            published = vertex == null ? published.minus(id) : published.plus(id, VertexRecord.of(vertex));
         }
-        return verticesAtDepth;
+        changedSincePublished.clear();
+        lastSnapshot = new GraphSnapshot(published, version);
+        return lastSnapshot;
     }
 
+    /**
+     * Give a vertex held by the graph the name, connections, depth, priority and properties it had in an earlier
+     * snapshot. The connections are restored without the cycle check, since that state was accepted when it was
+     * taken; a cycle it closes is reported by validate() like one loaded from a file.
+     *
+     * @param record the vertex as it was
+     * @throws IllegalArgumentException if the graph holds no vertex with the id of the record
+     */
+    public void restoreVertex(VertexRecord record) {
+        Vertex vertex = getVertexById(record.getId());
+        if (vertex == null) throw new IllegalArgumentException("No vertex with id " + record.getId());
+        restoring = true;
+        try {
+            vertex.update(record.toVertex());
+        } finally {
+            restoring = false;
+        }
+        if (!new HashSet<>(vertex.getConnectedVertices()).equals(new HashSet<>(record.getConnectedVertices()))) {
+            throw new IllegalStateException("Could not restore the connections of vertex " + record.getId());
+        }
+    }
 
+    /**
+     * Return the structure version of the graph. It increases with every change that can alter the result of
+     * validate(): vertices added or removed, connections added or removed and depths changed. Changes to names,
+     * priorities and properties leave it as it is.
+     *
+     * @return the current structure version
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
 
     /**
-     * Collect the nodes with no upstream linkages. Return these as a list.
+     * Check the structure of the graph: order the vertices topologically along their connections and report cycles,
+     * connections between vertices at the same depth, one-way connections against depth and connections to missing
+     * vertices. The check runs in O(V + E) and its result is kept until the structure of the graph next changes.
      *
-     * @param vertexList the entire list of nodes to be parsed
-     * @return a list of nodes with no upstream linkages
+     * @return the report
      */
-    public static List<Vertex> getLeavesUnidirectional(DepthDirection searchDirection, List<Vertex> vertexList) {
-        if (searchDirection == DepthDirection.INCREASING_DEPTH) {
-            return vertexList
-                    .stream()
-                    .filter(v -> v.getDepth() == Collections.max(vertexList
-                            .stream()
-                            .map(Vertex::getDepth)
-                            .collect(Collectors.toList())))
-                    .collect(Collectors.toList());
-        } else {
-            return vertexList
-                    .stream()
-                    .filter(v -> v.getDepth() == Collections.min(vertexList
-                            .stream()
-                            .map(Vertex::getDepth)
-                            .collect(Collectors.toList())))
-                    .collect(Collectors.toList());
+    public StructureReport validate() {
+        if (structureReport == null || reportedStructureVersion != structureVersion) {
+            structureReport = prepareValidation().get();
+            reportedStructureVersion = structureVersion;
         }
+        return structureReport;
     }
 
     /**
-     * Determine the shortest path between two vertices in the given vertex data map. Implements Dijkstra's shortest path
-     * No benefit to implementing A* because network topology will likely be low and computational time taken to
-     * optimise priority queue will likely outweigh gains.
+     * Prepare a check of the structure of the graph as it is now, as validate() would make it, that can be run on
+     * another thread. Preparing copies the id and depth of every slot; the check itself, which does the O(V + E)
+     * work, reads nothing the graph changes afterwards. If the structure has not changed since validate() last ran,
+     * its report is returned as it is.
      *
-     * @param startVertex      the statring vertex for the search
-     * @param desinationVertex the destination vertex
-     * @param allVertices      the vertex data map
-     * @return an ordered list containing
+     * @return the check
      */
-    public static List<Vertex> findShortestPath(Vertex startVertex, Vertex desinationVertex, List<Vertex> allVertices) {
-        if (desinationVertex == startVertex) return new ArrayList<>(Collections.singletonList(startVertex));
+    public Supplier<StructureReport> prepareValidation() {
+        StructureReport current = structureReport;
+        if (current != null && reportedStructureVersion == structureVersion) return () -> current;
+        long checkedVersion = version;
+        CompressedAdjacency connections = compressed();
+        DepthDag dag = depthDag();
+        StructureReport.Slots slots = StructureReport.Slots.of(index.slotLimit(), verticesBySlot, index,
+                this::heldBySource);
+        return () -> StructureReport.of(checkedVersion, connections, dag, slots);
+    }
 
-        //if startVertex isn't in allVertices, return empty list because this isn't going to work...
-        if (!allVertices.contains(startVertex)) return new ArrayList<>();
+    int slotOfVertex(String vertexId) {
+        int slot = index.slotOf(vertexId);
+        return slot >= 0 && verticesBySlot[slot] != null ? slot : -1;
+    }
 
-        //populate initial priority queue
-        List<PriorityItem> priorityQueue = new LinkedList<>();
-        Map<String, PriorityItem> idPriorityItemMap = new HashMap<>();
-        for (Vertex v : allVertices) {
-            PriorityItem item;
-            if (v.equals(startVertex)) {
-                item = new PriorityItem(0, v);
-            } else {
-                item = new PriorityItem(Integer.MAX_VALUE, v);
-            }
-            priorityQueue.add(item);
-            idPriorityItemMap.put(v.getId(), item);
-        }
-        Collections.sort(priorityQueue);
-        List<PriorityItem> visited = new ArrayList<>();
-
-        int cycles = 0;
-        boolean bestPathFound = false;
-        while (cycles < 1500 && !bestPathFound) {
-            PriorityItem currentItem = priorityQueue.get(0);
-            visited.add(currentItem);
-            priorityQueue.remove(currentItem);
-
-            for (String id : currentItem.vertex.getConnectedVertices()) {
-                PriorityItem adjacentItem = idPriorityItemMap.get(id);
-                if (visited.contains(adjacentItem)) continue; //don't go back to nodes already visited
-                if ((currentItem.distance + 1) < adjacentItem.distance) {
-                    adjacentItem.distance = currentItem.distance + 1; //all edge lengths are 1 in this implementation
-                    adjacentItem.previousItem = currentItem;
-                }
-            }
+    Vertex vertexInSlot(int slot) {
+        return slot < verticesBySlot.length ? verticesBySlot[slot] : null;
+    }
+
+    int slotLimit() {
+        return index.slotLimit();
+    }
+
+    int[] ancestorSlots(int slot) {
+        return reachability.ancestors(slot, depthDag(), verticesBySlot);
+    }
+
+    private int[] closure(int slot, DepthDirection direction) {
+        return direction == DepthDirection.INCREASING_DEPTH ?
+                reachability.descendants(slot, depthDag(), verticesBySlot) :
+                reachability.ancestors(slot, depthDag(), verticesBySlot);
+    }
 
-            cycles++;
-            Collections.sort(priorityQueue);
-            if (priorityQueue.get(0).vertex == desinationVertex) {
-                bestPathFound = true;
+    /**
+     * Determine a shortest path between two vertices, following connections in either direction. All connections
+     * have unit length.
+     *
+     * @param startId       the id of the vertex to start from
+     * @param destinationId the id of the vertex to finish at
+     * @return the vertices on the path, from start to destination inclusive, or an empty list if there is no path
+     */
+    public List<Vertex> findShortestPath(String startId, String destinationId) {
+        int start = index.slotOf(startId);
+        int destination = index.slotOf(destinationId);
+        if (start < 0 || destination < 0) return new ArrayList<>();
+        return toVertices(pathFinder.path(undirectedEdges(), undirectedEdges(), verticesBySlot, start, destination));
+    }
+
+    /**
+     * Determine a shortest path between two vertices that only moves in one depth direction at every step
+     *
+     * @param startId       the id of the vertex to start from
+     * @param destinationId the id of the vertex to finish at
+     * @param direction     the direction in which every step must move
+     * @return the vertices on the path, from start to destination inclusive, or an empty list if there is no path
+     */
+    public List<Vertex> findShortestPath(String startId, String destinationId, DepthDirection direction) {
+        int start = index.slotOf(startId);
+        int destination = index.slotOf(destinationId);
+        if (start < 0 || destination < 0) return new ArrayList<>();
+        return toVertices(pathFinder.path(directedEdges(direction, false), directedEdges(direction, true),
+                verticesBySlot, start, destination));
+    }
+
+    /**
+     * Determine the number of connections on a shortest path between two vertices, following connections in either
+     * direction
+     *
+     * @param startId       the id of the vertex to start from
+     * @param destinationId the id of the vertex to finish at
+     * @return the length of a shortest path, or -1 if there is no path
+     */
+    public int distanceBetween(String startId, String destinationId) {
+        int start = index.slotOf(startId);
+        int destination = index.slotOf(destinationId);
+        if (start < 0 || destination < 0) return -1;
+        return pathFinder.distance(undirectedEdges(), undirectedEdges(), verticesBySlot, start, destination);
+    }
+
+    /**
+     * Determine the number of connections on a shortest path between two vertices that only moves in one depth
+     * direction at every step
+     *
+     * @param startId       the id of the vertex to start from
+     * @param destinationId the id of the vertex to finish at
+     * @param direction     the direction in which every step must move
+     * @return the length of a shortest path, or -1 if there is no path
+     */
+    public int distanceBetween(String startId, String destinationId, DepthDirection direction) {
+        int start = index.slotOf(startId);
+        int destination = index.slotOf(destinationId);
+        if (start < 0 || destination < 0) return -1;
+        return pathFinder.distance(directedEdges(direction, false), directedEdges(direction, true),
+                verticesBySlot, start, destination);
+    }
+
+    private CompressedAdjacency[] undirectedEdges() {
+        return new CompressedAdjacency[]{compressed(), compressedIncoming()};
+    }
+
+    private CompressedAdjacency[] directedEdges(DepthDirection direction, boolean reversed) {
+        DepthDag dag = depthDag();
+        boolean down = (direction == DepthDirection.INCREASING_DEPTH) != reversed;
+        return new CompressedAdjacency[]{down ? dag.down : dag.up};
+    }
+
+    private List<Vertex> toVertices(int[] slots) {
+        List<Vertex> vertices = new ArrayList<>(slots.length);
+        for (int slot : slots) {
+            vertices.add(verticesBySlot[slot]);
+        }
+        return vertices;
+    }
+
+    /**
+     * Return the compressed adjacency of the graph, rebuilding it if the structure has changed
+     *
+     * @return the compressed adjacency
+     */
+    CompressedAdjacency compressed() {
+        if (compressed == null) compressed = CompressedAdjacency.of(adjacency, index.slotLimit());
+        return compressed;
+    }
+
+    /**
+     * Return the compressed incoming index of the graph, rebuilding it if the structure has changed
+     *
+     * @return the compressed incoming index
+     */
+    CompressedAdjacency compressedIncoming() {
+        if (compressedIncoming == null) compressedIncoming = CompressedAdjacency.of(incoming, index.slotLimit());
+        return compressedIncoming;
+    }
+
+    /**
+     * Return the connections of the graph oriented by depth, rebuilding them if the graph has changed
+     *
+     * @return the oriented connections
+     */
+    DepthDag depthDag() {
+        if (depthDag == null) depthDag = DepthDag.of(compressed(), verticesBySlot);
+        return depthDag;
+    }
+
+    /**
+     * Return whether a connection listed by one slot runs from the listed slot to the listing one: always for a
+     * one-way connection, and for a mutual one when the listing vertex is the deeper
+     */
+    private boolean listedVertexIsUpstream(int from, int to) {
+        return !adjacency.contains(to, from) || verticesBySlot[from].getDepth() > verticesBySlot[to].getDepth();
+    }
+
+    /**
+     * Rebuild the topological order from a full sort if an earlier change invalidated it. While the graph has a
+     * cycle the order cannot be rebuilt, and cycle checks search without its bound.
+     */
+    private void ensureTopologicalOrder() {
+        if (topologicalOrder.isValid()) return;
+        StructureReport report = validate();
+        if (!report.isAcyclic()) return;
+        List<String> order = report.getTopologicalOrder();
+        int[] slots = new int[order.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = index.slotOf(order.get(i));
+        }
+        topologicalOrder.rebuild(slots, slots.length);
+    }
+
+    private void fire(GraphChange.Type type, String vertexId, String connectedId, String propertyName) {
+        version++;
+        if (type == GraphChange.Type.CLEARED) {
+            published = PersistentHashMap.empty();
+            changedSincePublished.clear();
+        } else {
+            changedSincePublished.add(vertexId);
+            if (type != GraphChange.Type.VERTEX_ADDED && type != GraphChange.Type.VERTEX_REMOVED) {
+                faultedIn.remove(vertexId);
             }
         }
+        if (graphListeners.isEmpty()) return;
+        GraphChange change = new GraphChange(type, version, vertexId, connectedId, propertyName);
+        for (GraphListener listener : graphListeners) {
+            listener.graphChanged(change);
+        }
+    }
+
+    private void structureChanged() {
+        structureVersion++;
+        compressed = null;
+        compressedIncoming = null;
+        depthDag = null;
+    }
 
-        if (!bestPathFound) return new ArrayList<>(); //if maxed out cycles, return empty list rather than null
+    private int internSlot(String id) {
+        return internSlot(index.intern(id));
+    }
 
-        List<Vertex> path = new LinkedList<>();
-        PriorityItem retraceCaret = priorityQueue.get(0);
-        while (retraceCaret.vertex != startVertex) {
-            path.add(retraceCaret.vertex);
-            retraceCaret = retraceCaret.previousItem;
+    private int internSlot(int slot) {
+        if (slot >= verticesBySlot.length) {
+            verticesBySlot = Arrays.copyOf(verticesBySlot, Math.max(slot + 1, verticesBySlot.length * 2));
         }
-        path.add(retraceCaret.vertex);
-        Collections.reverse(path);
-        return path;
+        adjacency.ensureCapacity(index.slotLimit());
+        incoming.ensureCapacity(index.slotLimit());
+        return slot;
+    }
+
+    private boolean link(int from, int to) {
+        if (!adjacency.add(from, to)) return false;
+        incoming.add(to, from);
+        touch(from);
+        touch(to);
+        return true;
     }
 
-    public static List<Vertex> unidirectionalFill(String vertexID, DepthDirection direction, List<Vertex> vertices) {
+    /**
+     * Remove a connection, keeping the incoming index in step. The slot connected to is not released, even if nothing
+     * points at it any more; that is left to the caller.
+     */
+    private boolean unlink(int from, int to) {
+        if (!adjacency.remove(from, to)) return false;
+        incoming.remove(to, from);
+        touch(from);
+        touch(to);
+        return true;
+    }
+
+    /**
+     * Remove every connection held by a slot, keeping the incoming index in step
+     *
+     * @param slot the slot whose connections are removed
+     */
+    private void unlinkAll(int slot) {
+        int[] row = adjacency.row(slot);
+        for (int i = 0; i < adjacency.degree(slot); i++) {
+            incoming.remove(row[i], slot);
+            touch(row[i]);
+            if (row[i] != slot) releaseIfUnused(row[i]);
+        }
+        adjacency.clearRow(slot);
+    }
+
+    /**
+     * Record that the vertex in a slot, or its oriented connections, may have changed
+     *
+     * @param slot the slot
+     */
+    private void touch(int slot) {
+        reachability.invalidate(slot);
+        for (RollUpIndex<?> rollUp : rollUps) {
+            rollUp.changed(slot);
+        }
+    }
+
+    /**
+     * Record that the oriented connections around a slot may have changed: those of the slot itself and those of
+     * every slot connected to it in either direction
+     *
+     * @param slot the slot
+     */
+    private void touchNeighbourhood(int slot) {
+        touch(slot);
+        for (int i = 0; i < adjacency.degree(slot); i++) {
+            touch(adjacency.row(slot)[i]);
+        }
+        for (int i = 0; i < incoming.degree(slot); i++) {
+            touch(incoming.row(slot)[i]);
+        }
+    }
+
+    /**
+     * Release the slot of an id that has neither a vertex nor any vertex pointing at it
+     *
+     * @param slot the slot
+     */
+    private void releaseIfUnused(int slot) {
+        if (verticesBySlot[slot] == null && incoming.degree(slot) == 0) index.release(index.idOf(slot));
+    }
+
+    /**
+     * Return a priority that places a new vertex at the top or bottom of the column at the given depth. If the end of
+     * the priority range has been reached, the vertices nearest that end are given new priorities to make room.
+     *
+     * @param depth       the depth of the new vertex
+     * @param position    whether the vertex will be placed first or last in the column
+     * @return the priority for the new vertex
+     */
+    public int calculatePriority(int depth, ColumnPosition position) {
+        DepthColumn column = depthIndex.column(depth);
+        if (column == null) return 0;
+        return priorityFollowing(column, position == ColumnPosition.LAST ? column.tail() : -1);
+    }
+
+    /**
+     * Return a priority that places a new vertex directly after an existing one in its column. If the two neighbours
+     * have no priority between them, nearby vertices are given new priorities to make room.
+     *
+     * @param vertexId the id of the vertex the new vertex should follow
+     * @return the priority for the new vertex, which should be given the same depth
+     */
+    public int priorityAfter(String vertexId) {
+        int slot = slotOfVertex(vertexId);
+        if (slot < 0) throw new IllegalArgumentException("No vertex with id " + vertexId);
+        return priorityFollowing(depthIndex.columnOf(slot), slot);
+    }
+
+    /**
+     * Return a priority that places a new vertex directly before an existing one in its column
+     *
+     * @param vertexId the id of the vertex the new vertex should precede
+     * @return the priority for the new vertex, which should be given the same depth
+     */
+    public int priorityBefore(String vertexId) {
+        int slot = slotOfVertex(vertexId);
+        if (slot < 0) throw new IllegalArgumentException("No vertex with id " + vertexId);
+        return priorityFollowing(depthIndex.columnOf(slot), depthIndex.prev[slot]);
+    }
+
+    /**
+     * Move a vertex so that it directly follows another, taking the depth of that vertex
+     *
+     * @param vertexId the id of the vertex to move
+     * @param anchorId the id of the vertex it should follow
+     */
+    public void moveAfter(String vertexId, String anchorId) {
+        placeNextTo(vertexId, anchorId, true);
+    }
+
+    /**
+     * Move a vertex so that it directly precedes another, taking the depth of that vertex
+     *
+     * @param vertexId the id of the vertex to move
+     * @param anchorId the id of the vertex it should precede
+     */
+    public void moveBefore(String vertexId, String anchorId) {
+        placeNextTo(vertexId, anchorId, false);
+    }
+
+    private void placeNextTo(String vertexId, String anchorId, boolean after) {
+        int slot = slotOfVertex(vertexId);
+        int anchor = slotOfVertex(anchorId);
+        if (slot < 0 || anchor < 0 || slot == anchor) return;
+
+        Vertex vertex = verticesBySlot[slot];
+        vertex.setDepth(verticesBySlot[anchor].getDepth());
+        DepthColumn column = depthIndex.columnOf(anchor);
+        int previous = after ? anchor : depthIndex.prev[anchor];
+        int following = previous < 0 ? column.head() : depthIndex.next[previous];
+        if (previous == slot || following == slot) return;
+
+        depthIndex.remove(slot, vertex.getDepth());
+        int priority = priorityFollowing(column, previous);
+        depthIndex.add(slot, vertex.getDepth(), priority, previous);
+        priorityHint = -1;
+        vertex.setPriority(priority);
+    }
+
+    /**
+     * Find a priority for a new member of a column directly after the given member, and write back the priorities of
+     * any vertices relabelled to make room
+     */
+    private int priorityFollowing(DepthColumn column, int previous) {
+        relabelled.clear();
+        int priority = column.labelAfter(previous, relabelled);
+        for (int i = 0; i < relabelled.size(); i++) {
+            int slot = relabelled.get(i);
+            verticesBySlot[slot].setPriority(depthIndex.label[slot]);
+        }
+        priorityHint = previous;
+        return priority;
+    }
+
+    /**
+     * Return the ids of all vertices ordered by priority, merging the already ordered depth columns
+     *
+     * @return the ids of the vertices
+     */
+    public List<String> geAllVerticesSortedByPriority() {
+        List<String> vertices = new ArrayList<>(vertexCount);
+        PriorityQueue<Integer> columnHeads = new PriorityQueue<>(Comparator.comparingInt(slot -> depthIndex.label[slot]));
+        for (int depth : depthIndex.depths()) {
+            columnHeads.add(depthIndex.column(depth).head());
+        }
+        while (!columnHeads.isEmpty()) {
+            int slot = columnHeads.poll();
+            vertices.add(verticesBySlot[slot].getId());
+            if (depthIndex.next[slot] >= 0) columnHeads.add(depthIndex.next[slot]);
+        }
+        return vertices;
+    }
+
+    /**
+     * Give every vertex a depth by longest-path layering (see Layering), so that every connection runs towards
+     * increasing depth. Intended for data imported without depths.
+     *
+     * @return the number of vertices whose depth changed
+     */
+    public int assignDepths() {
+        return applyDepths(Layering.layerAll(this));
+    }
+
+    /**
+     * Layer the descendants of a vertex again after it was edited, leaving the vertex and the rest of the graph
+     * where they are
+     *
+     * @param vertexId the id of the edited vertex
+     * @return the number of vertices whose depth changed
+     */
+    public int relayerDescendants(String vertexId) {
+        int slot = slotOfVertex(vertexId);
+        return slot < 0 ? 0 : applyDepths(Layering.layerDescendants(this, slot));
+    }
+
+    private int applyDepths(int[] depths) {
+        int changed = 0;
+        for (int slot = 0; slot < depths.length; slot++) {
+            if (depths[slot] == Layering.UNCHANGED || verticesBySlot[slot].getDepth() == depths[slot]) continue;
+            if (changed++ == 0) topologicalOrder.invalidate();
+            verticesBySlot[slot].setDepth(depths[slot]);
+        }
+        return changed;
+    }
+
+    /**
+     * Return all vertices at the given depth, in priority order
+     *
+     * @param depth the depth
+     * @return the vertices at that depth
+     */
+    public List<Vertex> getVerticesAtDepth(int depth) {
+        DepthColumn column = depthIndex.column(depth);
+        if (column == null) return new ArrayList<>();
+        List<Vertex> vertices = new ArrayList<>(column.size());
+        for (int slot = column.head(); slot >= 0; slot = depthIndex.next[slot]) {
+            vertices.add(verticesBySlot[slot]);
+        }
+        return vertices;
+    }
+
+    /**
+     * Return the vertices at the given depth whose priorities lie in a range, in priority order. The start of the
+     * range is found without visiting the vertices before it.
+     *
+     * @param depth        the depth
+     * @param fromPriority the lowest priority to include
+     * @param toPriority   the highest priority to include
+     * @return the vertices at that depth within the range
+     */
+    public List<Vertex> getVerticesAtDepth(int depth, int fromPriority, int toPriority) {
+        List<Vertex> vertices = new ArrayList<>();
+        DepthColumn column = depthIndex.column(depth);
+        if (column == null) return vertices;
+        for (int slot = column.firstAtOrAfter(fromPriority);
+             slot >= 0 && depthIndex.label[slot] <= toPriority;
+             slot = depthIndex.next[slot]) {
+            vertices.add(verticesBySlot[slot]);
+        }
+        return vertices;
+    }
+
+    /**
+     * Apply an action to each vertex at the given depth in priority order, without copying the column. The action
+     * must not add or remove vertices or change depths or priorities.
+     *
+     * @param depth  the depth
+     * @param action the action
+     */
+    public void forEachVertexAtDepth(int depth, Consumer<Vertex> action) {
+        forEachSlotAtDepth(depth, slot -> action.accept(verticesBySlot[slot]));
+    }
+
+    /**
+     * Apply an action to the slot of each vertex at the given depth in priority order, under the same conditions as
+     * forEachVertexAtDepth
+     *
+     * @param depth  the depth
+     * @param action the action
+     */
+    void forEachSlotAtDepth(int depth, IntConsumer action) {
+        DepthColumn column = depthIndex.column(depth);
+        if (column == null) return;
+        for (int slot = column.head(); slot >= 0; slot = depthIndex.next[slot]) {
+            action.accept(slot);
+        }
+    }
+
+    /**
+     * Return the depths at which there is at least one vertex, in ascending order
+     *
+     * @return the occupied depths
+     */
+    public NavigableSet<Integer> getDepths() {
+        return depthIndex.depths();
+    }
+
+    /**
+     * Return the depth of the shallowest vertex in the graph
+     *
+     * @return the minimum depth, or zero if the graph is empty
+     */
+    public int getMinimumDepth() {
+        return depthIndex.isEmpty() ? 0 : depthIndex.minDepth();
+    }
+
+    /**
+     * Return the depth of the deepest vertex in the graph
+     *
+     * @return the maximum depth, or zero if the graph is empty
+     */
+    public int getMaximumDepth() {
+        return depthIndex.isEmpty() ? 0 : depthIndex.maxDepth();
+    }
+
+    /**
+     * Collect the vertices at the extreme depth of the graph in the search direction.
+     *
+     * @param searchDirection INCREASING_DEPTH for the deepest vertices, DECREASING_DEPTH for the shallowest
+     * @return the vertices at the extreme depth
+     */
+    public List<Vertex> getLeavesUnidirectional(DepthDirection searchDirection) {
+        if (depthIndex.isEmpty()) return new ArrayList<>();
+        return getVerticesAtDepth(searchDirection == DepthDirection.INCREASING_DEPTH ?
+                depthIndex.maxDepth() :
+                depthIndex.minDepth());
+    }
+
+    /**
+     * Collect the nodes with no upstream linkages. Return these as a list.
+     *
+     * @param vertexList the entire list of nodes to be parsed
+     * @return a list of nodes with no upstream linkages
+     */
+    public static List<Vertex> getLeavesUnidirectional(DepthDirection searchDirection, List<Vertex> vertexList) {
+        if (vertexList.isEmpty()) return new ArrayList<>();
+        Comparator<Vertex> byDepth = Comparator.comparingInt(Vertex::getDepth);
+        int extremeDepth = searchDirection == DepthDirection.INCREASING_DEPTH ?
+                Collections.max(vertexList, byDepth).getDepth() :
+                Collections.min(vertexList, byDepth).getDepth();
+        return vertexList
+                .stream()
+                .filter(v -> v.getDepth() == extremeDepth)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Collect the vertex with the given id and all vertices reachable from it through vertices that are deeper
+     * (or shallower) than it, using a plain list of vertices rather than a graph.
+     *
+     * @param vertexID  the id of the vertex to start from
+     * @param direction whether to follow increasing or decreasing depth
+     * @param vertices  the vertices to search
+     * @return the vertex and all vertices reachable from it in the given direction
+     */
+    public static List<Vertex> unidirectionalFill(String vertexID, DepthDirection direction, Collection<Vertex> vertices) {
         Map<String, Vertex> nodeMap = new HashMap<>();
-        for(Vertex vertex : vertices){
+        for (Vertex vertex : vertices) {
             nodeMap.put(vertex.getId(), vertex);
         }
         if (!nodeMap.containsKey(vertexID)) return new ArrayList<>();
 
-        Vertex currentVertex = nodeMap.get(vertexID);
-        List<Vertex> unvisitedVertices = currentVertex.getConnectedVertices().stream()
-                .map(nodeMap::get)
-                .filter(data -> {
-                    if (direction == DepthDirection.INCREASING_DEPTH) {
-                        return data.getDepth() > nodeMap.get(vertexID).getDepth();
-                    } else {
-                        return data.getDepth() < nodeMap.get(vertexID).getDepth();
-                    }
-                })
-                .collect(Collectors.toList());
-
-        List<Vertex> visitedVertices = new ArrayList<>(Collections.singletonList(currentVertex));
-        while (unvisitedVertices.size() > 0) {
-            currentVertex = unvisitedVertices.remove(0);
+        int startDepth = nodeMap.get(vertexID).getDepth();
+        Set<String> visited = new HashSet<>(Collections.singleton(vertexID));
+        Deque<Vertex> unvisited = new ArrayDeque<>(Collections.singleton(nodeMap.get(vertexID)));
+        List<Vertex> visitedVertices = new ArrayList<>();
+        while (!unvisited.isEmpty()) {
+            Vertex currentVertex = unvisited.poll();
             visitedVertices.add(currentVertex);
-
-            unvisitedVertices.addAll(currentVertex.getConnectedVertices().stream()
-                    .map(nodeMap::get)
-                    .filter(data -> !visitedVertices.contains(data))
-                    .filter(data -> {
-                        if (direction == DepthDirection.INCREASING_DEPTH) {
-                            return data.getDepth() > nodeMap.get(vertexID).getDepth();
-                        } else {
-                            return data.getDepth() < nodeMap.get(vertexID).getDepth();
-                        }
-                    }).collect(Collectors.toList()));
+            for (String id : currentVertex.getConnectedVertices()) {
+                Vertex data = nodeMap.get(id);
+                if (data == null || visited.contains(id)) continue;
+                boolean onwards = direction == DepthDirection.INCREASING_DEPTH ?
+                        data.getDepth() > startDepth :
+                        data.getDepth() < startDepth;
+                if (onwards) {
+                    visited.add(id);
+                    unvisited.add(data);
+                }
+            }
         }
-
         return visitedVertices;
     }
 
     public void clearAll() {
-        verticesById.clear();
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (verticesBySlot[slot] == null) continue;
+            verticesBySlot[slot].setListener(null);
+            verticesBySlot[slot].storePropertiesIn(null, -1);
+            verticesBySlot[slot].storeConnectionsIn(null, -1);
+        }
+        index.clear();
+        adjacency.clear();
+        incoming.clear();
+        depthIndex.clear();
+        priorityHint = -1;
+        propertyColumns.clear();
+        propertyIndex.clear();
+        textIndex.clear();
+        reachability.clear();
+        for (RollUpIndex<?> rollUp : rollUps) {
+            rollUp.clear();
+        }
+        verticesBySlot = new Vertex[16];
+        vertexCount = 0;
+        topologicalOrder.clear();
+        setSource(null);
+        structureChanged();
+        fire(GraphChange.Type.CLEARED, null, null, null);
+    }
+
+    /**
+     * Class holding the connections of attached vertices in the adjacency of the graph, with the slot of each vertex as
+     * its row. The listener is told about each change after the store has made it.
+     */
+    private class SlotConnections implements ConnectionStore {
+
+        @Override
+        public int count(int row) {
+            return adjacency.degree(row);
+        }
+
+        @Override
+        public String get(int row, int position) {
+            int connectedSlot = adjacency.row(row)[position];
+            Vertex connected = verticesBySlot[connectedSlot];
+            return connected != null ? connected.getId() : index.idOf(connectedSlot);
+        }
+
+        @Override
+        public boolean contains(int row, String connectedId) {
+            int connectedSlot = index.slotOf(connectedId);
+            return connectedSlot >= 0 && adjacency.contains(row, connectedSlot);
+        }
+
+        @Override
+        public boolean add(int row, String connectedId) {
+            return link(row, internSlot(connectedId));
+        }
+
+        @Override
+        public boolean remove(int row, String connectedId) {
+            int connectedSlot = index.slotOf(connectedId);
+            return connectedSlot >= 0 && unlink(row, connectedSlot);
+        }
     }
 
     /**
-     * Class representing an item in the priority queue of a Dijkstra's shortest-path calculation.
+     * Class keeping the rest of the graph in step with changes made through attached vertices.
      */
-    private static class PriorityItem implements Comparable<PriorityItem> {
+    private class VertexChangeListener implements VertexListener {
+
+        @Override
+        public boolean connectionAllowed(Vertex vertex, String connectedId) {
+            int slot = index.slotOf(vertex.getVertexId());
+            int connectedSlot = index.slotOf(connectedId);
+            if (restoring || slot < 0 || connectedSlot < 0 || verticesBySlot[slot] != vertex) return true;
+            if (slot == connectedSlot || verticesBySlot[connectedSlot] == null) return true;
+            if (!listedVertexIsUpstream(slot, connectedSlot)) return true;
+            ensureTopologicalOrder();
+            return !topologicalOrder.wouldCloseCycle(connectedSlot, slot, verticesBySlot, slot, connectedSlot);
+        }
 
-        int distance;
-        private Vertex vertex;
-        PriorityItem previousItem;
+        @Override
+        public void connectionAdded(Vertex vertex, String connectedId) {
+            int slot = index.slotOf(vertex.getVertexId());
+            int connectedSlot = index.slotOf(connectedId);
+            if (slot < 0 || connectedSlot < 0 || verticesBySlot[slot] != vertex) return;
+            structureChanged();
+            if (slot != connectedSlot && verticesBySlot[connectedSlot] != null
+                    && listedVertexIsUpstream(slot, connectedSlot)) {
+                topologicalOrder.connectionAdded(connectedSlot, slot, verticesBySlot);
+            }
+            fire(GraphChange.Type.CONNECTION_ADDED, vertex.getId(), connectedId, null);
+        }
+
+        @Override
+        public void connectionRemoved(Vertex vertex, String connectedId) {
+            int slot = index.slotOf(vertex.getVertexId());
+            int connectedSlot = index.slotOf(connectedId);
+            if (slot < 0 || connectedSlot < 0 || verticesBySlot[slot] != vertex) return;
+            structureChanged();
+            if (verticesBySlot[connectedSlot] != null && adjacency.contains(connectedSlot, slot)) {
+                //the connection is now listed by the other vertex only, so it runs from this vertex to that one
+                topologicalOrder.connectionAdded(slot, connectedSlot, verticesBySlot);
+            }
+            releaseIfUnused(connectedSlot);
+            fire(GraphChange.Type.CONNECTION_REMOVED, vertex.getId(), connectedId, null);
+        }
 
-        PriorityItem(int distance, Vertex vertex) {
-            this.distance = distance;
-            this.vertex = vertex;
-            previousItem = null;
+        @Override
+        public void depthChanged(Vertex vertex, int previousDepth) {
+            int slot = index.slotOf(vertex.getVertexId());
+            if (slot < 0 || verticesBySlot[slot] != vertex) return;
+            depthIndex.move(slot, previousDepth, vertex.getDepth(), vertex.getPriority());
+            touchNeighbourhood(slot);
+            depthDag = null;
+            structureVersion++;
+            topologicalOrder.slotChanged(slot, verticesBySlot);
+            fire(GraphChange.Type.DEPTH_CHANGED, vertex.getId(), null, null);
+        }
+
+        @Override
+        public void priorityChanged(Vertex vertex, int previousPriority) {
+            int slot = index.slotOf(vertex.getVertexId());
+            if (slot < 0 || verticesBySlot[slot] != vertex) return;
+            depthIndex.updatePriority(slot, vertex.getDepth(), vertex.getPriority(), -1);
+            fire(GraphChange.Type.PRIORITY_CHANGED, vertex.getId(), null, null);
+        }
+
+        @Override
+        public void propertyChanged(Vertex vertex, String propertyName) {
+            int slot = index.slotOf(vertex.getVertexId());
+            if (slot < 0 || verticesBySlot[slot] != vertex) return;
+            propertyIndex.update(vertex, propertyName);
+            textIndex.update(slot, vertex);
+            for (RollUpIndex<?> rollUp : rollUps) {
+                rollUp.changed(slot);
+            }
+            fire(GraphChange.Type.PROPERTY_CHANGED, vertex.getId(), null, propertyName);
         }
 
-        /**
-         * Compares this object with the specified object for order.  Returns a
-         * negative integer, zero, or a positive integer as this object is less
-         * than, equal to, or greater than the specified object.
-         *
-         * @param other the object to be compared.
-         * @return a negative integer, zero, or a positive integer as this object
-         * is less than, equal to, or greater than the specified object.
-         * @throws NullPointerException if the specified object is null
-         * @throws ClassCastException   if the specified object's type prevents it
-         *                              from being compared to this object.
-         */
         @Override
-        public int compareTo(PriorityItem other) {
-            return Integer.compare(this.distance, other.distance);
+        public void nameChanged(Vertex vertex) {
+            int slot = index.slotOf(vertex.getVertexId());
+            if (slot < 0 || verticesBySlot[slot] != vertex) return;
+            textIndex.update(slot, vertex);
+            fire(GraphChange.Type.NAME_CHANGED, vertex.getId(), null, null);
         }
     }
 
@@ -0,0 +1,95 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+/**
+ * Class representing a single change to a graph, as delivered to a GraphListener.
+ * <p>
+ * When a vertex is added or removed, its own connections arrive or leave with it and are not reported separately.
+ * Connections that other vertices held to a removed vertex are reported as CONNECTION_REMOVED before the vertex
+ * itself is reported as removed. Vertices faulted in from or released back to a VertexSource are reported as added and
+ * removed.
+ */
+public final class GraphChange {
+
+    /**
+     * Enum representing the kinds of change that a graph reports
+     */
+    public enum Type {
+        VERTEX_ADDED, VERTEX_REMOVED, CONNECTION_ADDED, CONNECTION_REMOVED,
+        PROPERTY_CHANGED, NAME_CHANGED, DEPTH_CHANGED, PRIORITY_CHANGED, CLEARED
+    }
+
+    private final Type type;
+    private final long version;
+    private final String vertexId;
+    private final String connectedVertexId;
+    private final String propertyName;
+
+    GraphChange(Type type, long version, String vertexId, String connectedVertexId, String propertyName) {
+        this.type = type;
+        this.version = version;
+        this.vertexId = vertexId;
+        this.connectedVertexId = connectedVertexId;
+        this.propertyName = propertyName;
+    }
+
+    /**
+     * Return the kind of change
+     *
+     * @return the kind of change
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Return the version of the graph after this change
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return the id of the vertex that changed. For connection changes, the vertex holding the connection.
+     *
+     * @return the vertex id, or null for CLEARED
+     */
+    public String getVertexId() {
+        return vertexId;
+    }
+
+    /**
+     * Return the id of the connected vertex for connection changes
+     *
+     * @return the connected vertex id, or null for other kinds of change
+     */
+    public String getConnectedVertexId() {
+        return connectedVertexId;
+    }
+
+    /**
+     * Return the name of the property for property changes
+     *
+     * @return the property name, or null for other kinds of change
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    @Override
+    public String toString() {
+        return "GraphChange{" + type + " v" + version + " " + vertexId +
+                (connectedVertexId == null ? "" : " -> " + connectedVertexId) +
+                (propertyName == null ? "" : " [" + propertyName + "]") + "}";
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+/**
+ * Interface for objects that want to be told about every change to a graph.
+ */
+public interface GraphListener {
+
+    /**
+     * Called after the graph has changed
+     *
+     * @param change a description of the change
+     */
+    void graphChanged(GraphChange change);
+}
@@ -0,0 +1,97 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Class representing an immutable view of a graph as it was at one version.
+ * <p>
+ * Snapshots share structure with each other and with the graph that produced them, so taking one costs little more
+ * than copying the vertices changed since the previous snapshot. A snapshot never changes, so it can be handed to
+ * worker threads for layout, export or validation while the graph carries on being edited.
+ */
+public final class GraphSnapshot {
+
+    private final PersistentHashMap<String, VertexRecord> vertices;
+    private final long version;
+
+    GraphSnapshot(PersistentHashMap<String, VertexRecord> vertices, long version) {
+        this.vertices = vertices;
+        this.version = version;
+    }
+
+    /**
+     * Return the version of the graph captured by this snapshot
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return the number of vertices in the snapshot
+     *
+     * @return the number of vertices
+     */
+    public int size() {
+        return vertices.size();
+    }
+
+    /**
+     * Return the vertex with the given id
+     *
+     * @param vertexId the id of the vertex
+     * @return the vertex, or null if the graph held no such vertex
+     */
+    public VertexRecord getVertex(String vertexId) {
+        return vertices.get(vertexId);
+    }
+
+    public boolean containsVertex(String vertexId) {
+        return vertices.get(vertexId) != null;
+    }
+
+    /**
+     * Apply an action to every vertex in the snapshot, in no particular order
+     *
+     * @param action the action
+     */
+    public void forEachVertex(Consumer<VertexRecord> action) {
+        vertices.forEach((id, record) -> action.accept(record));
+    }
+
+    /**
+     * Return every vertex in the snapshot, in no particular order
+     *
+     * @return a new list of the vertices
+     */
+    public List<VertexRecord> getVertices() {
+        List<VertexRecord> records = new ArrayList<>(vertices.size());
+        forEachVertex(records::add);
+        return records;
+    }
+
+    /**
+     * Create new, detached vertices holding the state of the snapshot, for code that works on plain vertices
+     *
+     * @return a new list of vertices
+     */
+    public List<Vertex> toVertices() {
+        List<Vertex> copies = new ArrayList<>(vertices.size());
+        forEachVertex(record -> copies.add(record.toVertex()));
+        return copies;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Class representing a live, filtered view of a graph.
+ * <p>
+ * A view holds no vertices of its own: it is the graph seen through a membership test, made of an optional set of
+ * slots and an optional predicate on vertices. Iterating or traversing a view visits the graph's own vertices and
+ * connections and skips those outside the view, so filtering never copies vertex lists. Views follow the graph as it
+ * changes; a view made from a set of ids keeps the slots those ids had when it was made.
+ * <p>
+ * The vertices and connections inside a view can be copied out into a graph of their own with
+ * extractInducedSubgraph, for exporting or saving part of a graph.
+ */
+public final class GraphView {
+
+    private final Graph graph;
+    private final BitSet slots;
+    private final Predicate<Vertex> predicate;
+
+    GraphView(Graph graph, BitSet slots, Predicate<Vertex> predicate) {
+        this.graph = graph;
+        this.slots = slots;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Create a view of the vertices with the given ids. Ids with no vertex in the graph are ignored.
+     */
+    static GraphView ofIds(Graph graph, Collection<String> ids) {
+        BitSet slots = new BitSet();
+        for (String id : ids) {
+            int slot = graph.slotOfVertex(id);
+            if (slot >= 0) slots.set(slot);
+        }
+        return new GraphView(graph, slots, null);
+    }
+
+    /**
+     * Narrow the view to the vertices that also pass a predicate
+     *
+     * @param filter the predicate
+     * @return a new view over the same graph
+     */
+    public GraphView filter(Predicate<Vertex> filter) {
+        return new GraphView(graph, slots, predicate == null ? filter : predicate.and(filter));
+    }
+
+    /**
+     * Return the graph this view looks at
+     *
+     * @return the graph
+     */
+    public Graph getGraph() {
+        return graph;
+    }
+
+    public boolean contains(String vertexId) {
+        int slot = graph.slotOfVertex(vertexId);
+        return slot >= 0 && includes(slot);
+    }
+
+    /**
+     * Return the number of vertices in the view. The membership test is applied to every candidate vertex.
+     *
+     * @return the number of vertices
+     */
+    public int size() {
+        int[] count = {0};
+        forEachVertex(vertex -> count[0]++);
+        return count[0];
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Apply an action to every vertex in the view, in no particular order
+     *
+     * @param action the action
+     */
+    public void forEachVertex(Consumer<Vertex> action) {
+        if (slots != null) {
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                if (includes(slot)) action.accept(graph.vertexInSlot(slot));
+            }
+        } else {
+            for (int slot = 0; slot < graph.slotLimit(); slot++) {
+                if (includes(slot)) action.accept(graph.vertexInSlot(slot));
+            }
+        }
+    }
+
+    /**
+     * Apply an action to each vertex of the view at the given depth, in priority order
+     *
+     * @param depth  the depth
+     * @param action the action
+     */
+    public void forEachVertexAtDepth(int depth, Consumer<Vertex> action) {
+        graph.forEachSlotAtDepth(depth, slot -> {
+            if (includes(slot)) action.accept(graph.vertexInSlot(slot));
+        });
+    }
+
+    /**
+     * Apply an action to each vertex in the view that the given vertex lists as a connection
+     *
+     * @param vertexId the id of the vertex
+     * @param action   the action
+     */
+    public void forEachConnection(String vertexId, Consumer<Vertex> action) {
+        if (!contains(vertexId)) return;
+        for (String connectedId : graph.getVertexById(vertexId).getConnectedVertices()) {
+            int slot = graph.slotOfVertex(connectedId);
+            if (slot >= 0 && includes(slot)) action.accept(graph.vertexInSlot(slot));
+        }
+    }
+
+    /**
+     * Apply an action to each vertex reachable from the given one along connections oriented by depth (see
+     * DepthDag), without leaving the view. The start vertex itself is not visited.
+     *
+     * @param vertexId  the id of the vertex to start from
+     * @param direction INCREASING_DEPTH to visit downstream vertices, DECREASING_DEPTH for upstream ones
+     * @param action    the action
+     */
+    public void forEachReachable(String vertexId, DepthDirection direction, Consumer<Vertex> action) {
+        int start = graph.slotOfVertex(vertexId);
+        if (start < 0 || !includes(start)) return;
+        CompressedAdjacency edges = graph.depthDag().edges(direction);
+        BitSet seen = new BitSet();
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        seen.set(start);
+        queue[tail++] = start;
+        while (head < tail) {
+            int slot = queue[head++];
+            if (slot + 1 >= edges.offsets.length) continue;
+            for (int i = edges.offsets[slot]; i < edges.offsets[slot + 1]; i++) {
+                int next = edges.targets[i];
+                if (seen.get(next) || !includes(next)) continue;
+                seen.set(next);
+                if (tail == queue.length) queue = Arrays.copyOf(queue, tail * 2);
+                queue[tail++] = next;
+                action.accept(graph.vertexInSlot(next));
+            }
+        }
+    }
+
+    /**
+     * Copy the view out into a new graph: every vertex in the view, with its properties, and only those connections
+     * that stay inside the view. The new vertices are detached copies, so the original graph is left untouched.
+     * Vertices are added column by column in priority order, which keeps their priorities and order.
+     *
+     * @return the induced subgraph
+     */
+    public Graph extractInducedSubgraph() {
+        Graph subgraph = new Graph();
+        for (int depth : graph.getDepths()) {
+            forEachVertexAtDepth(depth, vertex -> {
+                List<String> connections = new ArrayList<>();
+                forEachConnection(vertex.getId(), connected -> connections.add(connected.getId()));
+                Vertex copy = new Vertex(vertex.getName(), vertex.getId(), connections, vertex.getDepth(), vertex.getPriority());
+                for (Map.Entry<String, String> property : vertex.getProperties().entrySet()) {
+                    copy.addProperty(property.getKey(), property.getValue());
+                }
+                subgraph.addVertex(copy);
+            });
+        }
+        return subgraph;
+    }
+
+    private boolean includes(int slot) {
+        if (slot < 0 || (slots != null && !slots.get(slot))) return false;
+        Vertex vertex = graph.vertexInSlot(slot);
+        return vertex != null && (predicate == null || predicate.test(vertex));
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.Arrays;
+
+/**
+ * Class calculating depths for the vertices of a graph by longest-path layering: a vertex with nothing upstream sits at
+ * depth 0 and every other vertex sits one deeper than its deepest upstream vertex, so every connection runs towards
+ * increasing depth and no column is deeper than it needs to be.
+ * <p>
+ * Connections are oriented as in DepthDag where that is possible. A connection listed by both vertices at the same
+ * depth, which is what imported data without depths looks like, has no orientation of its own. For a full layering
+ * it is oriented away from the nearest root, found by a breadth-first search from the vertices that only have
+ * oriented connections leaving them, or from the first vertex of each part of the graph that has none. When only the
+ * descendants of a vertex are layered again, it is oriented away from that vertex.
+ * <p>
+ * Both layerings run in time linear in the number of vertices and connections they cover. Vertices on cycles keep
+ * their depth.
+ */
+final class Layering {
+
+    /**
+     * Marks a slot whose depth should not change
+     */
+    static final int UNCHANGED = Integer.MIN_VALUE;
+
+    private Layering() {
+    }
+
+    /**
+     * Calculate the depth of every vertex in the graph
+     *
+     * @param graph the graph
+     * @return the new depth of each slot, or UNCHANGED
+     */
+    static int[] layerAll(Graph graph) {
+        CompressedAdjacency connections = graph.compressed();
+        CompressedAdjacency incoming = graph.compressedIncoming();
+        int slotLimit = connections.slotLimit();
+
+        int[] sources = new int[connections.targets.length];
+        int[] targets = new int[connections.targets.length];
+        int edgeCount = 0;
+        int[] levelFrom = new int[connections.targets.length];
+        int[] levelTo = new int[connections.targets.length];
+        int levelCount = 0;
+        int[] upstreamCount = new int[slotLimit];
+        int[] downstreamCount = new int[slotLimit];
+
+        for (int from = 0; from < slotLimit; from++) {
+            Vertex fromVertex = graph.vertexInSlot(from);
+            if (fromVertex == null) continue;
+            for (int i = connections.offsets[from]; i < connections.offsets[from + 1]; i++) {
+                int to = connections.targets[i];
+                Vertex toVertex = graph.vertexInSlot(to);
+                if (to == from || toVertex == null) continue;
+
+                int up = -1;
+                int down = -1;
+                if (!connections.contains(to, from)) {
+                    up = to;
+                    down = from;
+                } else if (from < to && fromVertex.getDepth() != toVertex.getDepth()) {
+                    up = fromVertex.getDepth() < toVertex.getDepth() ? from : to;
+                    down = up == from ? to : from;
+                } else if (from < to) {
+                    levelFrom[levelCount] = from;
+                    levelTo[levelCount++] = to;
+                }
+                if (up >= 0) {
+                    sources[edgeCount] = up;
+                    targets[edgeCount++] = down;
+                    upstreamCount[down]++;
+                    downstreamCount[up]++;
+                }
+            }
+        }
+
+        int[] distance = distanceFromRoots(graph, connections, incoming, upstreamCount, downstreamCount);
+        for (int i = 0; i < levelCount; i++) {
+            int a = levelFrom[i];
+            int b = levelTo[i];
+            if (distance[a] == distance[b]) continue;
+            sources[edgeCount] = distance[a] < distance[b] ? a : b;
+            targets[edgeCount++] = distance[a] < distance[b] ? b : a;
+        }
+
+        CompressedAdjacency down = CompressedAdjacency.fromEdges(slotLimit, sources, targets, edgeCount);
+        int[] remaining = new int[slotLimit];
+        for (int i = 0; i < edgeCount; i++) {
+            remaining[targets[i]]++;
+        }
+        int[] depths = new int[slotLimit];
+        Arrays.fill(depths, UNCHANGED);
+        int[] queue = new int[slotLimit];
+        int tail = 0;
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (graph.vertexInSlot(slot) != null && remaining[slot] == 0) {
+                depths[slot] = 0;
+                queue[tail++] = slot;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int slot = queue[head];
+            for (int i = down.offsets[slot]; i < down.offsets[slot + 1]; i++) {
+                int next = down.targets[i];
+                if (depths[slot] + 1 > depths[next]) depths[next] = depths[slot] + 1;
+                if (--remaining[next] == 0) queue[tail++] = next;
+            }
+        }
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (remaining[slot] > 0) depths[slot] = UNCHANGED;
+        }
+        return depths;
+    }
+
+    /**
+     * Breadth-first distances over connections in either direction, from the vertices with oriented connections
+     * leaving them and none arriving, and from the first vertex of every part of the graph not reached from those
+     */
+    private static int[] distanceFromRoots(Graph graph, CompressedAdjacency connections, CompressedAdjacency incoming,
+                                           int[] upstreamCount, int[] downstreamCount) {
+        int slotLimit = connections.slotLimit();
+        int[] distance = new int[slotLimit];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[slotLimit];
+        int tail = 0;
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (graph.vertexInSlot(slot) != null && upstreamCount[slot] == 0 && downstreamCount[slot] > 0) {
+                distance[slot] = 0;
+                queue[tail++] = slot;
+            }
+        }
+        int head = 0;
+        for (int start = 0; start <= slotLimit; start++) {
+            while (head < tail) {
+                int slot = queue[head++];
+                tail = visitUnreached(graph, connections, slot, distance, queue, tail);
+                tail = visitUnreached(graph, incoming, slot, distance, queue, tail);
+            }
+            if (start < slotLimit && graph.vertexInSlot(start) != null && distance[start] < 0) {
+                distance[start] = 0;
+                queue[tail++] = start;
+            }
+        }
+        return distance;
+    }
+
+    private static int visitUnreached(Graph graph, CompressedAdjacency edges, int slot, int[] distance, int[] queue,
+                                      int tail) {
+        for (int i = edges.offsets[slot]; i < edges.offsets[slot + 1]; i++) {
+            int next = edges.targets[i];
+            if (distance[next] >= 0 || graph.vertexInSlot(next) == null) continue;
+            distance[next] = distance[slot] + 1;
+            queue[tail++] = next;
+        }
+        return tail;
+    }
+
+    /**
+     * Calculate new depths for the descendants of a vertex, leaving the vertex and everything else where it is
+     *
+     * @param graph the graph
+     * @param root  the slot of the edited vertex
+     * @return the new depth of each slot, or UNCHANGED
+     */
+    static int[] layerDescendants(Graph graph, int root) {
+        DepthDag dag = graph.depthDag();
+        CompressedAdjacency connections = graph.compressed();
+        int slotLimit = connections.slotLimit();
+
+        //find the region, numbering vertices in the order they are discovered
+        int[] discovered = new int[slotLimit];
+        Arrays.fill(discovered, -1);
+        int[] region = new int[slotLimit];
+        int regionSize = 0;
+        discovered[root] = regionSize;
+        region[regionSize++] = root;
+        for (int head = 0; head < regionSize; head++) {
+            int slot = region[head];
+            for (int i = dag.down.offsets[slot]; i < dag.down.offsets[slot + 1]; i++) {
+                int next = dag.down.targets[i];
+                if (discovered[next] < 0) {
+                    discovered[next] = regionSize;
+                    region[regionSize++] = next;
+                }
+            }
+            for (int i = connections.offsets[slot]; i < connections.offsets[slot + 1]; i++) {
+                int next = connections.targets[i];
+                if (discovered[next] < 0 && isLevel(graph, connections, slot, next)) {
+                    discovered[next] = regionSize;
+                    region[regionSize++] = next;
+                }
+            }
+        }
+
+        //orient the connections inside the region and order it topologically
+        int[] sources = new int[dag.down.targets.length + connections.targets.length];
+        int[] targets = new int[sources.length];
+        int edgeCount = 0;
+        for (int r = 0; r < regionSize; r++) {
+            int slot = region[r];
+            for (int i = dag.down.offsets[slot]; i < dag.down.offsets[slot + 1]; i++) {
+                int next = dag.down.targets[i];
+                if (discovered[next] < 0 || next == root) continue;
+                sources[edgeCount] = slot;
+                targets[edgeCount++] = next;
+            }
+            for (int i = connections.offsets[slot]; i < connections.offsets[slot + 1]; i++) {
+                int next = connections.targets[i];
+                if (discovered[next] <= discovered[slot] || next == root || !isLevel(graph, connections, slot, next)) {
+                    continue;
+                }
+                sources[edgeCount] = slot;
+                targets[edgeCount++] = next;
+            }
+        }
+        CompressedAdjacency down = CompressedAdjacency.fromEdges(slotLimit, sources, targets, edgeCount);
+
+        int[] remaining = new int[slotLimit];
+        for (int i = 0; i < edgeCount; i++) {
+            remaining[targets[i]]++;
+        }
+        int[] depths = new int[slotLimit];
+        Arrays.fill(depths, UNCHANGED);
+        for (int r = 1; r < regionSize; r++) {
+            int slot = region[r];
+            depths[slot] = 0;
+            for (int i = dag.up.offsets[slot]; i < dag.up.offsets[slot + 1]; i++) {
+                int upstream = dag.up.targets[i];
+                if (discovered[upstream] < 0) {
+                    depths[slot] = Math.max(depths[slot], graph.vertexInSlot(upstream).getDepth() + 1);
+                }
+            }
+        }
+        depths[root] = graph.vertexInSlot(root).getDepth();
+
+        int[] queue = new int[regionSize];
+        int tail = 0;
+        queue[tail++] = root;
+        for (int head = 0; head < tail; head++) {
+            int slot = queue[head];
+            for (int i = down.offsets[slot]; i < down.offsets[slot + 1]; i++) {
+                int next = down.targets[i];
+                depths[next] = Math.max(depths[next], depths[slot] + 1);
+                if (--remaining[next] == 0) queue[tail++] = next;
+            }
+        }
+        for (int r = 0; r < regionSize; r++) {
+            if (remaining[region[r]] > 0) depths[region[r]] = UNCHANGED;
+        }
+        depths[root] = UNCHANGED;
+        return depths;
+    }
+
+    private static boolean isLevel(Graph graph, CompressedAdjacency connections, int slot, int other) {
+        Vertex vertex = graph.vertexInSlot(slot);
+        Vertex otherVertex = graph.vertexInSlot(other);
+        return other != slot && otherVertex != null && vertex.getDepth() == otherVertex.getDepth()
+                && connections.contains(other, slot);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Arrays;
+
+/**
+ * Class representing a breadth-first shortest-path search over compressed adjacency.
+ * <p>
+ * All edges have unit length, so a breadth-first search finds shortest paths. The search runs from both ends at once,
+ * always expanding the smaller frontier by a whole level, and stops as soon as the two searches meet. The queues,
+ * parent links, distances and visited bitsets are reused between searches and only grow with the graph.
+ * <p>
+ * An instance is not thread safe.
+ */
+final class PathFinder {
+
+    private long[] visitedForward = new long[0];
+    private long[] visitedBackward = new long[0];
+    private int[] parentForward = new int[0];
+    private int[] parentBackward = new int[0];
+    private int[] distanceForward = new int[0];
+    private int[] distanceBackward = new int[0];
+    private int[] queueForward = new int[0];
+    private int[] queueBackward = new int[0];
+
+    private int meetingFrom;
+    private int meetingTo;
+
+    /**
+     * Find a shortest path between two slots
+     *
+     * @param forward  the edges followed away from the source. The second array may be null.
+     * @param backward the edges followed away from the target, i.e. the reverse of forward. The second array may be
+     *                 null.
+     * @param live     the vertex held in each slot; slots without one are never entered
+     * @param source   the slot to start from
+     * @param target   the slot to finish at
+     * @return the slots on the path, from source to target inclusive, or an empty array if there is no path
+     */
+    int[] path(CompressedAdjacency[] forward, CompressedAdjacency[] backward, Object[] live, int source, int target) {
+        int length = search(forward, backward, live, source, target);
+        if (length < 0) return new int[0];
+        if (length == 0) return new int[]{source};
+
+        int[] path = new int[length + 1];
+        int position = distanceForward[meetingFrom];
+        for (int slot = meetingFrom; position >= 0; slot = parentForward[slot]) {
+            path[position--] = slot;
+        }
+        position = distanceForward[meetingFrom] + 1;
+        for (int slot = meetingTo; position <= length; slot = parentBackward[slot]) {
+            path[position++] = slot;
+        }
+        return path;
+    }
+
+    /**
+     * Find the length of a shortest path between two slots. Arguments are as for path().
+     *
+     * @return the number of edges on a shortest path, or -1 if there is no path
+     */
+    int distance(CompressedAdjacency[] forward, CompressedAdjacency[] backward, Object[] live, int source, int target) {
+        return search(forward, backward, live, source, target);
+    }
+
+    private int search(CompressedAdjacency[] forward, CompressedAdjacency[] backward, Object[] live, int source, int target) {
+        if (live[source] == null || live[target] == null) return -1;
+        if (source == target) return 0;
+
+        prepare(forward[0].slotLimit());
+        int forwardHead = 0;
+        int forwardTail = 0;
+        int backwardHead = 0;
+        int backwardTail = 0;
+
+        mark(visitedForward, source);
+        parentForward[source] = -1;
+        distanceForward[source] = 0;
+        queueForward[forwardTail++] = source;
+
+        mark(visitedBackward, target);
+        parentBackward[target] = -1;
+        distanceBackward[target] = 0;
+        queueBackward[backwardTail++] = target;
+
+        while (forwardHead < forwardTail && backwardHead < backwardTail) {
+            int best;
+            if (forwardTail - forwardHead <= backwardTail - backwardHead) {
+                int levelEnd = forwardTail;
+                best = Integer.MAX_VALUE;
+                for (; forwardHead < levelEnd; forwardHead++) {
+                    int slot = queueForward[forwardHead];
+                    for (CompressedAdjacency edges : forward) {
+                        if (edges == null) continue;
+                        for (int i = edges.offsets[slot]; i < edges.offsets[slot + 1]; i++) {
+                            int next = edges.targets[i];
+                            if (live[next] == null) continue;
+                            if (isMarked(visitedBackward, next)) {
+                                int length = distanceForward[slot] + 1 + distanceBackward[next];
+                                if (length < best) {
+                                    best = length;
+                                    meetingFrom = slot;
+                                    meetingTo = next;
+                                }
+                            }
+                            if (isMarked(visitedForward, next)) continue;
+                            mark(visitedForward, next);
+                            parentForward[next] = slot;
+                            distanceForward[next] = distanceForward[slot] + 1;
+                            queueForward[forwardTail++] = next;
+                        }
+                    }
+                }
+            } else {
+                int levelEnd = backwardTail;
+                best = Integer.MAX_VALUE;
+                for (; backwardHead < levelEnd; backwardHead++) {
+                    int slot = queueBackward[backwardHead];
+                    for (CompressedAdjacency edges : backward) {
+                        if (edges == null) continue;
+                        for (int i = edges.offsets[slot]; i < edges.offsets[slot + 1]; i++) {
+                            int next = edges.targets[i];
+                            if (live[next] == null) continue;
+                            if (isMarked(visitedForward, next)) {
+                                int length = distanceForward[next] + 1 + distanceBackward[slot];
+                                if (length < best) {
+                                    best = length;
+                                    meetingFrom = next;
+                                    meetingTo = slot;
+                                }
+                            }
+                            if (isMarked(visitedBackward, next)) continue;
+                            mark(visitedBackward, next);
+                            parentBackward[next] = slot;
+                            distanceBackward[next] = distanceBackward[slot] + 1;
+                            queueBackward[backwardTail++] = next;
+                        }
+                    }
+                }
+            }
+            if (best != Integer.MAX_VALUE) return best;
+        }
+        return -1;
+    }
+
+    private void prepare(int slotLimit) {
+        int words = (slotLimit + 63) >>> 6;
+        if (visitedForward.length < words) {
+            visitedForward = new long[words];
+            visitedBackward = new long[words];
+        } else {
+            Arrays.fill(visitedForward, 0, words, 0L);
+            Arrays.fill(visitedBackward, 0, words, 0L);
+        }
+        if (parentForward.length < slotLimit) {
+            parentForward = new int[slotLimit];
+            parentBackward = new int[slotLimit];
+            distanceForward = new int[slotLimit];
+            distanceBackward = new int[slotLimit];
+            queueForward = new int[slotLimit];
+            queueBackward = new int[slotLimit];
+        }
+    }
+
+    private static void mark(long[] bits, int slot) {
+        bits[slot >>> 6] |= 1L << slot;
+    }
+
+    private static boolean isMarked(long[] bits, int slot) {
+        return (bits[slot >>> 6] & (1L << slot)) != 0;
+    }
+}
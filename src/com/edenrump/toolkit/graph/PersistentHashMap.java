@@ -0,0 +1,314 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Class representing an immutable hash map whose updates return a new map sharing structure with the old one.
+ * <p>
+ * The map is a hash array mapped trie: each level consumes five bits of the key hash and keeps only the children
+ * that exist, indexed through a 32-bit bitmap. Adding or removing a key copies the nodes on its path only, so a map
+ * of n keys is updated in O(log32 n) time and the old map remains valid and unchanged. Keys with identical hashes
+ * share a collision node.
+ * <p>
+ * Null keys and null values are not supported.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+final class PersistentHashMap<K, V> {
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    V get(K key) {
+        return root == null ? null : root.get(key, spread(key.hashCode()), 0);
+    }
+
+    /**
+     * Return a map with the given key mapped to the given value
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the new map, or this map if the key was already mapped to the value
+     */
+    PersistentHashMap<K, V> plus(K key, V value) {
+        int hash = spread(key.hashCode());
+        boolean[] added = new boolean[1];
+        Node<K, V> updated = root == null ?
+                new BitmapNode<K, V>(0, new Object[0]).plus(new Leaf<>(key, hash, value), 0, added) :
+                root.plus(new Leaf<>(key, hash, value), 0, added);
+        if (updated == root) return this;
+        return new PersistentHashMap<>(updated, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Return a map without the given key
+     *
+     * @param key the key
+     * @return the new map, or this map if the key was not present
+     */
+    PersistentHashMap<K, V> minus(K key) {
+        if (root == null) return this;
+        Node<K, V> updated = root.minus(key, spread(key.hashCode()), 0);
+        if (updated == root) return this;
+        return updated == null ? empty() : new PersistentHashMap<>(updated, size - 1);
+    }
+
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) root.forEach(action);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Leaf<K, V> {
+        final K key;
+        final int hash;
+        final V value;
+
+        Leaf(K key, int hash, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    private interface Node<K, V> {
+
+        V get(K key, int hash, int shift);
+
+        /**
+         * @return the updated node, or this node if nothing changed
+         */
+        Node<K, V> plus(Leaf<K, V> leaf, int shift, boolean[] added);
+
+        /**
+         * @return the updated node, this node if nothing changed, or null if the node is now empty
+         */
+        Node<K, V> minus(K key, int hash, int shift);
+
+        void forEach(BiConsumer<? super K, ? super V> action);
+    }
+
+    /**
+     * Node holding up to 32 entries, each either a Leaf or a child Node, present where the bitmap has a bit set
+     */
+    private static final class BitmapNode<K, V> implements Node<K, V> {
+        final int bitmap;
+        final Object[] entries;
+
+        BitmapNode(int bitmap, Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & 31);
+        }
+
+        private int position(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(K key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return null;
+            Object entry = entries[position(bit)];
+            if (entry instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) entry;
+                return leaf.key.equals(key) ? leaf.value : null;
+            }
+            return ((Node<K, V>) entry).get(key, hash, shift + 5);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> plus(Leaf<K, V> leaf, int shift, boolean[] added) {
+            int bit = bit(leaf.hash, shift);
+            int position = position(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] inserted = new Object[entries.length + 1];
+                System.arraycopy(entries, 0, inserted, 0, position);
+                inserted[position] = leaf;
+                System.arraycopy(entries, position, inserted, position + 1, entries.length - position);
+                added[0] = true;
+                return new BitmapNode<>(bitmap | bit, inserted);
+            }
+
+            Object entry = entries[position];
+            Object replacement;
+            if (entry instanceof Leaf) {
+                Leaf<K, V> existing = (Leaf<K, V>) entry;
+                if (existing.key.equals(leaf.key)) {
+                    if (existing.value == leaf.value) return this;
+                    replacement = leaf;
+                } else {
+                    replacement = merge(existing, leaf, shift + 5);
+                    added[0] = true;
+                }
+            } else {
+                Node<K, V> child = (Node<K, V>) entry;
+                Node<K, V> updated = child.plus(leaf, shift + 5, added);
+                if (updated == child) return this;
+                replacement = updated;
+            }
+            Object[] copy = entries.clone();
+            copy[position] = replacement;
+            return new BitmapNode<>(bitmap, copy);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> minus(K key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+            int position = position(bit);
+            Object entry = entries[position];
+
+            Object replacement;
+            if (entry instanceof Leaf) {
+                if (!((Leaf<K, V>) entry).key.equals(key)) return this;
+                replacement = null;
+            } else {
+                Node<K, V> child = (Node<K, V>) entry;
+                Node<K, V> updated = child.minus(key, hash, shift + 5);
+                if (updated == child) return this;
+                replacement = updated;
+            }
+
+            if (replacement != null) {
+                Object[] copy = entries.clone();
+                copy[position] = replacement;
+                return new BitmapNode<>(bitmap, copy);
+            }
+            if (entries.length == 1) return null;
+            Object[] removed = new Object[entries.length - 1];
+            System.arraycopy(entries, 0, removed, 0, position);
+            System.arraycopy(entries, position + 1, removed, position, removed.length - position);
+            return new BitmapNode<>(bitmap & ~bit, removed);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Object entry : entries) {
+                if (entry instanceof Leaf) {
+                    Leaf<K, V> leaf = (Leaf<K, V>) entry;
+                    action.accept(leaf.key, leaf.value);
+                } else {
+                    ((Node<K, V>) entry).forEach(action);
+                }
+            }
+        }
+
+        private static <K, V> Node<K, V> merge(Leaf<K, V> first, Leaf<K, V> second, int shift) {
+            if (first.hash == second.hash) return new CollisionNode<>(first.hash, new Object[]{first, second});
+            int firstBit = bit(first.hash, shift);
+            int secondBit = bit(second.hash, shift);
+            if (firstBit == secondBit) {
+                return new BitmapNode<>(firstBit, new Object[]{merge(first, second, shift + 5)});
+            }
+            Object[] pair = Integer.compareUnsigned(firstBit, secondBit) < 0 ?
+                    new Object[]{first, second} : new Object[]{second, first};
+            return new BitmapNode<>(firstBit | secondBit, pair);
+        }
+    }
+
+    /**
+     * Node holding the leaves of keys whose hashes are identical
+     */
+    private static final class CollisionNode<K, V> implements Node<K, V> {
+        final int hash;
+        final Object[] leaves;
+
+        CollisionNode(int hash, Object[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @SuppressWarnings("unchecked")
+        private int find(K key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (((Leaf<K, V>) leaves[i]).key.equals(key)) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(K key, int hash, int shift) {
+            if (hash != this.hash) return null;
+            int i = find(key);
+            return i < 0 ? null : ((Leaf<K, V>) leaves[i]).value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> plus(Leaf<K, V> leaf, int shift, boolean[] added) {
+            if (leaf.hash != hash) {
+                BitmapNode<K, V> split = new BitmapNode<>(BitmapNode.bit(hash, shift), new Object[]{this});
+                return split.plus(leaf, shift, added);
+            }
+            int i = find(leaf.key);
+            if (i >= 0) {
+                if (((Leaf<K, V>) leaves[i]).value == leaf.value) return this;
+                Object[] copy = leaves.clone();
+                copy[i] = leaf;
+                return new CollisionNode<>(hash, copy);
+            }
+            Object[] grown = Arrays.copyOf(leaves, leaves.length + 1);
+            grown[leaves.length] = leaf;
+            added[0] = true;
+            return new CollisionNode<>(hash, grown);
+        }
+
+        @Override
+        public Node<K, V> minus(K key, int hash, int shift) {
+            if (hash != this.hash) return this;
+            int i = find(key);
+            if (i < 0) return this;
+            if (leaves.length == 1) return null;
+            Object[] removed = new Object[leaves.length - 1];
+            System.arraycopy(leaves, 0, removed, 0, i);
+            System.arraycopy(leaves, i + 1, removed, i, removed.length - i);
+            return new CollisionNode<>(hash, removed);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Object leaf : leaves) {
+                action.accept(((Leaf<K, V>) leaf).key, ((Leaf<K, V>) leaf).value);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.PropertyStore;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class representing column-wise storage of the properties of the vertices in a graph, with one row per vertex slot.
+ * <p>
+ * Property names are interned into a dictionary of columns, so each name is held once however many vertices use it.
+ * Each column holds its values dictionary-encoded: an int code per row into a list of distinct values, and a bitmap
+ * of the rows that have the property at all. A graph whose vertices share a handful of colours therefore holds each
+ * colour once, and the cost of a property per vertex is one int rather than a map entry. Codes count their uses and
+ * are recycled once unused, so values edited away do not accumulate. A column whose values hardly repeat falls back
+ * to holding them row by row.
+ */
+final class PropertyColumns implements PropertyStore {
+
+    private final Map<String, Column> columnsByName = new HashMap<>();
+    private final List<Column> columns = new ArrayList<>();
+
+    @Override
+    public boolean contains(int row, String propertyName) {
+        Column column = columnsByName.get(propertyName);
+        return column != null && column.present.get(row);
+    }
+
+    @Override
+    public String get(int row, String propertyName) {
+        Column column = columnsByName.get(propertyName);
+        return column == null || !column.present.get(row) ? null : column.value(row);
+    }
+
+    @Override
+    public String put(int row, String propertyName, String value) {
+        Column column = columnsByName.get(propertyName);
+        if (column == null) {
+            column = new Column(propertyName.intern());
+            columnsByName.put(column.name, column);
+            columns.add(column);
+        }
+        return column.put(row, value);
+    }
+
+    @Override
+    public boolean remove(int row, String propertyName) {
+        Column column = columnsByName.get(propertyName);
+        return column != null && column.remove(row);
+    }
+
+    @Override
+    public Map<String, String> toMap(int row) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        for (Column column : columns) {
+            if (column.present.get(row)) properties.put(column.name, column.value(row));
+        }
+        return properties;
+    }
+
+    /**
+     * Remove every property held for a row
+     *
+     * @param row the row
+     */
+    void clearRow(int row) {
+        for (Column column : columns) {
+            column.remove(row);
+        }
+    }
+
+    void clear() {
+        columnsByName.clear();
+        columns.clear();
+    }
+
+    /**
+     * Class representing the values of one property. Values are dictionary-encoded until the column holds so many
+     * distinct values that a dictionary saves nothing, e.g. hyperlinks that differ on every vertex, after which the
+     * column holds its values row by row.
+     */
+    private static final class Column {
+
+        /**
+         * The number of distinct values above which the column checks whether encoding still pays
+         */
+        private static final int ENCODING_CHECK = 256;
+
+        final String name;
+        final BitSet present = new BitSet();
+
+        int[] codes = new int[16];
+        List<String> values = new ArrayList<>();
+        Map<String, Integer> codeOf = new HashMap<>();
+        int[] uses = new int[16];
+        ArrayDeque<Integer> freeCodes = new ArrayDeque<>();
+
+        /**
+         * The values by row, once the column has stopped encoding them
+         */
+        String[] plain;
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        String value(int row) {
+            return plain != null ? plain[row] : values.get(codes[row]);
+        }
+
+        String put(int row, String value) {
+            String previous = present.get(row) ? value(row) : null;
+            if (present.get(row) && (previous == null ? value == null : previous.equals(value))) return previous;
+            if (plain == null && !codeOf.containsKey(value) && encodingWasted()) decode();
+
+            if (plain != null) {
+                if (row >= plain.length) plain = Arrays.copyOf(plain, Math.max(row + 1, plain.length * 2));
+                plain[row] = value;
+            } else {
+                if (present.get(row)) release(codes[row]);
+                else if (row >= codes.length) codes = Arrays.copyOf(codes, Math.max(row + 1, codes.length * 2));
+                codes[row] = encode(value);
+            }
+            present.set(row);
+            return previous;
+        }
+
+        boolean remove(int row) {
+            if (!present.get(row)) return false;
+            if (plain != null) plain[row] = null;
+            else release(codes[row]);
+            present.clear(row);
+            return true;
+        }
+
+        /**
+         * Return whether adding another distinct value would leave the dictionary holding at least one value for
+         * every two rows, checked each time the number of distinct values doubles
+         */
+        private boolean encodingWasted() {
+            int distinct = codeOf.size();
+            return distinct >= ENCODING_CHECK && (distinct & (distinct - 1)) == 0
+                    && distinct * 2 > present.cardinality();
+        }
+
+        private void decode() {
+            plain = new String[codes.length];
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+                plain[row] = values.get(codes[row]);
+            }
+            codes = null;
+            values = null;
+            codeOf = null;
+            uses = null;
+            freeCodes = null;
+        }
+
+        private int encode(String value) {
+            Integer known = codeOf.get(value);
+            int code;
+            if (known != null) {
+                code = known;
+            } else {
+                code = freeCodes.isEmpty() ? values.size() : freeCodes.pop();
+                if (code == values.size()) values.add(value);
+                else values.set(code, value);
+                codeOf.put(value, code);
+                if (code >= uses.length) uses = Arrays.copyOf(uses, uses.length * 2);
+            }
+            uses[code]++;
+            return code;
+        }
+
+        private void release(int code) {
+            if (--uses[code] > 0) return;
+            codeOf.remove(values.get(code));
+            values.set(code, null);
+            freeCodes.push(code);
+        }
+    }
+}
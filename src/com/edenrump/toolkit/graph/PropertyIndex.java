@@ -0,0 +1,142 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Class representing an inverted index of vertex properties: for each property name, the ids of the vertices holding
+ * each value of that property.
+ * <p>
+ * Values are indexed in a normalised form, so that differently written forms of the same value (e.g. "#FFF" and
+ * "#ffffff" for a colour) fall in the same set. Each property name has its own normaliser, trimming by default. The
+ * normalised value held for each vertex is remembered, so a change can be moved out of its old set without knowing
+ * the old value.
+ */
+final class PropertyIndex {
+
+    private static final UnaryOperator<String> DEFAULT_NORMALISER = String::trim;
+
+    private final Map<String, UnaryOperator<String>> normalisers = new HashMap<>();
+    private final Map<String, Map<String, Set<String>>> idsByValue = new HashMap<>();
+    private final Map<String, Map<String, String>> valueById = new HashMap<>();
+
+    /**
+     * Set the normaliser for a property and re-index the values already held for it
+     *
+     * @param propertyName the name of the property
+     * @param normaliser   the normaliser
+     * @param vertices     every vertex in the graph
+     */
+    void setNormaliser(String propertyName, UnaryOperator<String> normaliser, Iterable<Vertex> vertices) {
+        normalisers.put(propertyName, normaliser);
+        idsByValue.remove(propertyName);
+        valueById.remove(propertyName);
+        for (Vertex vertex : vertices) {
+            update(vertex, propertyName);
+        }
+    }
+
+    /**
+     * Normalise a value as it would be indexed
+     *
+     * @param propertyName the name of the property
+     * @param value        the value
+     * @return the normalised value
+     */
+    String normalise(String propertyName, String value) {
+        return normalisers.getOrDefault(propertyName, DEFAULT_NORMALISER).apply(value);
+    }
+
+    void addVertex(Vertex vertex) {
+        for (String propertyName : vertex.getProperties().keySet()) {
+            update(vertex, propertyName);
+        }
+    }
+
+    void removeVertex(Vertex vertex) {
+        for (String propertyName : vertex.getProperties().keySet()) {
+            unindex(vertex.getId(), propertyName);
+        }
+    }
+
+    /**
+     * Bring the entry for one property of a vertex in line with the vertex's current value
+     *
+     * @param vertex       the vertex
+     * @param propertyName the name of the property
+     */
+    void update(Vertex vertex, String propertyName) {
+        unindex(vertex.getId(), propertyName);
+        if (!vertex.hasProperty(propertyName)) return;
+        String value = normalise(propertyName, vertex.getProperty(propertyName));
+        valueById.computeIfAbsent(propertyName, name -> new HashMap<>()).put(vertex.getId(), value);
+        idsByValue.computeIfAbsent(propertyName, name -> new HashMap<>())
+                .computeIfAbsent(value, v -> new HashSet<>())
+                .add(vertex.getId());
+    }
+
+    private void unindex(String vertexId, String propertyName) {
+        Map<String, String> values = valueById.get(propertyName);
+        String previous = values == null ? null : values.remove(vertexId);
+        if (previous == null) return;
+        Map<String, Set<String>> sets = idsByValue.get(propertyName);
+        Set<String> ids = sets.get(previous);
+        ids.remove(vertexId);
+        if (ids.isEmpty()) sets.remove(previous);
+    }
+
+    /**
+     * Return the ids of the vertices whose property has the given value after normalisation
+     *
+     * @param propertyName the name of the property
+     * @param value        the value
+     * @return an unmodifiable live set of ids
+     */
+    Set<String> idsWith(String propertyName, String value) {
+        Map<String, Set<String>> sets = idsByValue.get(propertyName);
+        Set<String> ids = sets == null ? null : sets.get(normalise(propertyName, value));
+        return ids == null ? Collections.emptySet() : Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Return the ids of the vertices that have a property, whatever its value
+     *
+     * @param propertyName the name of the property
+     * @return an unmodifiable live set of ids
+     */
+    Set<String> idsWith(String propertyName) {
+        Map<String, String> values = valueById.get(propertyName);
+        return values == null ? Collections.emptySet() : Collections.unmodifiableSet(values.keySet());
+    }
+
+    /**
+     * Return the distinct normalised values held for a property
+     *
+     * @param propertyName the name of the property
+     * @return an unmodifiable live set of values
+     */
+    Set<String> valuesOf(String propertyName) {
+        Map<String, Set<String>> sets = idsByValue.get(propertyName);
+        return sets == null ? Collections.emptySet() : Collections.unmodifiableSet(sets.keySet());
+    }
+
+    void clear() {
+        idsByValue.clear();
+        valueById.clear();
+    }
+}
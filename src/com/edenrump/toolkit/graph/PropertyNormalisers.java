@@ -0,0 +1,98 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Locale;
+import java.util.function.UnaryOperator;
+
+/**
+ * Class providing normalisers for indexed property values (see Graph.setPropertyNormaliser).
+ */
+public class PropertyNormalisers {
+
+    /**
+     * Normalise colours to lower-case "#rrggbb" so that values naming the same colour are indexed together.
+     * Understands "#rgb", "#rgba", "#rrggbb" and "#rrggbbaa", the same with a "0x" prefix or no prefix, and
+     * "rgb(r, g, b)" or "rgba(r, g, b, a)". Opacity is ignored. Anything else, such as a colour name, is compared as
+     * trimmed lower-case text.
+     *
+     * @return the normaliser
+     */
+    public static UnaryOperator<String> colour() {
+        return PropertyNormalisers::normaliseColour;
+    }
+
+    /**
+     * Normalise text values by trimming them and ignoring case
+     *
+     * @return the normaliser
+     */
+    public static UnaryOperator<String> caseInsensitive() {
+        return value -> value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String normaliseColour(String value) {
+        String colour = value.trim().toLowerCase(Locale.ROOT);
+        if (colour.startsWith("rgb")) {
+            int open = colour.indexOf('(');
+            int close = colour.indexOf(')');
+            if (open < 0 || close < open) return colour;
+            String[] parts = colour.substring(open + 1, close).split(",");
+            if (parts.length < 3) return colour;
+            StringBuilder hex = new StringBuilder("#");
+            for (int i = 0; i < 3; i++) {
+                int channel = parseChannel(parts[i].trim());
+                if (channel < 0) return colour;
+                hex.append(Character.forDigit(channel >> 4, 16)).append(Character.forDigit(channel & 0xf, 16));
+            }
+            return hex.toString();
+        }
+
+        String digits = colour.startsWith("#") ? colour.substring(1) :
+                colour.startsWith("0x") ? colour.substring(2) : colour;
+        if (!isHex(digits)) return colour;
+        switch (digits.length()) {
+            case 3:
+            case 4:
+                return "#" + digits.charAt(0) + digits.charAt(0) + digits.charAt(1) + digits.charAt(1)
+                        + digits.charAt(2) + digits.charAt(2);
+            case 6:
+            case 8:
+                return "#" + digits.substring(0, 6);
+            default:
+                return colour;
+        }
+    }
+
+    /**
+     * Parse a colour channel given as 0-255 or as a percentage
+     *
+     * @return the channel value, or -1 if the text is not a channel
+     */
+    private static int parseChannel(String text) {
+        try {
+            if (text.endsWith("%")) {
+                double percent = Double.parseDouble(text.substring(0, text.length() - 1));
+                return (int) Math.round(Math.max(0, Math.min(100, percent)) * 2.55);
+            }
+            return Math.max(0, Math.min(255, Integer.parseInt(text)));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isHex(String digits) {
+        if (digits.isEmpty()) return false;
+        for (int i = 0; i < digits.length(); i++) {
+            if (Character.digit(digits.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import java.util.Arrays;
+
+/**
+ * Class representing a cache of the downstream and upstream closures of vertices in a DepthDag.
+ * <p>
+ * A closure is calculated the first time it is asked for and kept as a sorted array of slots, so membership queries
+ * are a binary search. When the graph changes, the slots at either end of the change are recorded as dirty. Before
+ * the next query, only the cached closures that contain a dirty slot, or belong to one, are dropped. Everything else
+ * stays valid, because a change can only alter the closures of vertices that could reach it.
+ */
+final class ReachabilityIndex {
+
+    /**
+     * Above this many dirty slots it is cheaper to drop every cached closure than to check each one
+     */
+    private static final int DIRTY_LIMIT = 64;
+
+    private int[][] descendants = new int[16][];
+    private int[][] ancestors = new int[16][];
+
+    private int[] dirty = new int[DIRTY_LIMIT];
+    private int dirtyCount = 0;
+    private boolean allDirty = false;
+
+    private long[] visited = new long[0];
+    private int[] queue = new int[0];
+
+    /**
+     * Record that the connections or depth of a slot have changed
+     *
+     * @param slot the slot
+     */
+    void invalidate(int slot) {
+        if (allDirty) return;
+        if (dirtyCount == DIRTY_LIMIT) {
+            allDirty = true;
+            return;
+        }
+        dirty[dirtyCount++] = slot;
+    }
+
+    /**
+     * Drop every cached closure
+     */
+    void invalidateAll() {
+        allDirty = true;
+    }
+
+    /**
+     * Return all slots downstream of a slot, excluding the slot itself unless it lies on a cycle
+     *
+     * @param slot the slot
+     * @param dag  the current oriented connections of the graph
+     * @param live the vertex held in each slot
+     * @return the downstream slots, sorted ascending. The array must not be modified.
+     */
+    int[] descendants(int slot, DepthDag dag, Object[] live) {
+        applyInvalidations(dag.down.slotLimit());
+        if (descendants[slot] == null) descendants[slot] = closure(slot, dag.down, live);
+        return descendants[slot];
+    }
+
+    /**
+     * Return all slots upstream of a slot, excluding the slot itself unless it lies on a cycle
+     *
+     * @param slot the slot
+     * @param dag  the current oriented connections of the graph
+     * @param live the vertex held in each slot
+     * @return the upstream slots, sorted ascending. The array must not be modified.
+     */
+    int[] ancestors(int slot, DepthDag dag, Object[] live) {
+        applyInvalidations(dag.up.slotLimit());
+        if (ancestors[slot] == null) ancestors[slot] = closure(slot, dag.up, live);
+        return ancestors[slot];
+    }
+
+    /**
+     * Return whether one slot is downstream of another
+     *
+     * @param from the upstream slot
+     * @param to   the candidate downstream slot
+     * @param dag  the current oriented connections of the graph
+     * @param live the vertex held in each slot
+     * @return whether to is downstream of from
+     */
+    boolean reaches(int from, int to, DepthDag dag, Object[] live) {
+        applyInvalidations(dag.down.slotLimit());
+        if (descendants[from] == null && ancestors[to] != null) {
+            return Arrays.binarySearch(ancestors[to], from) >= 0;
+        }
+        return Arrays.binarySearch(descendants(from, dag, live), to) >= 0;
+    }
+
+    void clear() {
+        descendants = new int[16][];
+        ancestors = new int[16][];
+        dirtyCount = 0;
+        allDirty = false;
+    }
+
+    private void applyInvalidations(int slotLimit) {
+        if (descendants.length < slotLimit) {
+            descendants = Arrays.copyOf(descendants, Math.max(slotLimit, descendants.length * 2));
+            ancestors = Arrays.copyOf(ancestors, descendants.length);
+        }
+        if (allDirty) {
+            Arrays.fill(descendants, null);
+            Arrays.fill(ancestors, null);
+        } else if (dirtyCount > 0) {
+            Arrays.sort(dirty, 0, dirtyCount);
+            for (int slot = 0; slot < descendants.length; slot++) {
+                if (descendants[slot] != null && touchesDirty(slot, descendants[slot])) descendants[slot] = null;
+                if (ancestors[slot] != null && touchesDirty(slot, ancestors[slot])) ancestors[slot] = null;
+            }
+        }
+        dirtyCount = 0;
+        allDirty = false;
+    }
+
+    private boolean touchesDirty(int owner, int[] closure) {
+        if (Arrays.binarySearch(dirty, 0, dirtyCount, owner) >= 0) return true;
+        for (int i = 0; i < dirtyCount; i++) {
+            if (Arrays.binarySearch(closure, dirty[i]) >= 0) return true;
+        }
+        return false;
+    }
+
+    private int[] closure(int start, CompressedAdjacency edges, Object[] live) {
+        int slotLimit = edges.slotLimit();
+        int words = (slotLimit + 63) >>> 6;
+        if (visited.length < words) {
+            visited = new long[words];
+        } else {
+            Arrays.fill(visited, 0, words, 0L);
+        }
+        if (queue.length < slotLimit) queue = new int[slotLimit];
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        visited[start >>> 6] |= 1L << start;
+        boolean cyclic = false;
+        while (head < tail) {
+            int slot = queue[head++];
+            for (int i = edges.offsets[slot]; i < edges.offsets[slot + 1]; i++) {
+                int next = edges.targets[i];
+                if (live[next] == null) continue;
+                if (next == start) cyclic = true;
+                if ((visited[next >>> 6] & (1L << next)) != 0) continue;
+                visited[next >>> 6] |= 1L << next;
+                queue[tail++] = next;
+            }
+        }
+
+        int[] reached = Arrays.copyOfRange(queue, 1, tail);
+        if (cyclic) {
+            reached = Arrays.copyOf(reached, reached.length + 1);
+            reached[reached.length - 1] = start;
+        }
+        Arrays.sort(reached);
+        return reached;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+/**
+ * Interface describing a value that is rolled up from a vertex and everything downstream of it.
+ * <p>
+ * The roll-up of a vertex is its own value combined with the roll-ups of the vertices one step downstream. A vertex
+ * can be reached along several paths, so combine() should give the same answer however often a value is included
+ * (sets, maxima and flags all do). Values are shared between vertices, must not be modified once returned and must
+ * never be null.
+ *
+ * @param <T> the type of the rolled up value
+ */
+public interface RollUp<T> {
+
+    /**
+     * Return the value contributed by a single vertex
+     *
+     * @param vertex the vertex
+     * @param leaf   whether the vertex has nothing downstream of it
+     * @return the value of the vertex on its own
+     */
+    T ofVertex(Vertex vertex, boolean leaf);
+
+    /**
+     * Combine two values
+     *
+     * @param first  a value
+     * @param second another value
+     * @return the combined value
+     */
+    T combine(T first, T second);
+}
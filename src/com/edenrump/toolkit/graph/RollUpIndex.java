@@ -0,0 +1,206 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Class representing the roll-up values of every vertex in a graph, kept up to date as the graph changes.
+ * <p>
+ * Values are calculated on demand in a single post-order pass over the vertices downstream of the one asked for,
+ * reusing any values that are still valid. When a vertex changes, only its own value and the values of the vertices
+ * upstream of it are dropped.
+ * <p>
+ * Vertices on a cycle are all downstream of one another, so they share one value: the values of every vertex on the
+ * cycle combined with everything downstream of it. The pass finds them as strongly connected components (Tarjan's
+ * algorithm) and only stores a value once the whole of its component is known, so the answer does not depend on
+ * which vertex was asked for first.
+ *
+ * @param <T> the type of the rolled up value
+ */
+public class RollUpIndex<T> {
+
+    private final Graph graph;
+    private final RollUp<T> rollUp;
+
+    private Object[] values = new Object[16];
+    private final BitSet changed = new BitSet();
+    private boolean allChanged = false;
+
+    private int[] stack = new int[0];
+    private int[] cursor = new int[0];
+    private int[] order = new int[0];
+    private int[] lowLink = new int[0];
+    private int[] component = new int[0];
+    private boolean[] inComponent = new boolean[0];
+
+    private static final int UNVISITED = -1;
+
+    RollUpIndex(Graph graph, RollUp<T> rollUp) {
+        this.graph = graph;
+        this.rollUp = rollUp;
+    }
+
+    /**
+     * Return the rolled up value of a vertex
+     *
+     * @param vertexId the id of the vertex
+     * @return the value of the vertex combined with everything downstream of it, or null if there is no such vertex
+     */
+    public T get(String vertexId) {
+        int slot = graph.slotOfVertex(vertexId);
+        if (slot < 0) return null;
+        DepthDag dag = graph.depthDag();
+        applyChanges(dag);
+        if (values[slot] == null) calculate(slot, dag);
+        return value(slot);
+    }
+
+    /**
+     * Return the roll-up that this index maintains
+     *
+     * @return the roll-up
+     */
+    public RollUp<T> getRollUp() {
+        return rollUp;
+    }
+
+    /**
+     * Record that the vertex in a slot, or the connections around it, have changed
+     *
+     * @param slot the slot
+     */
+    void changed(int slot) {
+        if (!allChanged) changed.set(slot);
+    }
+
+    /**
+     * Drop every value
+     */
+    void clear() {
+        allChanged = true;
+        changed.clear();
+    }
+
+    private void applyChanges(DepthDag dag) {
+        int slotLimit = dag.down.slotLimit();
+        if (values.length < slotLimit) values = Arrays.copyOf(values, Math.max(slotLimit, values.length * 2));
+
+        if (allChanged) {
+            Arrays.fill(values, null);
+        } else {
+            for (int slot = changed.nextSetBit(0); slot >= 0 && slot < slotLimit; slot = changed.nextSetBit(slot + 1)) {
+                values[slot] = null;
+                if (graph.vertexInSlot(slot) == null) continue;
+                for (int ancestor : graph.ancestorSlots(slot)) {
+                    values[ancestor] = null;
+                }
+            }
+        }
+        changed.clear();
+        allChanged = false;
+    }
+
+    /**
+     * Calculate the value of a slot, and of any slot downstream of it without a valid value, by an iterative
+     * depth-first search that closes each strongly connected component as the search leaves its first vertex
+     */
+    private void calculate(int root, DepthDag dag) {
+        CompressedAdjacency down = dag.down;
+        int slotLimit = down.slotLimit();
+        if (order.length < slotLimit) {
+            stack = new int[slotLimit];
+            cursor = new int[slotLimit];
+            order = new int[slotLimit];
+            lowLink = new int[slotLimit];
+            component = new int[slotLimit];
+            inComponent = new boolean[slotLimit];
+            Arrays.fill(order, UNVISITED);
+        }
+
+        int visited = 0;
+        int componentSize = 0;
+        int depth = 0;
+        stack[depth] = root;
+        cursor[depth] = down.offsets[root];
+        order[root] = lowLink[root] = visited++;
+        component[componentSize++] = root;
+        inComponent[root] = true;
+        while (depth >= 0) {
+            int slot = stack[depth];
+            if (cursor[depth] < down.offsets[slot + 1]) {
+                int next = down.targets[cursor[depth]++];
+                if (values[next] != null || graph.vertexInSlot(next) == null) continue;
+                if (order[next] == UNVISITED) {
+                    depth++;
+                    stack[depth] = next;
+                    cursor[depth] = down.offsets[next];
+                    order[next] = lowLink[next] = visited++;
+                    component[componentSize++] = next;
+                    inComponent[next] = true;
+                } else if (inComponent[next]) {
+                    lowLink[slot] = Math.min(lowLink[slot], order[next]);
+                }
+            } else {
+                depth--;
+                if (depth >= 0) lowLink[stack[depth]] = Math.min(lowLink[stack[depth]], lowLink[slot]);
+                if (lowLink[slot] == order[slot]) componentSize = close(slot, componentSize, down);
+            }
+        }
+    }
+
+    /**
+     * Give every vertex of the component headed by a slot their shared value, and take the component off the stack
+     * of open components
+     *
+     * @return the size of the stack once the component has been taken off
+     */
+    private int close(int head, int componentSize, CompressedAdjacency down) {
+        int first = componentSize;
+        do {
+            first--;
+        } while (component[first] != head);
+
+        T value = null;
+        for (int i = first; i < componentSize; i++) {
+            int slot = component[i];
+            T own = rollUp.ofVertex(graph.vertexInSlot(slot), !hasLiveChild(slot, down));
+            value = value == null ? own : rollUp.combine(value, own);
+        }
+        for (int i = first; i < componentSize; i++) {
+            int slot = component[i];
+            for (int j = down.offsets[slot]; j < down.offsets[slot + 1]; j++) {
+                int child = down.targets[j];
+                if (values[child] != null) value = rollUp.combine(value, value(child));
+            }
+        }
+        for (int i = first; i < componentSize; i++) {
+            int slot = component[i];
+            values[slot] = value;
+            order[slot] = UNVISITED;
+            inComponent[slot] = false;
+        }
+        return first;
+    }
+    private boolean hasLiveChild(int slot, CompressedAdjacency down) {
+        for (int i = down.offsets[slot]; i < down.offsets[slot + 1]; i++) {
+            if (graph.vertexInSlot(down.targets[i]) != null) return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(int slot) {
+        return (T) values[slot];
+    }
+}
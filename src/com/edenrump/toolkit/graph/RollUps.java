@@ -0,0 +1,91 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Class providing commonly used roll-ups.
+ */
+public class RollUps {
+
+    /**
+     * Roll up the distinct values of a property found on a vertex and everything downstream of it, e.g. the set of
+     * colours in a subtree
+     *
+     * @param propertyName the name of the property
+     * @return the roll-up
+     */
+    public static RollUp<Set<String>> propertyValues(String propertyName) {
+        return new SetRollUp() {
+            @Override
+            public Set<String> ofVertex(Vertex vertex, boolean leaf) {
+                return vertex.hasProperty(propertyName) ?
+                        Collections.singleton(vertex.getProperty(propertyName)) :
+                        Collections.emptySet();
+            }
+        };
+    }
+
+    /**
+     * Roll up the ids of the leaves at or downstream of a vertex that have a property, e.g. the linked documents in
+     * a subtree. The number of such leaves is the size of the set.
+     *
+     * @param propertyName the name of the property
+     * @return the roll-up
+     */
+    public static RollUp<Set<String>> leavesWithProperty(String propertyName) {
+        return new SetRollUp() {
+            @Override
+            public Set<String> ofVertex(Vertex vertex, boolean leaf) {
+                return leaf && vertex.hasProperty(propertyName) ?
+                        Collections.singleton(vertex.getId()) :
+                        Collections.emptySet();
+            }
+        };
+    }
+
+    /**
+     * Roll up the greatest depth reached at or downstream of a vertex
+     *
+     * @return the roll-up
+     */
+    public static RollUp<Integer> maximumDepth() {
+        return new RollUp<Integer>() {
+            @Override
+            public Integer ofVertex(Vertex vertex, boolean leaf) {
+                return vertex.getDepth();
+            }
+
+            @Override
+            public Integer combine(Integer first, Integer second) {
+                return Math.max(first, second);
+            }
+        };
+    }
+
+    /**
+     * Base class for roll-ups that take the union of sets. Sets are only copied when the union adds something new.
+     */
+    private abstract static class SetRollUp implements RollUp<Set<String>> {
+        @Override
+        public Set<String> combine(Set<String> first, Set<String> second) {
+            if (first.containsAll(second)) return first;
+            if (second.containsAll(first)) return second;
+            Set<String> union = new HashSet<>(first);
+            union.addAll(second);
+            return Collections.unmodifiableSet(union);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Class representing the result of checking the structure of a graph: a topological order of its vertices along the
+ * connections oriented by depth (see DepthDag), and every place where the structure is not a well-formed depth DAG.
+ * <p>
+ * The order is found with Kahn's algorithm over primitive arrays. Vertices that never become free of upstream
+ * vertices lie on or between cycles. Peeling vertices with no downstream vertices off that remainder leaves the
+ * vertices that lie on cycles, from which one cycle is traced for reporting. Everything runs in O(V + E).
+ * <p>
+ * The check reads a copy of the ids and depths of the graph's slots (see Slots) and the graph's compressed, immutable
+ * connection arrays, so once those are taken it can run on any thread.
+ */
+public final class StructureReport {
+
+    /**
+     * Enum representing the kinds of problem a report can contain
+     */
+    public enum Problem {
+        CYCLE, LEVEL_CONNECTION, CONNECTION_AGAINST_DEPTH, DANGLING_CONNECTION
+    }
+
+    /**
+     * Class representing a connection held by one vertex to another
+     */
+    public static final class Connection {
+        private final String fromId;
+        private final String toId;
+
+        Connection(String fromId, String toId) {
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+
+        /**
+         * @return the id of the vertex holding the connection
+         */
+        public String getFromId() {
+            return fromId;
+        }
+
+        /**
+         * @return the id the connection points at
+         */
+        public String getToId() {
+            return toId;
+        }
+
+        @Override
+        public String toString() {
+            return fromId + " -> " + toId;
+        }
+    }
+
+    /**
+     * Class representing the state of each slot of a graph that a check reads, copied from the graph so that the
+     * check does not touch the vertices themselves
+     */
+    static final class Slots {
+        final boolean[] hasVertex;
+        final String[] ids;
+        final int[] depths;
+        final boolean[] unloaded;
+
+        private Slots(int slotLimit) {
+            hasVertex = new boolean[slotLimit];
+            ids = new String[slotLimit];
+            depths = new int[slotLimit];
+            unloaded = new boolean[slotLimit];
+        }
+
+        /**
+         * Copy the state of the slots of a graph
+         *
+         * @param slotLimit      the slot limit of the graph
+         * @param verticesBySlot the vertex held in each slot, or null for slots without a vertex
+         * @param index          the index from slots to ids
+         * @param unloaded       whether an id belongs to a vertex that exists but has not been loaded, so that
+         *                       connections to it are not reported as dangling
+         * @return the copy
+         */
+        static Slots of(int slotLimit, Vertex[] verticesBySlot, VertexIndex index, Predicate<String> unloaded) {
+            Slots slots = new Slots(slotLimit);
+            for (int slot = 0; slot < slotLimit; slot++) {
+                Vertex vertex = verticesBySlot[slot];
+                if (vertex != null) {
+                    slots.hasVertex[slot] = true;
+                    slots.ids[slot] = vertex.getId();
+                    slots.depths[slot] = vertex.getDepth();
+                } else {
+                    slots.ids[slot] = index.idOf(slot);
+                    slots.unloaded[slot] = slots.ids[slot] != null && unloaded.test(slots.ids[slot]);
+                }
+            }
+            return slots;
+        }
+    }
+
+    private final long version;
+    private final List<String> topologicalOrder;
+    private final List<String> cyclicVertices;
+    private final List<String> exampleCycle;
+    private final List<Connection> levelConnections;
+    private final List<Connection> connectionsAgainstDepth;
+    private final List<Connection> danglingConnections;
+
+    private StructureReport(long version, List<String> topologicalOrder, List<String> cyclicVertices,
+                            List<String> exampleCycle, List<Connection> levelConnections,
+                            List<Connection> connectionsAgainstDepth, List<Connection> danglingConnections) {
+        this.version = version;
+        this.topologicalOrder = Collections.unmodifiableList(topologicalOrder);
+        this.cyclicVertices = Collections.unmodifiableList(cyclicVertices);
+        this.exampleCycle = Collections.unmodifiableList(exampleCycle);
+        this.levelConnections = Collections.unmodifiableList(levelConnections);
+        this.connectionsAgainstDepth = Collections.unmodifiableList(connectionsAgainstDepth);
+        this.danglingConnections = Collections.unmodifiableList(danglingConnections);
+    }
+
+    /**
+     * Check the structure of a graph
+     *
+     * @param version     the version of the graph
+     * @param connections the compressed connection lists of the graph
+     * @param dag         the connections oriented by depth
+     * @param slots       the state of the slots of the graph
+     * @return the report
+     */
+    static StructureReport of(long version, CompressedAdjacency connections, DepthDag dag, Slots slots) {
+        int slotLimit = dag.down.slotLimit();
+
+        int[] upstreamCount = new int[slotLimit];
+        for (int slot = 0; slot < slotLimit; slot++) {
+            upstreamCount[slot] = dag.up.degree(slot);
+        }
+        int[] queue = new int[slotLimit];
+        int head = 0;
+        int tail = 0;
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (slots.hasVertex[slot] && upstreamCount[slot] == 0) queue[tail++] = slot;
+        }
+        List<String> order = new ArrayList<>();
+        boolean[] ordered = new boolean[slotLimit];
+        while (head < tail) {
+            int slot = queue[head++];
+            ordered[slot] = true;
+            order.add(slots.ids[slot]);
+            for (int i = dag.down.offsets[slot]; i < dag.down.offsets[slot + 1]; i++) {
+                if (--upstreamCount[dag.down.targets[i]] == 0) queue[tail++] = dag.down.targets[i];
+            }
+        }
+
+        List<String> cyclic = new ArrayList<>();
+        List<String> cycle = new ArrayList<>();
+        if (tail < countVertices(slots, slotLimit)) {
+            boolean[] onCycle = peelToCycles(dag, slots, ordered);
+            for (int slot = 0; slot < slotLimit; slot++) {
+                if (onCycle[slot]) cyclic.add(slots.ids[slot]);
+            }
+            traceCycle(dag, slots, onCycle, cycle);
+        }
+
+        List<Connection> level = new ArrayList<>();
+        List<Connection> againstDepth = new ArrayList<>();
+        List<Connection> dangling = new ArrayList<>();
+        for (int from = 0; from < slotLimit; from++) {
+            if (!slots.hasVertex[from]) continue;
+            int fromDepth = slots.depths[from];
+            for (int i = connections.offsets[from]; i < connections.offsets[from + 1]; i++) {
+                int to = connections.targets[i];
+                if (to == from) continue;
+                if (!slots.hasVertex[to]) {
+                    if (!slots.unloaded[to]) dangling.add(new Connection(slots.ids[from], slots.ids[to]));
+                } else if (connections.contains(to, from)) {
+                    if (from < to && fromDepth == slots.depths[to]) {
+                        level.add(new Connection(slots.ids[from], slots.ids[to]));
+                    }
+                } else if (slots.depths[to] >= fromDepth) {
+                    againstDepth.add(new Connection(slots.ids[from], slots.ids[to]));
+                }
+            }
+        }
+        return new StructureReport(version, order, cyclic, cycle, level, againstDepth, dangling);
+    }
+
+    private static int countVertices(Slots slots, int slotLimit) {
+        int count = 0;
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (slots.hasVertex[slot]) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Starting from the vertices Kahn's algorithm could not order, repeatedly remove those with no downstream vertex
+     * left. What remains lies on a cycle.
+     */
+    private static boolean[] peelToCycles(DepthDag dag, Slots slots, boolean[] ordered) {
+        int slotLimit = ordered.length;
+        boolean[] remaining = new boolean[slotLimit];
+        for (int slot = 0; slot < slotLimit; slot++) {
+            remaining[slot] = slots.hasVertex[slot] && !ordered[slot];
+        }
+        int[] downstreamCount = new int[slotLimit];
+        int[] queue = new int[slotLimit];
+        int tail = 0;
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (!remaining[slot]) continue;
+            for (int i = dag.down.offsets[slot]; i < dag.down.offsets[slot + 1]; i++) {
+                if (remaining[dag.down.targets[i]]) downstreamCount[slot]++;
+            }
+            if (downstreamCount[slot] == 0) queue[tail++] = slot;
+        }
+        for (int head = 0; head < tail; head++) {
+            int slot = queue[head];
+            remaining[slot] = false;
+            for (int i = dag.up.offsets[slot]; i < dag.up.offsets[slot + 1]; i++) {
+                int upstream = dag.up.targets[i];
+                if (remaining[upstream] && --downstreamCount[upstream] == 0) queue[tail++] = upstream;
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Walk downstream through vertices on cycles until a vertex repeats, and record the loop that closes
+     */
+    private static void traceCycle(DepthDag dag, Slots slots, boolean[] onCycle, List<String> cycle) {
+        int start = 0;
+        while (start < onCycle.length && !onCycle[start]) start++;
+        if (start == onCycle.length) return;
+
+        int[] stepReached = new int[onCycle.length];
+        Arrays.fill(stepReached, -1);
+        List<Integer> walk = new ArrayList<>();
+        int slot = start;
+        while (stepReached[slot] < 0) {
+            stepReached[slot] = walk.size();
+            walk.add(slot);
+            int next = -1;
+            for (int i = dag.down.offsets[slot]; i < dag.down.offsets[slot + 1] && next < 0; i++) {
+                if (onCycle[dag.down.targets[i]]) next = dag.down.targets[i];
+            }
+            slot = next;
+        }
+        for (int i = stepReached[slot]; i < walk.size(); i++) {
+            cycle.add(slots.ids[walk.get(i)]);
+        }
+    }
+
+    /**
+     * Return the version of the graph that was checked
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return the ids of the vertices in topological order: every vertex comes after all of its upstream vertices.
+     * Vertices on or downstream of a cycle cannot be ordered and are left out.
+     *
+     * @return the ordered vertex ids
+     */
+    public List<String> getTopologicalOrder() {
+        return topologicalOrder;
+    }
+
+    public boolean isAcyclic() {
+        return cyclicVertices.isEmpty();
+    }
+
+    /**
+     * Return the ids of the vertices that lie on a cycle
+     *
+     * @return the vertex ids
+     */
+    public List<String> getCyclicVertices() {
+        return cyclicVertices;
+    }
+
+    /**
+     * Return one cycle, as the ids of its vertices in downstream order
+     *
+     * @return the vertex ids, or an empty list if the graph is acyclic
+     */
+    public List<String> getExampleCycle() {
+        return exampleCycle;
+    }
+
+    /**
+     * Return the connections listed by both vertices whose vertices share a depth. Each is reported once.
+     *
+     * @return the connections
+     */
+    public List<Connection> getLevelConnections() {
+        return levelConnections;
+    }
+
+    /**
+     * Return the connections listed by one vertex only where the listed, upstream, vertex is not shallower than the
+     * vertex listing it
+     *
+     * @return the connections
+     */
+    public List<Connection> getConnectionsAgainstDepth() {
+        return connectionsAgainstDepth;
+    }
+
+    /**
+     * Return the connections to ids that have no vertex in the graph
+     *
+     * @return the connections
+     */
+    public List<Connection> getDanglingConnections() {
+        return danglingConnections;
+    }
+
+    /**
+     * Return the kinds of problem found
+     *
+     * @return the problems, empty if the graph is a well-formed depth DAG
+     */
+    public Set<Problem> getProblems() {
+        Set<Problem> problems = EnumSet.noneOf(Problem.class);
+        if (!cyclicVertices.isEmpty()) problems.add(Problem.CYCLE);
+        if (!levelConnections.isEmpty()) problems.add(Problem.LEVEL_CONNECTION);
+        if (!connectionsAgainstDepth.isEmpty()) problems.add(Problem.CONNECTION_AGAINST_DEPTH);
+        if (!danglingConnections.isEmpty()) problems.add(Problem.DANGLING_CONNECTION);
+        return problems;
+    }
+
+    public boolean isValid() {
+        return getProblems().isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (isValid()) return "No structural problems";
+        StringBuilder summary = new StringBuilder();
+        if (!cyclicVertices.isEmpty()) {
+            summary.append(cyclicVertices.size()).append(" vertices on cycles, e.g. ")
+                    .append(String.join(" -> ", exampleCycle)).append('\n');
+        }
+        if (!levelConnections.isEmpty()) {
+            summary.append(levelConnections.size()).append(" connections between vertices at the same depth\n");
+        }
+        if (!connectionsAgainstDepth.isEmpty()) {
+            summary.append(connectionsAgainstDepth.size()).append(" one-way connections against depth\n");
+        }
+        if (!danglingConnections.isEmpty()) {
+            summary.append(danglingConnections.size()).append(" connections to missing vertices\n");
+        }
+        return summary.toString().trim();
+    }
+}
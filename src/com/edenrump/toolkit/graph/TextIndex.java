@@ -0,0 +1,300 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Class representing a trigram index over the text of vertices: their names and the values of their text properties.
+ * <p>
+ * Every run of three characters in a vertex's lower-cased text is posted against the vertex's slot. A query of three
+ * or more characters only needs to check the vertices posted against its rarest trigram, so the cost of a search
+ * follows the number of likely matches rather than the size of the graph. Shorter queries are answered by scanning
+ * the indexed text, which is held lower-cased so that nothing is converted while searching. A vertex is re-indexed
+ * on its own when its name or a property changes.
+ * <p>
+ * Trigrams are found through an open-addressing table of primitive longs, and each one's postings are a sorted array
+ * of slots, so a posting costs four bytes. Properties that are not text, such as hyperlinks and colours, are left out
+ * (see setSearchable).
+ */
+final class TextIndex {
+
+    private static final int EMPTY = -1;
+
+    private final Set<String> unsearched = new HashSet<>(Arrays.asList("url", "color"));
+
+    private String[][] textsBySlot = new String[16][];
+
+    private int[] table = emptyTable(64);
+    private long[] trigramOfPosting = new long[32];
+    private int[][] postings = new int[32][];
+    private int[] postingSizes = new int[32];
+    private int postingCount = 0;
+
+    /**
+     * Index the current text of a vertex, replacing any text indexed for its slot before
+     *
+     * @param slot   the slot of the vertex
+     * @param vertex the vertex
+     */
+    void update(int slot, Vertex vertex) {
+        remove(slot);
+        String[] indexed = texts(vertex, unsearched);
+        if (slot >= textsBySlot.length) {
+            textsBySlot = Arrays.copyOf(textsBySlot, Math.max(slot + 1, textsBySlot.length * 2));
+        }
+        textsBySlot[slot] = indexed;
+        for (String text : indexed) {
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                post(trigram(text, i), slot);
+            }
+        }
+    }
+
+    /**
+     * Remove the text indexed for a slot
+     *
+     * @param slot the slot of the vertex
+     */
+    void remove(int slot) {
+        if (slot >= textsBySlot.length || textsBySlot[slot] == null) return;
+        for (String text : textsBySlot[slot]) {
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                unpost(trigram(text, i), slot);
+            }
+        }
+        textsBySlot[slot] = null;
+    }
+
+    /**
+     * Set whether the values of a property are indexed. Hyperlinks and colours are not, unless set otherwise. The
+     * vertices given are indexed again.
+     *
+     * @param propertyName the name of the property
+     * @param searchable   whether the values should be found by a search
+     * @param vertices     the vertex in each slot, or null for slots without a vertex
+     * @param slotLimit    the number of slots to index again
+     */
+    void setSearchable(String propertyName, boolean searchable, Vertex[] vertices, int slotLimit) {
+        if (searchable ? !unsearched.remove(propertyName) : !unsearched.add(propertyName)) return;
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (vertices[slot] != null) update(slot, vertices[slot]);
+        }
+    }
+
+    /**
+     * Find the vertices whose name or a text property value contains the query, ignoring case
+     *
+     * @param query the text to look for
+     * @return the slots of the matching vertices, in no particular order
+     */
+    IntBuffer containing(String query) {
+        String needle = query.toLowerCase(Locale.ROOT);
+        IntBuffer matches = new IntBuffer();
+        forEachCandidate(needle, slot -> {
+            for (String text : textsBySlot[slot]) {
+                if (text.contains(needle)) {
+                    matches.add(slot);
+                    return;
+                }
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * Find the vertices with a word in their name or a text property value that starts with the query, ignoring
+     * case. A word starts at the beginning of the text or after any character that is not a letter or digit.
+     *
+     * @param query the start of a word
+     * @return the slots of the matching vertices, in no particular order
+     */
+    IntBuffer withWordStarting(String query) {
+        String needle = query.toLowerCase(Locale.ROOT);
+        IntBuffer matches = new IntBuffer();
+        forEachCandidate(needle, slot -> {
+            for (String text : textsBySlot[slot]) {
+                if (startsWord(text, needle)) {
+                    matches.add(slot);
+                    return;
+                }
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * Return a test of whether a vertex has text containing the query, ignoring case, as containing would find it
+     * were the vertex indexed. The test searches the properties searched now, and can run on any thread.
+     *
+     * @param query the text to look for
+     * @return the test
+     */
+    Predicate<Vertex> containingTest(String query) {
+        String needle = query.toLowerCase(Locale.ROOT);
+        Set<String> skipped = new HashSet<>(unsearched);
+        return vertex -> {
+            for (String text : texts(vertex, skipped)) {
+                if (text.contains(needle)) return true;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Return the lower-cased name and searchable property values of a vertex, copying its properties once
+     */
+    private static String[] texts(Vertex vertex, Set<String> skipped) {
+        Map<String, String> properties = vertex.getProperties();
+        List<String> texts = new ArrayList<>(properties.size() + 1);
+        if (vertex.getName() != null) texts.add(vertex.getName().toLowerCase(Locale.ROOT));
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            if (property.getValue() != null && !skipped.contains(property.getKey())) {
+                texts.add(property.getValue().toLowerCase(Locale.ROOT));
+            }
+        }
+        return texts.toArray(new String[0]);
+    }
+
+    void clear() {
+        textsBySlot = new String[16][];
+        table = emptyTable(64);
+        trigramOfPosting = new long[32];
+        postings = new int[32][];
+        postingSizes = new int[32];
+        postingCount = 0;
+    }
+
+    /**
+     * Visit the slots that can contain the needle: those posted against its rarest trigram, or every indexed slot for
+     * a needle too short to have one
+     */
+    private void forEachCandidate(String needle, IntConsumer action) {
+        if (needle.length() < 3) {
+            for (int slot = 0; slot < textsBySlot.length; slot++) {
+                if (textsBySlot[slot] != null) action.accept(slot);
+            }
+            return;
+        }
+        int rarest = EMPTY;
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            int posting = table[find(trigram(needle, i))];
+            if (posting == EMPTY || postingSizes[posting] == 0) return;
+            if (rarest == EMPTY || postingSizes[posting] < postingSizes[rarest]) rarest = posting;
+        }
+        int[] slots = postings[rarest];
+        for (int i = 0; i < postingSizes[rarest]; i++) {
+            action.accept(slots[i]);
+        }
+    }
+
+    /**
+     * Add a slot to the postings of a trigram, keeping them sorted and free of repeats
+     */
+    private void post(long trigram, int slot) {
+        int position = find(trigram);
+        int posting = table[position];
+        if (posting == EMPTY) {
+            posting = newPosting(trigram);
+            table[position] = posting;
+            if (postingCount * 2 > table.length) rehash(table.length * 2);
+        }
+        int[] slots = postings[posting];
+        int size = postingSizes[posting];
+        int at = Arrays.binarySearch(slots, 0, size, slot);
+        if (at >= 0) return;
+        at = -at - 1;
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+            postings[posting] = slots;
+        }
+        System.arraycopy(slots, at, slots, at + 1, size - at);
+        slots[at] = slot;
+        postingSizes[posting] = size + 1;
+    }
+
+    /**
+     * Remove a slot from the postings of a trigram, if present
+     */
+    private void unpost(long trigram, int slot) {
+        int posting = table[find(trigram)];
+        if (posting == EMPTY) return;
+        int[] slots = postings[posting];
+        int size = postingSizes[posting];
+        int at = Arrays.binarySearch(slots, 0, size, slot);
+        if (at < 0) return;
+        System.arraycopy(slots, at + 1, slots, at, size - at - 1);
+        postingSizes[posting] = size - 1;
+        if (size - 1 < slots.length / 4 && slots.length > 4) postings[posting] = Arrays.copyOf(slots, slots.length / 2);
+    }
+
+    private int newPosting(long trigram) {
+        if (postingCount == postings.length) {
+            int capacity = postingCount * 2;
+            trigramOfPosting = Arrays.copyOf(trigramOfPosting, capacity);
+            postings = Arrays.copyOf(postings, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+        }
+        trigramOfPosting[postingCount] = trigram;
+        postings[postingCount] = new int[2];
+        return postingCount++;
+    }
+
+    /**
+     * Return the table position holding the trigram, or the empty position where it would go
+     */
+    private int find(long trigram) {
+        int mask = table.length - 1;
+        int position = hash(trigram) & mask;
+        while (table[position] != EMPTY && trigramOfPosting[table[position]] != trigram) {
+            position = (position + 1) & mask;
+        }
+        return position;
+    }
+
+    private void rehash(int capacity) {
+        table = emptyTable(capacity);
+        for (int posting = 0; posting < postingCount; posting++) {
+            table[find(trigramOfPosting[posting])] = posting;
+        }
+    }
+
+    private static int hash(long trigram) {
+        long mixed = trigram * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static int[] emptyTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static boolean startsWord(String text, String needle) {
+        for (int from = text.indexOf(needle); from >= 0; from = text.indexOf(needle, from + 1)) {
+            if (from == 0 || !Character.isLetterOrDigit(text.charAt(from - 1))) return true;
+        }
+        return false;
+    }
+
+    private static long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+}
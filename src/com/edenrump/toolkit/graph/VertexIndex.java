@@ -0,0 +1,232 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.VertexId;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class representing the mapping between vertex ids and the dense integer slots used internally by the graph.
+ * <p>
+ * Slots are handed out from zero upwards. Released slots are recycled before new ones are created, so the slot range
+ * stays close to the number of vertices in the graph and primitive arrays indexed by slot stay small.
+ * <p>
+ * Compact ids (see VertexId) are held as their two longs per slot and found through an open-addressing table of
+ * slots with linear probing, so looking one up allocates nothing and never hashes a string: an id given as text is
+ * decoded straight into its bits. The rare ids that are not UUIDs are kept in an ordinary map.
+ */
+final class VertexIndex {
+
+    private static final int EMPTY = -1;
+
+    private long[] highBySlot = new long[16];
+    private long[] lowBySlot = new long[16];
+    private String[] textBySlot = new String[16];
+    private boolean[] inUse = new boolean[16];
+    private int[] table = emptyTable(32);
+    private int compactCount = 0;
+    private final Map<String, Integer> slotsByText = new HashMap<>();
+
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    private int slotLimit = 0;
+
+    /**
+     * Return the slot for the given id, allocating a new one if the id has not been seen before
+     *
+     * @param id the vertex id
+     * @return the slot assigned to the id
+     */
+    int intern(String id) {
+        if (VertexId.isCompact(id)) return intern(VertexId.highBits(id), VertexId.lowBits(id));
+        Integer existing = slotsByText.get(id);
+        if (existing != null) return existing;
+        int slot = allocate();
+        textBySlot[slot] = id;
+        slotsByText.put(id, slot);
+        return slot;
+    }
+
+    /**
+     * Return the slot for the given id, allocating a new one if the id has not been seen before
+     *
+     * @param id the vertex id
+     * @return the slot assigned to the id
+     */
+    int intern(VertexId id) {
+        return id.isCompact() ? intern(id.getHighBits(), id.getLowBits()) : intern(id.toString());
+    }
+
+    private int intern(long high, long low) {
+        int position = find(high, low);
+        if (table[position] != EMPTY) return table[position];
+        int slot = allocate();
+        highBySlot[slot] = high;
+        lowBySlot[slot] = low;
+        table[position] = slot;
+        if (++compactCount * 2 > table.length) rehash(table.length * 2);
+        return slot;
+    }
+
+    /**
+     * Return the slot for the given id
+     *
+     * @param id the vertex id
+     * @return the slot, or -1 if the id is unknown
+     */
+    int slotOf(String id) {
+        if (VertexId.isCompact(id)) return table[find(VertexId.highBits(id), VertexId.lowBits(id))];
+        Integer slot = slotsByText.get(id);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Return the slot for the given id
+     *
+     * @param id the vertex id
+     * @return the slot, or -1 if the id is unknown
+     */
+    int slotOf(VertexId id) {
+        return id.isCompact() ? table[find(id.getHighBits(), id.getLowBits())] : slotOf(id.toString());
+    }
+
+    /**
+     * Return the id held in a slot
+     *
+     * @param slot the slot
+     * @return the id, or null if the slot is not in use
+     */
+    String idOf(int slot) {
+        if (slot >= slotLimit || !inUse[slot]) return null;
+        return textBySlot[slot] != null ? textBySlot[slot] : VertexId.format(highBySlot[slot], lowBySlot[slot]);
+    }
+
+    /**
+     * Release the slot held by an id so that it can be reused
+     *
+     * @param id the vertex id
+     */
+    void release(String id) {
+        int slot;
+        if (VertexId.isCompact(id)) {
+            int position = find(VertexId.highBits(id), VertexId.lowBits(id));
+            slot = table[position];
+            if (slot == EMPTY) return;
+            removeAt(position);
+            compactCount--;
+        } else {
+            Integer held = slotsByText.remove(id);
+            if (held == null) return;
+            slot = held;
+            textBySlot[slot] = null;
+        }
+        inUse[slot] = false;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Return one more than the highest slot ever allocated. All slots in use are below this limit.
+     *
+     * @return the slot limit
+     */
+    int slotLimit() {
+        return slotLimit;
+    }
+
+    /**
+     * Forget all ids and slots
+     */
+    void clear() {
+        highBySlot = new long[16];
+        lowBySlot = new long[16];
+        textBySlot = new String[16];
+        inUse = new boolean[16];
+        table = emptyTable(32);
+        compactCount = 0;
+        slotsByText.clear();
+        freeCount = 0;
+        slotLimit = 0;
+    }
+
+    private int allocate() {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotLimit++;
+            if (slot == inUse.length) {
+                int capacity = slot * 2;
+                highBySlot = Arrays.copyOf(highBySlot, capacity);
+                lowBySlot = Arrays.copyOf(lowBySlot, capacity);
+                textBySlot = Arrays.copyOf(textBySlot, capacity);
+                inUse = Arrays.copyOf(inUse, capacity);
+            }
+        }
+        inUse[slot] = true;
+        return slot;
+    }
+
+    /**
+     * Return the table position holding the id, or the empty position where it would go
+     */
+    private int find(long high, long low) {
+        int mask = table.length - 1;
+        int position = hash(high, low) & mask;
+        while (true) {
+            int slot = table[position];
+            if (slot == EMPTY || (highBySlot[slot] == high && lowBySlot[slot] == low && textBySlot[slot] == null)) {
+                return position;
+            }
+            position = (position + 1) & mask;
+        }
+    }
+
+    /**
+     * Empty a table position, shifting back any later entries of the same probe run so that none becomes unreachable
+     */
+    private void removeAt(int position) {
+        int mask = table.length - 1;
+        int gap = position;
+        int next = (gap + 1) & mask;
+        while (table[next] != EMPTY) {
+            int slot = table[next];
+            int home = hash(highBySlot[slot], lowBySlot[slot]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = slot;
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[gap] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = table;
+        table = emptyTable(capacity);
+        for (int slot : old) {
+            if (slot != EMPTY) table[find(highBySlot[slot], lowBySlot[slot])] = slot;
+        }
+    }
+
+    private static int hash(long high, long low) {
+        long mixed = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static int[] emptyTable(int capacity) {
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
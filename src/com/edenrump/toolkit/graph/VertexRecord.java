@@ -0,0 +1,107 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.*;
+
+/**
+ * Class representing an immutable copy of a vertex, as held in a GraphSnapshot.
+ */
+public final class VertexRecord {
+
+    private final String id;
+    private final String name;
+    private final int depth;
+    private final int priority;
+    private final List<String> connectedVertices;
+    private final Map<String, String> properties;
+
+    private VertexRecord(Vertex vertex) {
+        this.id = vertex.getId();
+        this.name = vertex.getName();
+        this.depth = vertex.getDepth();
+        this.priority = vertex.getPriority();
+        this.connectedVertices = Collections.unmodifiableList(new ArrayList<>(vertex.getConnectedVertices()));
+        this.properties = Collections.unmodifiableMap(new HashMap<>(vertex.getProperties()));
+    }
+
+    /**
+     * Copy the current state of a vertex
+     *
+     * @param vertex the vertex to copy
+     * @return the record
+     */
+    static VertexRecord of(Vertex vertex) {
+        return new VertexRecord(vertex);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Return the ids of the vertices this vertex is connected to
+     *
+     * @return an unmodifiable list of ids
+     */
+    public List<String> getConnectedVertices() {
+        return connectedVertices;
+    }
+
+    public String getProperty(String propertyName) {
+        return properties.get(propertyName);
+    }
+
+    /**
+     * Return whether the vertex had a non-empty property of the specified name
+     *
+     * @param propertyName the property name
+     * @return whether the property is present and not empty
+     */
+    public boolean hasProperty(String propertyName) {
+        return properties.getOrDefault(propertyName, "").length() > 0;
+    }
+
+    /**
+     * Return the properties of the vertex
+     *
+     * @return an unmodifiable map of property names to values
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Create a new, detached vertex holding the state of this record
+     *
+     * @return the vertex
+     */
+    public Vertex toVertex() {
+        Vertex vertex = new Vertex(name, id, connectedVertices, depth, priority);
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            vertex.addProperty(property.getKey(), property.getValue());
+        }
+        return vertex;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Interface for a store of vertices that a graph can read from on demand, rather than holding them all.
+ * <p>
+ * A graph with a source holds the vertices at depth zero and faults in the vertices downstream of a root when the
+ * root is expanded (see Graph.expand). Every call reads fresh vertices that belong to no graph, so the graph can take
+ * them as they are. A source that cannot read its store throws an UncheckedIOException.
+ */
+public interface VertexSource {
+
+    /**
+     * Return whether the source holds a vertex with the given id
+     *
+     * @param vertexId the id
+     * @return whether the source holds the vertex
+     */
+    boolean contains(String vertexId);
+
+    /**
+     * Read the vertices downstream of a root, not including the root itself
+     *
+     * @param rootId the id of a vertex at depth zero
+     * @return the downstream vertices, or an empty list if the source holds no such root
+     */
+    List<Vertex> readSubtree(String rootId);
+
+    /**
+     * Find the roots with a vertex that passes a test at or downstream of them, e.g. to show where the matches of a
+     * search lie before their subtrees are read. This reads every vertex the source holds.
+     *
+     * @param test the test
+     * @return the ids of the roots
+     */
+    Set<String> findRoots(Predicate<Vertex> test);
+
+    /**
+     * Read every vertex the source holds
+     *
+     * @param action the action to run on each vertex
+     */
+    void forEachVertex(Consumer<Vertex> action);
+}
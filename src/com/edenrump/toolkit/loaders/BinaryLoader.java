@@ -0,0 +1,627 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.graph.GraphSnapshot;
+import com.edenrump.toolkit.graph.VertexRecord;
+import com.edenrump.toolkit.models.ThreadsData;
+import com.edenrump.toolkit.models.Vertex;
+import com.edenrump.toolkit.models.VertexId;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Class for reading and writing binary threads files, which open far faster than json.
+ * <p>
+ * A file is the bytes "THRB", a format version byte and a series of sections. Each section is a type byte, the length
+ * of its payload in four bytes, the payload and a CRC-32 checksum of the payload, so every byte is checked before it
+ * is used. The sections are, in order:
+ * <ul>
+ * <li>INFO: the name and id of the data set and the numbers of strings, vertices and ids</li>
+ * <li>STRINGS: every distinct name, property key, property value and non-UUID id, each written once</li>
+ * <li>IDS: the id of each vertex in file order, then the ids of missing vertices that are connected to. UUIDs are
+ * written as their 16 bytes.</li>
+ * <li>VERTICES, repeated: blocks of up to 4096 vertices, each its name, depth, priority, connections and
+ * properties</li>
+ * <li>INDEX and SUBTREES: where each vertex, string and id is in the file, which vertices lie directly downstream of
+ * each vertex and which vertices are at depth zero (see DocumentIndex). They let an IndexedDocument read vertices one
+ * subtree at a time, and are left out of files over 2 GB.</li>
+ * <li>END</li>
+ * </ul>
+ * Numbers are varints (see SectionWriter). Strings are referred to by their index in the string table plus one, zero
+ * meaning null, and connections by the index of the connected id. The file is read a block of vertices at a time, with
+ * progress and cancellation between blocks. Sections of unknown type after the ids are skipped, so that later
+ * versions can add sections without breaking earlier readers.
+ */
+public class BinaryLoader {
+
+    /**
+     * The extension of binary threads files
+     */
+    public static final String EXTENSION = ".threadsb";
+
+    /**
+     * The version of the file format written by this class
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    static final byte[] MAGIC = {'T', 'H', 'R', 'B'};
+
+    static final int END = 0;
+    static final int INFO = 1;
+    static final int STRINGS = 2;
+    static final int IDS = 3;
+    static final int VERTICES = 4;
+    static final int INDEX = 5;
+    static final int SUBTREES = 6;
+
+    static final int COMPACT_ID = 0;
+    static final int TEXT_ID = 1;
+
+    static final int BLOCK_SIZE = 4096;
+
+    /**
+     * The number of bytes before the payload of a section: its type and length
+     */
+    static final int SECTION_HEADER = 5;
+
+    /**
+     * Return whether a file is named as a binary threads file
+     *
+     * @param file the file
+     * @return whether the file has the binary extension
+     */
+    public static boolean isBinary(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith(EXTENSION);
+    }
+
+    /**
+     * Load a single ThreadsData from a binary file
+     *
+     * @param file the file
+     * @return the data loaded from the file
+     */
+    public static ThreadsData loadOneFromBinary(File file) {
+        try {
+            List<Vertex> vertices = new ArrayList<>();
+            ThreadsData header = streamFromBinary(file, vertices::add, LoadMonitor.NONE);
+            return new ThreadsData(header.getName(), header.getId(), vertices);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ThreadsData("NULL_NAME", "NULL_ID", new ArrayList<>());
+        }
+    }
+
+    /**
+     * Load the vertices of a binary file straight into a graph, without collecting them first
+     *
+     * @param file    the file
+     * @param graph   the graph to add the vertices to
+     * @param monitor receives progress and may cancel the load
+     * @return the name and id of the data set, with an empty vertex list
+     * @throws IOException           if the file cannot be read or is not a binary threads file
+     * @throws CancellationException if the monitor cancelled the load
+     */
+    public static ThreadsData loadIntoGraph(File file, Graph graph, LoadMonitor monitor) throws IOException {
+        return streamFromBinary(file, graph::addVertex, monitor);
+    }
+
+    /**
+     * Read a binary file a block of vertices at a time, handing each vertex to the sink in file order
+     *
+     * @param file    the file
+     * @param sink    receives each vertex in file order
+     * @param monitor receives progress and is asked between blocks whether to stop
+     * @return the name and id of the data set, with an empty vertex list
+     * @throws IOException           if the file cannot be read, is not a binary threads file or is corrupt
+     * @throws CancellationException if the monitor cancelled the load
+     */
+    public static ThreadsData streamFromBinary(File file, Consumer<Vertex> sink, LoadMonitor monitor)
+            throws IOException {
+        long totalBytes = file.length();
+        try (CountingInputStream counting = new CountingInputStream(new FileInputStream(file));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(counting, 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a binary threads file");
+            int version = in.readUnsignedByte();
+            if (version > FORMAT_VERSION) {
+                throw new IOException("The file is in binary format version " + version +
+                        ", which is newer than this version of Threads can read");
+            }
+
+            SectionInput sections = new SectionInput(in, totalBytes);
+            SectionReader info = sections.next(INFO);
+            int nameRef = info.readVarint();
+            int idRef = info.readVarint();
+            int stringCount = info.readVarint();
+            int vertexCount = info.readVarint();
+            int idCount = info.readVarint();
+            if (idCount < vertexCount) throw new IOException("The file declares fewer ids than vertices");
+
+            String[] strings = new String[stringCount];
+            SectionReader stringSection = sections.next(STRINGS);
+            for (int i = 0; i < stringCount; i++) strings[i] = stringSection.readString();
+
+            VertexId[] vertexIds = new VertexId[vertexCount];
+            String[] idText = new String[idCount];
+            SectionReader idSection = sections.next(IDS);
+            for (int i = 0; i < idCount; i++) {
+                int kind = idSection.readByte();
+                if (kind == COMPACT_ID) {
+                    long high = idSection.readLong();
+                    long low = idSection.readLong();
+                    idText[i] = VertexId.format(high, low);
+                    if (i < vertexCount) vertexIds[i] = VertexId.of(high, low);
+                } else if (kind == TEXT_ID) {
+                    idText[i] = string(strings, idSection.readVarint());
+                    if (idText[i] == null) throw new IOException("Vertex id " + i + " is null");
+                    if (i < vertexCount) vertexIds[i] = VertexId.of(idText[i]);
+                } else {
+                    throw new IOException("Unknown kind of id: " + kind);
+                }
+            }
+
+            References references = new References() {
+                @Override
+                public String string(int ref) throws IOException {
+                    return BinaryLoader.string(strings, ref);
+                }
+
+                @Override
+                public String id(int index) throws IOException {
+                    if (index < 0 || index >= idText.length) throw new IOException("Connection to unknown id " + index);
+                    return idText[index];
+                }
+            };
+            int read = 0;
+            for (SectionReader section = sections.next(); sections.type != END; section = sections.next()) {
+                if (sections.type != VERTICES) continue;
+                if (monitor.isCancelled()) throw new CancellationException("Load cancelled");
+                int count = section.readVarint();
+                if (count > vertexCount - read) throw new IOException("The file holds more vertices than it declares");
+                for (int i = 0; i < count; i++) {
+                    sink.accept(readVertex(section, vertexIds[read++], references));
+                }
+                monitor.progress(counting.getCount(), totalBytes);
+            }
+            if (read != vertexCount) {
+                throw new IOException("The file holds " + read + " of its " + vertexCount + " vertices");
+            }
+            monitor.progress(totalBytes, totalBytes);
+            return new ThreadsData(string(strings, nameRef), string(strings, idRef), new ArrayList<>());
+        } catch (EOFException e) {
+            throw new IOException("The file ends early", e);
+        }
+    }
+
+    /**
+     * Interface for looking up the strings and ids that a vertex record refers to
+     */
+    interface References {
+        String string(int ref) throws IOException;
+
+        String id(int index) throws IOException;
+    }
+
+    /**
+     * Read one vertex record
+     *
+     * @param section    the section, positioned at the start of the record
+     * @param id         the id of the vertex, which is not part of the record
+     * @param references the strings and ids of the file
+     * @return the vertex
+     * @throws IOException if the record is malformed
+     */
+    static Vertex readVertex(SectionReader section, VertexId id, References references) throws IOException {
+        String name = references.string(section.readVarint());
+        int depth = section.readSignedVarint();
+        int priority = section.readSignedVarint();
+        int connectionCount = section.readVarint();
+        List<String> connected = new ArrayList<>(Math.min(connectionCount, 1024));
+        for (int i = 0; i < connectionCount; i++) {
+            connected.add(references.id(section.readVarint()));
+        }
+        Vertex vertex = new Vertex(name, id, connected, depth, priority);
+        int propertyCount = section.readVarint();
+        for (int i = 0; i < propertyCount; i++) {
+            String key = references.string(section.readVarint());
+            String value = references.string(section.readVarint());
+            if (key == null || value == null) throw new IOException("Property of vertex " + id + " is null");
+            vertex.overwriteProperty(key, value);
+        }
+        return vertex;
+    }
+
+    private static String string(String[] strings, int ref) throws IOException {
+        if (ref == 0) return null;
+        if (ref < 0 || ref > strings.length) throw new IOException("Reference to unknown string " + ref);
+        return strings[ref - 1];
+    }
+
+    /**
+     * Save a single ThreadsData instance to a binary file, with the vertices in list order
+     *
+     * @param data the data to be saved
+     * @param file the file to save to
+     * @return true if saved, false on error
+     */
+    public static boolean saveToBinary(ThreadsData data, File file) {
+        return saveReplacing(file, out -> writeBinary(data, out));
+    }
+
+    /**
+     * Save a snapshot of a graph to a binary file, ordered by depth and then priority so that saving the same graph
+     * twice gives the same file. This can run on any thread.
+     *
+     * @param name     the name of the data set
+     * @param id       the id of the data set
+     * @param snapshot the vertices to save
+     * @param file     the file to save to
+     * @return true if saved, false on error
+     */
+    public static boolean saveToBinary(String name, String id, GraphSnapshot snapshot, File file) {
+        return saveReplacing(file, out -> writeBinary(name, id, snapshot, out));
+    }
+
+    /**
+     * Write a file beside the target and then move it over the target. An IndexedDocument may be reading the target
+     * through a mapping, which would see its bytes change under it if the file were overwritten in place; replaced
+     * instead, the old file stays as it was for as long as it is mapped.
+     *
+     * @return true if saved, false on error
+     */
+    private static boolean saveReplacing(File file, Output output) {
+        File written = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".saving");
+        try {
+            try (OutputStream out = new FileOutputStream(written)) {
+                output.writeTo(out);
+            }
+            Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            written.delete();
+            return false;
+        }
+    }
+
+    private interface Output {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Write a data set in the binary format, with the vertices in list order
+     *
+     * @param data the data to write
+     * @param out  where to write it. It is flushed but not closed.
+     * @throws IOException if the data cannot be written
+     */
+    public static void writeBinary(ThreadsData data, OutputStream out) throws IOException {
+        write(data.getName(), data.getId(), data.getVertices(), VERTEX_FIELDS, out);
+    }
+
+    /**
+     * Write a snapshot of a graph in the binary format, ordered by depth and then priority
+     *
+     * @param name     the name of the data set
+     * @param id       the id of the data set
+     * @param snapshot the vertices to write
+     * @param out      where to write them. It is flushed but not closed.
+     * @throws IOException if the data cannot be written
+     */
+    public static void writeBinary(String name, String id, GraphSnapshot snapshot, OutputStream out)
+            throws IOException {
+        List<VertexRecord> records = snapshot.getVertices();
+        records.sort(Comparator.comparingInt(VertexRecord::getDepth)
+                .thenComparingInt(VertexRecord::getPriority)
+                .thenComparing(VertexRecord::getId));
+        write(name, id, records, RECORD_FIELDS, out);
+    }
+
+    private static <T> void write(String name, String id, List<T> vertices, VertexFields<T> fields,
+                                  OutputStream stream) throws IOException {
+        // First pass: number the ids, including those of missing vertices that are connected to, and intern strings
+        Map<String, Integer> idIndex = new HashMap<>(vertices.size() * 2);
+        List<String> ids = new ArrayList<>(vertices.size());
+        for (T vertex : vertices) {
+            idIndex.putIfAbsent(fields.id(vertex), ids.size());
+            ids.add(fields.id(vertex));
+        }
+        int vertexCount = ids.size();
+        StringTable strings = new StringTable();
+        int nameRef = strings.ref(name);
+        int idRef = strings.ref(id);
+        for (T vertex : vertices) {
+            strings.ref(fields.name(vertex));
+            for (String connectedId : fields.connected(vertex)) {
+                if (idIndex.putIfAbsent(connectedId, ids.size()) == null) ids.add(connectedId);
+            }
+            for (Map.Entry<String, String> property : fields.properties(vertex).entrySet()) {
+                if (isEmpty(property.getValue())) continue;
+                strings.ref(property.getKey());
+                strings.ref(property.getValue());
+            }
+        }
+        for (String vertexId : ids) {
+            if (!VertexId.isCompact(vertexId)) strings.ref(vertexId);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.write(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        long position = MAGIC.length + 1;
+        SectionWriter section = new SectionWriter();
+
+        section.writeVarint(nameRef);
+        section.writeVarint(idRef);
+        section.writeVarint(strings.size());
+        section.writeVarint(vertexCount);
+        section.writeVarint(ids.size());
+        position += writeSection(out, INFO, section);
+
+        int[] stringPositions = new int[strings.size()];
+        for (int i = 0; i < stringPositions.length; i++) {
+            stringPositions[i] = section.size();
+            section.writeString(strings.values.get(i));
+        }
+        long stringsStart = position + SECTION_HEADER;
+        position += writeSection(out, STRINGS, section);
+
+        int[] idPositions = new int[ids.size()];
+        for (int i = 0; i < idPositions.length; i++) {
+            String vertexId = ids.get(i);
+            idPositions[i] = section.size();
+            if (VertexId.isCompact(vertexId)) {
+                section.writeByte(COMPACT_ID);
+                section.writeLong(VertexId.highBits(vertexId));
+                section.writeLong(VertexId.lowBits(vertexId));
+            } else {
+                section.writeByte(TEXT_ID);
+                section.writeVarint(strings.ref(vertexId));
+            }
+        }
+        long idsStart = position + SECTION_HEADER;
+        position += writeSection(out, IDS, section);
+
+        int[] vertexPositions = new int[vertexCount];
+        int[] depths = new int[vertexCount];
+        int[] connectionStarts = new int[vertexCount + 1];
+        int[] connectionTargets = new int[Math.max(16, vertexCount)];
+        long[] blockStarts = new long[(vertexCount + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int start = 0; start < vertexCount; start += BLOCK_SIZE) {
+            int end = Math.min(vertexCount, start + BLOCK_SIZE);
+            section.writeVarint(end - start);
+            int i = start;
+            for (T vertex : vertices.subList(start, end)) {
+                vertexPositions[i] = section.size();
+                depths[i] = fields.depth(vertex);
+                section.writeVarint(strings.ref(fields.name(vertex)));
+                section.writeSignedVarint(fields.depth(vertex));
+                section.writeSignedVarint(fields.priority(vertex));
+                List<String> connected = fields.connected(vertex);
+                section.writeVarint(connected.size());
+                int target = connectionStarts[i];
+                if (target + connected.size() > connectionTargets.length) {
+                    connectionTargets = Arrays.copyOf(connectionTargets,
+                            Math.max(target + connected.size(), connectionTargets.length * 2));
+                }
+                for (String connectedId : connected) {
+                    int connectedIndex = idIndex.get(connectedId);
+                    section.writeVarint(connectedIndex);
+                    connectionTargets[target++] = connectedIndex;
+                }
+                connectionStarts[++i] = target;
+                Map<String, String> properties = fields.properties(vertex);
+                int propertyCount = 0;
+                for (String value : properties.values()) {
+                    if (!isEmpty(value)) propertyCount++;
+                }
+                section.writeVarint(propertyCount);
+                for (Map.Entry<String, String> property : properties.entrySet()) {
+                    if (isEmpty(property.getValue())) continue;
+                    section.writeVarint(strings.ref(property.getKey()));
+                    section.writeVarint(strings.ref(property.getValue()));
+                }
+            }
+            blockStarts[start / BLOCK_SIZE] = position;
+            position += writeSection(out, VERTICES, section);
+        }
+
+        // the index holds four-byte offsets and is read through a single mapping, so very large files go without
+        if (position <= Integer.MAX_VALUE) {
+            section.writeInt(blockStarts.length);
+            for (long blockStart : blockStarts) section.writeInt((int) blockStart);
+            for (int i = 0; i < vertexCount; i++) {
+                section.writeInt((int) (blockStarts[i / BLOCK_SIZE] + SECTION_HEADER + vertexPositions[i]));
+            }
+            for (int stringPosition : stringPositions) section.writeInt((int) (stringsStart + stringPosition));
+            for (int idPosition : idPositions) section.writeInt((int) (idsStart + idPosition));
+            DocumentIndex.writeIdHashes(section, ids);
+            writeSection(out, INDEX, section);
+
+            DocumentIndex.writeSubtrees(section, depths, connectionStarts, connectionTargets);
+            writeSection(out, SUBTREES, section);
+        }
+
+        writeSection(out, END, section);
+        out.flush();
+    }
+
+    /**
+     * Write a section and empty the section writer
+     *
+     * @return the number of bytes written
+     */
+    private static int writeSection(DataOutputStream out, int type, SectionWriter section) throws IOException {
+        int payloadSize = section.size();
+        out.writeByte(type);
+        out.writeInt(payloadSize);
+        section.writeTo(out);
+        out.writeInt(section.checksum());
+        section.reset();
+        return SECTION_HEADER + payloadSize + 4;
+    }
+
+    /**
+     * Return whether a property value is empty, which means the same as no property (see Vertex.hasProperty), so that
+     * it need not be written
+     */
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Class representing the strings of a file being written, each numbered in the order it was first seen
+     */
+    private static final class StringTable {
+
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        /**
+         * Return the reference to a string, adding it to the table if it is new
+         *
+         * @param value the string
+         * @return its index in the table plus one, or zero for null
+         */
+        int ref(String value) {
+            if (value == null) return 0;
+            Integer ref = refs.get(value);
+            if (ref == null) {
+                values.add(value);
+                ref = values.size();
+                refs.put(value, ref);
+            }
+            return ref;
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+
+    /**
+     * Class representing the sections of a file being read. The payload of each section is read into a buffer that is
+     * reused by the next section, and its checksum is checked.
+     */
+    private static final class SectionInput {
+
+        private final DataInputStream in;
+        private final long totalBytes;
+        private byte[] buffer = new byte[1 << 16];
+        private int type;
+
+        SectionInput(DataInputStream in, long totalBytes) {
+            this.in = in;
+            this.totalBytes = totalBytes;
+        }
+
+        SectionReader next() throws IOException {
+            type = in.readUnsignedByte();
+            int length = in.readInt();
+            if (length < 0) throw new IOException("Section " + type + " has a negative length");
+            if (length > totalBytes) throw new EOFException();
+            if (length > buffer.length) buffer = new byte[length];
+            in.readFully(buffer, 0, length);
+            int checksum = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(buffer, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Section " + type + " is corrupt: its checksum does not match");
+            }
+            return new SectionReader(buffer, length);
+        }
+
+        SectionReader next(int expectedType) throws IOException {
+            SectionReader section = next();
+            if (type != expectedType) {
+                throw new IOException("Expected section " + expectedType + " but found section " + type);
+            }
+            return section;
+        }
+    }
+
+    /**
+     * Interface for reading the fields of either kind of vertex that can be written
+     */
+    private interface VertexFields<T> {
+        String id(T vertex);
+
+        String name(T vertex);
+
+        int depth(T vertex);
+
+        int priority(T vertex);
+
+        List<String> connected(T vertex);
+
+        Map<String, String> properties(T vertex);
+    }
+
+    private static final VertexFields<Vertex> VERTEX_FIELDS = new VertexFields<Vertex>() {
+        public String id(Vertex vertex) {
+            return vertex.getId();
+        }
+
+        public String name(Vertex vertex) {
+            return vertex.getName();
+        }
+
+        public int depth(Vertex vertex) {
+            return vertex.getDepth();
+        }
+
+        public int priority(Vertex vertex) {
+            return vertex.getPriority();
+        }
+
+        public List<String> connected(Vertex vertex) {
+            return vertex.getConnectedVertices();
+        }
+
+        public Map<String, String> properties(Vertex vertex) {
+            return vertex.getProperties();
+        }
+    };
+
+    private static final VertexFields<VertexRecord> RECORD_FIELDS = new VertexFields<VertexRecord>() {
+        public String id(VertexRecord record) {
+            return record.getId();
+        }
+
+        public String name(VertexRecord record) {
+            return record.getName();
+        }
+
+        public int depth(VertexRecord record) {
+            return record.getDepth();
+        }
+
+        public int priority(VertexRecord record) {
+            return record.getPriority();
+        }
+
+        public List<String> connected(VertexRecord record) {
+            return record.getConnectedVertices();
+        }
+
+        public Map<String, String> properties(VertexRecord record) {
+            return record.getProperties();
+        }
+    };
+}
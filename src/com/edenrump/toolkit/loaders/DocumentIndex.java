@@ -0,0 +1,127 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class for writing the sections of a binary threads file that let an IndexedDocument read single vertices and whole
+ * subtrees without reading the rest of the file.
+ * <p>
+ * INDEX is made of four-byte numbers so that any of them can be read in place:
+ * <ul>
+ * <li>the number of vertex blocks, then the offset in the file of each block section</li>
+ * <li>the offset of each vertex record, in file order</li>
+ * <li>the offset of each string of the string table</li>
+ * <li>the offset of each id</li>
+ * <li>the hash code and index of each id, ordered by hash code, so that an id can be found by binary search</li>
+ * </ul>
+ * SUBTREES lists, for each vertex in file order, the vertices directly downstream of it: the number of them followed
+ * by their indexes in ascending order, each written as its gap from the one before. After the lists come the position
+ * of each list in the section, the index of each vertex at depth zero in ascending order and last of all the number of
+ * those roots, each as four bytes. A subtree is read by following the lists level by level, so the section grows with
+ * the number of connections rather than with the sum of the sizes of the subtrees. Downstream is worked out the way
+ * Graph works it out (see DepthDag), so that a subtree read from the file holds exactly the vertices that
+ * Graph.isDownstream finds once they are loaded.
+ */
+final class DocumentIndex {
+
+    /**
+     * Write the ids ordered by their hash codes
+     *
+     * @param section the INDEX section being written
+     * @param ids     every id of the file, in file order
+     */
+    static void writeIdHashes(SectionWriter section, List<String> ids) {
+        long[] keyed = new long[ids.size()];
+        for (int i = 0; i < keyed.length; i++) {
+            keyed[i] = ((long) ids.get(i).hashCode() << 32) | i;
+        }
+        Arrays.sort(keyed);
+        for (long key : keyed) {
+            section.writeInt((int) (key >>> 32));
+            section.writeInt((int) key);
+        }
+    }
+
+    /**
+     * Write the SUBTREES section
+     *
+     * @param section           the section writer, empty
+     * @param depths            the depth of each vertex
+     * @param connectionStarts  where the connections of each vertex start in connectionTargets, with one more entry
+     *                          for the end of the last vertex's connections
+     * @param connectionTargets the index of the id each connection is to. Indexes past the last vertex are ids of
+     *                          missing vertices.
+     */
+    static void writeSubtrees(SectionWriter section, int[] depths, int[] connectionStarts, int[] connectionTargets) {
+        int vertexCount = depths.length;
+        int connectionCount = connectionStarts[vertexCount];
+        int[] sorted = Arrays.copyOf(connectionTargets, connectionCount);
+        for (int i = 0; i < vertexCount; i++) {
+            Arrays.sort(sorted, connectionStarts[i], connectionStarts[i + 1]);
+        }
+
+        // a connection listed by both vertices runs from the shallower to the deeper, and is left out if they share a
+        // depth; one listed by only one vertex runs from the listed vertex to the one that lists it
+        int[] sources = new int[connectionCount];
+        int[] targets = new int[connectionCount];
+        int edgeCount = 0;
+        for (int from = 0; from < vertexCount; from++) {
+            for (int i = connectionStarts[from]; i < connectionStarts[from + 1]; i++) {
+                int to = sorted[i];
+                if (to >= vertexCount || to == from || (i > connectionStarts[from] && sorted[i - 1] == to)) continue;
+                if (Arrays.binarySearch(sorted, connectionStarts[to], connectionStarts[to + 1], from) >= 0) {
+                    if (depths[from] >= depths[to]) continue;
+                    sources[edgeCount] = from;
+                    targets[edgeCount++] = to;
+                } else {
+                    sources[edgeCount] = to;
+                    targets[edgeCount++] = from;
+                }
+            }
+        }
+        int[] downStarts = new int[vertexCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            downStarts[sources[i] + 1]++;
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            downStarts[i + 1] += downStarts[i];
+        }
+        int[] down = new int[edgeCount];
+        int[] fill = Arrays.copyOf(downStarts, vertexCount);
+        for (int i = 0; i < edgeCount; i++) {
+            down[fill[sources[i]]++] = targets[i];
+        }
+
+        int[] positions = new int[vertexCount];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            Arrays.sort(down, downStarts[vertex], downStarts[vertex + 1]);
+            positions[vertex] = section.size();
+            section.writeVarint(downStarts[vertex + 1] - downStarts[vertex]);
+            int previous = -1;
+            for (int i = downStarts[vertex]; i < downStarts[vertex + 1]; i++) {
+                section.writeVarint(down[i] - previous - 1);
+                previous = down[i];
+            }
+        }
+        for (int position : positions) {
+            section.writeInt(position);
+        }
+        int rootCount = 0;
+        for (int root = 0; root < vertexCount; root++) {
+            if (depths[root] != 0) continue;
+            section.writeInt(root);
+            rootCount++;
+        }
+        section.writeInt(rootCount);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.models.ThreadsData;
+import com.edenrump.toolkit.models.Vertex;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for converting threads files between the json and binary formats. The format of each file is given by its
+ * extension: binary files end in .threadsb and anything else is json.
+ * <p>
+ * Usage: {@code java com.edenrump.toolkit.loaders.FormatConverter <from> <to>}
+ */
+public class FormatConverter {
+
+    /**
+     * Convert a threads file from one format to the other, or rewrite it in the current version of the same format
+     *
+     * @param from the file to read
+     * @param to   the file to write
+     * @throws IOException if the file cannot be read or written
+     */
+    public static void convert(File from, File to) throws IOException {
+        List<Vertex> vertices = new ArrayList<>();
+        ThreadsData header = BinaryLoader.isBinary(from)
+                ? BinaryLoader.streamFromBinary(from, vertices::add, LoadMonitor.NONE)
+                : JSONLoader.streamFromJSON(from, vertices::add, LoadMonitor.NONE);
+        ThreadsData data = new ThreadsData(header.getName(), header.getId(), vertices);
+
+        if (BinaryLoader.isBinary(to)) {
+            try (OutputStream out = new FileOutputStream(to)) {
+                BinaryLoader.writeBinary(data, out);
+            }
+        } else {
+            try (Writer out = JSONLoader.newFileWriter(to)) {
+                JSONLoader.writeJSON(data, out, true);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: FormatConverter <from> <to>");
+            System.exit(2);
+        }
+        try {
+            convert(new File(args[0]), new File(args[1]));
+        } catch (IOException e) {
+            System.err.println("Could not convert " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.graph.VertexSource;
+import com.edenrump.toolkit.models.Vertex;
+import com.edenrump.toolkit.models.VertexId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Class representing a binary threads file that is read a vertex at a time rather than all at once.
+ * <p>
+ * The file is mapped into memory and nothing is read from it up front except its index (see DocumentIndex), so a
+ * document of any size opens at once. Vertices are materialised only when asked for: the roots, a subtree at a time
+ * or all of them in turn. Nothing read is kept, so the memory held for the document follows the vertices its caller
+ * holds. Each block of vertices has its checksum checked the first time a vertex in it is read; the other sections
+ * are checked on opening.
+ * <p>
+ * A document is a VertexSource, so a Graph can fault its vertices in as roots are expanded. Its methods may be called
+ * from any thread, one at a time. Close the document once it is no longer read from: the mapping otherwise lasts until
+ * the document is garbage collected, and on Windows the file cannot be replaced or deleted while it is mapped.
+ */
+public class IndexedDocument implements VertexSource, AutoCloseable {
+
+    private final ByteBuffer file;
+    private final String name;
+    private final String id;
+    private final int vertexCount;
+    private final int idCount;
+    private final int stringCount;
+
+    private final int blockCount;
+    private final int blockTable;
+    private final int vertexTable;
+    private final int stringTable;
+    private final int idTable;
+    private final int hashTable;
+    private final int rootCount;
+    private final int rootTable;
+    private final int childTable;
+
+    private final int stringsStart;
+    private final int idsStart;
+    private final SectionReader strings;
+    private final SectionReader ids;
+    private final ByteBuffer subtreeSection;
+    private final SectionReader subtrees;
+    private final BitSet checkedBlocks = new BitSet();
+    private boolean closed;
+    private int currentBlock = -1;
+    private int currentBlockStart;
+    private SectionReader block;
+
+    private final BinaryLoader.References references = new BinaryLoader.References() {
+        @Override
+        public String string(int ref) throws IOException {
+            return IndexedDocument.this.string(ref);
+        }
+
+        @Override
+        public String id(int index) throws IOException {
+            return idText(index);
+        }
+    };
+
+    /**
+     * Open a binary threads file for reading a vertex at a time
+     *
+     * @param file the file
+     * @return the document, or null if the file has no index and has to be read in full with BinaryLoader
+     * @throws IOException if the file cannot be read, is not a binary threads file or is corrupt
+     */
+    public static IndexedDocument open(File file) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int[] payloads = findSections(mapped);
+        if (payloads[BinaryLoader.INDEX] < 0 || payloads[BinaryLoader.SUBTREES] < 0) return null;
+        return new IndexedDocument(mapped, payloads);
+    }
+
+    /**
+     * Find the payload of each section other than the vertex blocks, checking the header on the way
+     *
+     * @return the position of each payload by section type, or -1 for sections the file does not have
+     */
+    private static int[] findSections(ByteBuffer file) throws IOException {
+        byte[] magic = new byte[BinaryLoader.MAGIC.length];
+        if (file.limit() < magic.length + 1) throw new IOException("The file ends early");
+        file.duplicate().get(magic);
+        if (!Arrays.equals(magic, BinaryLoader.MAGIC)) throw new IOException("Not a binary threads file");
+        int version = file.get(magic.length) & 0xff;
+        if (version > BinaryLoader.FORMAT_VERSION) {
+            throw new IOException("The file is in binary format version " + version +
+                    ", which is newer than this version of Threads can read");
+        }
+
+        int[] payloads = new int[BinaryLoader.SUBTREES + 1];
+        Arrays.fill(payloads, -1);
+        int position = magic.length + 1;
+        while (true) {
+            if (position > file.limit() - BinaryLoader.SECTION_HEADER) throw new IOException("The file ends early");
+            int type = file.get(position) & 0xff;
+            int length = file.getInt(position + 1);
+            int payload = position + BinaryLoader.SECTION_HEADER;
+            if (length < 0 || length > file.limit() - payload - 4) throw new IOException("The file ends early");
+            if (type == BinaryLoader.END) break;
+            if (type < payloads.length && type != BinaryLoader.VERTICES) payloads[type] = payload;
+            position = payload + length + 4;
+        }
+        return payloads;
+    }
+
+    private IndexedDocument(ByteBuffer file, int[] payloads) throws IOException {
+        this.file = file;
+        SectionReader info = new SectionReader(checkedPayload(payloads[BinaryLoader.INFO], BinaryLoader.INFO));
+        int nameRef = info.readVarint();
+        int idRef = info.readVarint();
+        stringCount = info.readVarint();
+        vertexCount = info.readVarint();
+        idCount = info.readVarint();
+        if (idCount < vertexCount) throw new IOException("The file declares fewer ids than vertices");
+
+        stringsStart = payloads[BinaryLoader.STRINGS];
+        strings = new SectionReader(checkedPayload(stringsStart, BinaryLoader.STRINGS));
+        idsStart = payloads[BinaryLoader.IDS];
+        ids = new SectionReader(checkedPayload(idsStart, BinaryLoader.IDS));
+
+        ByteBuffer index = checkedPayload(payloads[BinaryLoader.INDEX], BinaryLoader.INDEX);
+        blockCount = index.getInt(0);
+        blockTable = payloads[BinaryLoader.INDEX] + 4;
+        vertexTable = blockTable + 4 * blockCount;
+        stringTable = vertexTable + 4 * vertexCount;
+        idTable = stringTable + 4 * stringCount;
+        hashTable = idTable + 4 * idCount;
+        long indexLength = 4 + 4L * blockCount + 4L * vertexCount + 4L * stringCount + 12L * idCount;
+        if (blockCount != (vertexCount + BinaryLoader.BLOCK_SIZE - 1) / BinaryLoader.BLOCK_SIZE
+                || index.limit() != indexLength) {
+            throw new IOException("The index does not match the file");
+        }
+
+        subtreeSection = checkedPayload(payloads[BinaryLoader.SUBTREES], BinaryLoader.SUBTREES);
+        subtrees = new SectionReader(subtreeSection);
+        rootCount = subtreeSection.limit() < 4 ? -1 : subtreeSection.getInt(subtreeSection.limit() - 4);
+        rootTable = subtreeSection.limit() - 4 - 4 * rootCount;
+        childTable = rootTable - 4 * vertexCount;
+        if (rootCount < 0 || rootCount > vertexCount || childTable < 0) {
+            throw new IOException("The subtree index does not match the file");
+        }
+
+        name = string(nameRef);
+        id = string(idRef);
+    }
+
+    /**
+     * Return the payload of a section after checking it against its checksum
+     *
+     * @param payload the position of the payload in the file
+     * @param type    the type of the section, for the error message
+     * @return a buffer over exactly the payload
+     */
+    private ByteBuffer checkedPayload(int payload, int type) throws IOException {
+        if (payload < 0) throw new IOException("The file has no section " + type);
+        int length = file.getInt(payload - 4);
+        ByteBuffer bytes = payload(payload, length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.duplicate());
+        if ((int) crc.getValue() != file.getInt(payload + length)) {
+            throw new IOException("Section " + type + " is corrupt: its checksum does not match");
+        }
+        return bytes;
+    }
+
+    private ByteBuffer payload(int payload, int length) {
+        ByteBuffer bytes = file.duplicate();
+        bytes.position(payload);
+        bytes.limit(payload + length);
+        return bytes.slice();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Return the number of vertices in the document
+     *
+     * @return the number of vertices
+     */
+    public int size() {
+        return vertexCount;
+    }
+
+    /**
+     * Read the vertices at depth zero
+     *
+     * @return the roots, in file order
+     * @throws IOException if the file is corrupt or the document is closed
+     */
+    public synchronized List<Vertex> readRoots() throws IOException {
+        checkOpen();
+        List<Vertex> roots = new ArrayList<>(rootCount);
+        for (int i = 0; i < rootCount; i++) {
+            roots.add(readVertex(subtreeSection.getInt(rootTable + 4 * i)));
+        }
+        return roots;
+    }
+
+    @Override
+    public synchronized boolean contains(String vertexId) {
+        try {
+            checkOpen();
+            int index = indexOf(vertexId);
+            return index >= 0 && index < vertexCount;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Vertex> readSubtree(String rootId) {
+        try {
+            checkOpen();
+            int root = indexOf(rootId);
+            if (root < 0 || root >= vertexCount || !isRoot(root)) return new ArrayList<>();
+            BitSet reached = new BitSet(vertexCount);
+            reached.set(root);
+            int[] level = {root};
+            int levelSize = 1;
+            while (levelSize > 0) {
+                int[] next = new int[16];
+                int nextSize = 0;
+                for (int i = 0; i < levelSize; i++) {
+                    seekChildren(level[i]);
+                    for (int count = subtrees.readVarint(), child = -1; count > 0; count--) {
+                        child = nextChild(child);
+                        if (reached.get(child)) continue;
+                        reached.set(child);
+                        if (nextSize == next.length) next = Arrays.copyOf(next, nextSize * 2);
+                        next[nextSize++] = child;
+                    }
+                }
+                level = next;
+                levelSize = nextSize;
+            }
+            reached.clear(root);
+
+            List<Vertex> vertices = new ArrayList<>(reached.cardinality());
+            for (int member = reached.nextSetBit(0); member >= 0; member = reached.nextSetBit(member + 1)) {
+                vertices.add(readVertex(member));
+            }
+            return vertices;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc} The vertices are read a block at a time and the lock on the document is let go between blocks, so
+     * a subtree read meanwhile, e.g. on the application thread, waits for one block at most.
+     */
+    @Override
+    public Set<String> findRoots(Predicate<Vertex> test) {
+        try {
+            BitSet found = new BitSet(vertexCount);
+            List<Vertex> read = new ArrayList<>(BinaryLoader.BLOCK_SIZE);
+            for (int start = 0; start < vertexCount; start += BinaryLoader.BLOCK_SIZE) {
+                readVertices(start, Math.min(vertexCount, start + BinaryLoader.BLOCK_SIZE), read);
+                for (int i = 0; i < read.size(); i++) {
+                    if (test.test(read.get(i))) found.set(start + i);
+                }
+            }
+            return rootsAtOrUpstreamOf(found);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void readVertices(int from, int to, List<Vertex> read) throws IOException {
+        read.clear();
+        for (int i = from; i < to; i++) {
+            read.add(readVertex(i));
+        }
+    }
+
+    /**
+     * Return the ids of the roots at or upstream of any of the given vertices, walking the lists of the vertices
+     * directly downstream of each vertex backwards
+     *
+     * @param found the vertices by index, to which every vertex upstream of them is added
+     */
+    private synchronized Set<String> rootsAtOrUpstreamOf(BitSet found) throws IOException {
+        int[] parentStarts = new int[vertexCount + 1];
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            seekChildren(vertex);
+            for (int count = subtrees.readVarint(), child = -1; count > 0; count--) {
+                child = nextChild(child);
+                parentStarts[child + 1]++;
+            }
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            parentStarts[i + 1] += parentStarts[i];
+        }
+        int[] parents = new int[parentStarts[vertexCount]];
+        int[] fill = Arrays.copyOf(parentStarts, vertexCount);
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            seekChildren(vertex);
+            for (int count = subtrees.readVarint(), child = -1; count > 0; count--) {
+                child = nextChild(child);
+                parents[fill[child]++] = vertex;
+            }
+        }
+
+        int[] queue = new int[Math.max(16, found.cardinality())];
+        int tail = 0;
+        for (int vertex = found.nextSetBit(0); vertex >= 0; vertex = found.nextSetBit(vertex + 1)) {
+            queue[tail++] = vertex;
+        }
+        for (int head = 0; head < tail; head++) {
+            int vertex = queue[head];
+            for (int i = parentStarts[vertex]; i < parentStarts[vertex + 1]; i++) {
+                if (found.get(parents[i])) continue;
+                found.set(parents[i]);
+                if (tail == queue.length) queue = Arrays.copyOf(queue, tail * 2);
+                queue[tail++] = parents[i];
+            }
+        }
+
+        checkOpen();
+        Set<String> roots = new HashSet<>();
+        for (int i = 0; i < rootCount; i++) {
+            int root = subtreeSection.getInt(rootTable + 4 * i);
+            if (found.get(root)) roots.add(idText(root));
+        }
+        return roots;
+    }
+
+    /**
+     * Return whether a vertex is at depth zero, by binary search of the roots
+     */
+    private boolean isRoot(int index) {
+        int low = 0;
+        int high = rootCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int candidate = subtreeSection.getInt(rootTable + 4 * middle);
+            if (candidate < index) {
+                low = middle + 1;
+            } else if (candidate > index) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move to the list of the vertices directly downstream of a vertex, which starts with their number
+     */
+    private void seekChildren(int index) throws IOException {
+        checkOpen();
+        subtrees.seek(subtreeSection.getInt(childTable + 4 * index));
+    }
+
+    /**
+     * Read the next vertex of a list of those directly downstream of a vertex
+     *
+     * @param previous the vertex read before, or -1 at the start of the list
+     */
+    private int nextChild(int previous) throws IOException {
+        long child = (long) previous + subtrees.readVarint() + 1;
+        if (child <= previous || child >= vertexCount) throw new IOException("The subtree index does not match the file");
+        return (int) child;
+    }
+
+    @Override
+    public synchronized void forEachVertex(Consumer<Vertex> action) {
+        try {
+            for (int i = 0; i < vertexCount; i++) {
+                action.accept(readVertex(i));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Release the mapping of the file. Reading from the document afterwards fails, and closing it again does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        block = null;
+        unmap(file);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("The document is closed");
+    }
+
+    /**
+     * Unmap a mapped buffer at once rather than when it is garbage collected. Java has no public way of doing so, so
+     * this goes through the cleaner of the buffer, as Java 8 and later each expose it. Where neither is available the
+     * buffer is left to the garbage collector.
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                Method cleanerOf = buffer.getClass().getMethod("cleaner");
+                cleanerOf.setAccessible(true);
+                Object cleaner = cleanerOf.invoke(buffer);
+                if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // left to the garbage collector
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // left to the garbage collector
+        }
+    }
+
+    /**
+     * Read the vertex at a position in the file, checking its block first if it has not been checked before
+     *
+     * @param index the index of the vertex in file order
+     * @return the vertex
+     */
+    private Vertex readVertex(int index) throws IOException {
+        checkOpen();
+        if (index < 0 || index >= vertexCount) throw new IOException("Reference to unknown vertex " + index);
+        int blockIndex = index / BinaryLoader.BLOCK_SIZE;
+        if (blockIndex != currentBlock) {
+            int section = file.getInt(blockTable + 4 * blockIndex);
+            if (section < 0 || section > file.limit() - BinaryLoader.SECTION_HEADER
+                    || file.get(section) != BinaryLoader.VERTICES) {
+                throw new IOException("The index does not match the file");
+            }
+            int payload = section + BinaryLoader.SECTION_HEADER;
+            ByteBuffer bytes = checkedBlocks.get(blockIndex)
+                    ? payload(payload, file.getInt(section + 1))
+                    : checkedPayload(payload, BinaryLoader.VERTICES);
+            checkedBlocks.set(blockIndex);
+            block = new SectionReader(bytes);
+            currentBlock = blockIndex;
+            currentBlockStart = payload;
+        }
+        block.seek(file.getInt(vertexTable + 4 * index) - currentBlockStart);
+        return BinaryLoader.readVertex(block, vertexId(index), references);
+    }
+
+    /**
+     * Find an id by its hash code
+     *
+     * @param vertexId the id
+     * @return the index of the id in file order, or -1 if the file does not hold it
+     */
+    private int indexOf(String vertexId) throws IOException {
+        checkOpen();
+        int hash = vertexId.hashCode();
+        int low = 0;
+        int high = idCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (file.getInt(hashTable + 8 * middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < idCount && file.getInt(hashTable + 8 * i) == hash; i++) {
+            int index = file.getInt(hashTable + 8 * i + 4);
+            if (vertexId.equals(idText(index))) return index;
+        }
+        return -1;
+    }
+
+    private String idText(int index) throws IOException {
+        seekId(index);
+        int kind = ids.readByte();
+        if (kind == BinaryLoader.COMPACT_ID) return VertexId.format(ids.readLong(), ids.readLong());
+        return textId(kind, index);
+    }
+
+    private VertexId vertexId(int index) throws IOException {
+        seekId(index);
+        int kind = ids.readByte();
+        if (kind == BinaryLoader.COMPACT_ID) return VertexId.of(ids.readLong(), ids.readLong());
+        return VertexId.of(textId(kind, index));
+    }
+
+    private void seekId(int index) throws IOException {
+        checkOpen();
+        if (index < 0 || index >= idCount) throw new IOException("Connection to unknown id " + index);
+        ids.seek(file.getInt(idTable + 4 * index) - idsStart);
+    }
+
+    private String textId(int kind, int index) throws IOException {
+        if (kind != BinaryLoader.TEXT_ID) throw new IOException("Unknown kind of id: " + kind);
+        String text = string(ids.readVarint());
+        if (text == null) throw new IOException("Vertex id " + index + " is null");
+        return text;
+    }
+
+    private String string(int ref) throws IOException {
+        checkOpen();
+        if (ref == 0) return null;
+        if (ref < 0 || ref > stringCount) throw new IOException("Reference to unknown string " + ref);
+        strings.seek(file.getInt(stringTable + 4 * (ref - 1)) - stringsStart);
+        return strings.readString();
+    }
+}
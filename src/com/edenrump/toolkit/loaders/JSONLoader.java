@@ -9,14 +9,49 @@
 
 package com.edenrump.toolkit.loaders;
 
+import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.graph.GraphSnapshot;
+import com.edenrump.toolkit.graph.VertexRecord;
 import com.edenrump.toolkit.models.ThreadsData;
-import com.google.gson.Gson;
+import com.edenrump.toolkit.models.Vertex;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
+/**
+ * Class for reading and writing threads files.
+ * <p>
+ * Files are written in version 2 of the format: {"version":2,"name":"..","id":"..","vertices":[...]}, with each
+ * vertex in the form described by VertexTypeAdapter. The vertices may instead be grouped by depth, as
+ * "depths":[{"depth":0,"vertices":[...]},...], which leaves the depth out of every vertex. Files without a version are
+ * version 1, the form Gson wrote by reflection (see LegacyVertexTypeAdapter); they are read as they are and upgraded
+ * when next saved. Files are read and written in UTF-8, whatever the platform's default encoding.
+ */
 public class JSONLoader {
 
+    /**
+     * The version of the file format written by this class
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    /**
+     * The number of vertices read between progress reports
+     */
+    private static final int PROGRESS_INTERVAL = 512;
+
+    private static final Comparator<Vertex> VERTEX_ORDER =
+            Comparator.comparingInt(Vertex::getPriority).thenComparing(Vertex::getId);
+    private static final Comparator<VertexRecord> RECORD_ORDER =
+            Comparator.comparingInt(VertexRecord::getPriority).thenComparing(VertexRecord::getId);
+
     /**
      * Load a single ThreadsData from json file.
      * @param file the location of the file as a string
@@ -24,14 +59,91 @@ public class JSONLoader {
      */
     public static ThreadsData loadOneFromJSON(File file){
         try{
-            BufferedReader r = new BufferedReader(new FileReader(file));
-            return new Gson().fromJson(r, ThreadsData.class);
-        } catch (FileNotFoundException e) {
+            List<Vertex> vertices = new ArrayList<>();
+            ThreadsData header = streamFromJSON(file, vertices::add, LoadMonitor.NONE);
+            return new ThreadsData(header.getName(), header.getId(), vertices);
+        } catch (IOException e) {
             e.printStackTrace();
             return new ThreadsData("NULL_NAME", "NULL_ID", new ArrayList<>());
         }
     }
 
+    /**
+     * Load the vertices of a json file straight into a graph, without collecting them first
+     * @param file the file
+     * @param graph the graph to add the vertices to
+     * @param monitor receives progress and may cancel the load
+     * @return the name and id of the data set, with an empty vertex list
+     * @throws IOException if the file cannot be read or is not a threads file
+     * @throws CancellationException if the monitor cancelled the load
+     */
+    public static ThreadsData loadIntoGraph(File file, Graph graph, LoadMonitor monitor) throws IOException {
+        return streamFromJSON(file, graph::addVertex, monitor);
+    }
+
+    /**
+     * Read a json file of any version one vertex at a time with a pull parser, handing each vertex to the sink as soon
+     * as it has been read. The file is never held in memory as a whole, so memory use is close to that of the
+     * vertices themselves.
+     * @param file the file
+     * @param sink receives each vertex in file order
+     * @param monitor receives progress and is asked between vertices whether to stop
+     * @return the name and id of the data set, with an empty vertex list
+     * @throws IOException if the file cannot be read or is not a threads file
+     * @throws CancellationException if the monitor cancelled the load
+     */
+    public static ThreadsData streamFromJSON(File file, Consumer<Vertex> sink, LoadMonitor monitor) throws IOException {
+        long totalBytes = file.length();
+        try (CountingInputStream in = new CountingInputStream(new FileInputStream(file));
+             JsonReader json = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            VertexReading reading = new VertexReading(sink, monitor, in, totalBytes);
+            String name = null;
+            String id = null;
+            int version = 1;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "version":
+                        int declared = json.nextInt();
+                        if (declared > FORMAT_VERSION) {
+                            throw new IOException("The file is in format version " + declared +
+                                    ", which is newer than this version of Threads can read");
+                        }
+                        if (reading.count > 0 && declared != version) {
+                            throw new IOException("The format version must come before the vertices");
+                        }
+                        version = declared;
+                        break;
+                    case "name":
+                        name = VertexTypeAdapter.nextStringOrNull(json);
+                        break;
+                    case "id":
+                        id = VertexTypeAdapter.nextStringOrNull(json);
+                        break;
+                    case "vertices":
+                        reading.readVertices(json, adapterFor(version), null);
+                        break;
+                    case "depths":
+                        reading.readDepthGroups(json, adapterFor(version));
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            monitor.progress(totalBytes, totalBytes);
+            return new ThreadsData(name, id, new ArrayList<>());
+        } catch (CancellationException e) {
+            throw e;
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Not a threads file: " + e.getMessage(), e);
+        }
+    }
+
+    private static TypeAdapter<Vertex> adapterFor(int version) {
+        return version == 1 ? new LegacyVertexTypeAdapter() : new VertexTypeAdapter();
+    }
+
     /**
      * Save a single ThreadsData instance to a json file
      * @param data the data to be saved
@@ -39,11 +151,28 @@ public class JSONLoader {
      * @return true if saved, false on error
      */
     public static boolean saveToJSON(ThreadsData data, File file){
-        try{
-            BufferedWriter w = new BufferedWriter(new FileWriter(file));
-            String wData = new Gson().toJson(data);
-            w.write(wData);
-            w.close();
+        try (Writer w = newFileWriter(file)) {
+            writeJSON(data, w, false);
+            return true;
+        } catch (IOException e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Save a snapshot of a graph to a json file, grouped by depth and in priority order within each depth so that
+     * saving the same graph twice gives the same file. The vertices are written straight from the snapshot, so this
+     * can run on any thread.
+     * @param name the name of the data set
+     * @param id the id of the data set
+     * @param snapshot the vertices to save
+     * @param file the file to save to
+     * @return true if saved, false on error
+     */
+    public static boolean saveToJSON(String name, String id, GraphSnapshot snapshot, File file){
+        try (Writer w = newFileWriter(file)) {
+            writeJSON(name, id, snapshot, w, true);
             return true;
         } catch (IOException e){
             e.printStackTrace();
@@ -52,11 +181,199 @@ public class JSONLoader {
     }
 
     public static String toJson(ThreadsData data){
-        Gson gson = new Gson();
-        return gson.toJson(data);
+        StringWriter w = new StringWriter();
+        try {
+            writeJSON(data, w, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return w.toString();
     }
 
+    /**
+     * Write a data set as json, one vertex at a time, so that the document is never held in memory as a whole
+     * @param data the data to write
+     * @param out where to write it. It is flushed but not closed.
+     * @param groupByDepth whether to group the vertices by depth, in priority order, rather than list them in order
+     * @throws IOException if the data cannot be written
+     */
+    public static void writeJSON(ThreadsData data, Writer out, boolean groupByDepth) throws IOException {
+        JsonWriter json = newJsonWriter(out);
+        beginDocument(json, data.getName(), data.getId());
+        if (groupByDepth) {
+            VertexTypeAdapter adapter = new VertexTypeAdapter(false);
+            writeDepthGroups(json, groupedByDepth(data.getVertices(), Vertex::getDepth, VERTEX_ORDER), adapter::write);
+        } else {
+            VertexTypeAdapter adapter = new VertexTypeAdapter();
+            json.name("vertices").beginArray();
+            for (Vertex vertex : data.getVertices()) adapter.write(json, vertex);
+            json.endArray();
+        }
+        endDocument(json);
+    }
 
-}
+    /**
+     * Write a snapshot of a graph as json, one vertex at a time, so that the document is never held in memory as a
+     * whole
+     * @param name the name of the data set
+     * @param id the id of the data set
+     * @param snapshot the vertices to write
+     * @param out where to write them. It is flushed but not closed.
+     * @param groupByDepth whether to group the vertices by depth, in priority order, rather than list them in no
+     *                     particular order
+     * @throws IOException if the data cannot be written
+     */
+    public static void writeJSON(String name, String id, GraphSnapshot snapshot, Writer out, boolean groupByDepth)
+            throws IOException {
+        JsonWriter json = newJsonWriter(out);
+        beginDocument(json, name, id);
+        if (groupByDepth) {
+            VertexTypeAdapter adapter = new VertexTypeAdapter(false);
+            writeDepthGroups(json, groupedByDepth(snapshot.getVertices(), VertexRecord::getDepth, RECORD_ORDER),
+                    adapter::write);
+        } else {
+            VertexTypeAdapter adapter = new VertexTypeAdapter();
+            json.name("vertices").beginArray();
+            try {
+                snapshot.forEachVertex(record -> {
+                    try {
+                        adapter.write(json, record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            json.endArray();
+        }
+        endDocument(json);
+    }
+
+    /**
+     * Create a buffered writer of UTF-8 text to a file
+     */
+    static Writer newFileWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create a writer that escapes text the way Gson does by default
+     */
+    private static JsonWriter newJsonWriter(Writer out) {
+        JsonWriter json = new JsonWriter(out);
+        json.setHtmlSafe(true);
+        return json;
+    }
+
+    private static void beginDocument(JsonWriter json, String name, String id) throws IOException {
+        json.beginObject();
+        json.name("version").value(FORMAT_VERSION);
+        if (name != null) json.name("name").value(name);
+        if (id != null) json.name("id").value(id);
+    }
+
+    private static void endDocument(JsonWriter json) throws IOException {
+        json.endObject();
+        json.flush();
+    }
+
+    private static <T> NavigableMap<Integer, List<T>> groupedByDepth(Collection<T> vertices, ToIntFunction<T> depth,
+                                                                     Comparator<T> order) {
+        NavigableMap<Integer, List<T>> groups = new TreeMap<>();
+        for (T vertex : vertices) {
+            groups.computeIfAbsent(depth.applyAsInt(vertex), d -> new ArrayList<>()).add(vertex);
+        }
+        groups.values().forEach(group -> group.sort(order));
+        return groups;
+    }
+
+    private static <T> void writeDepthGroups(JsonWriter json, NavigableMap<Integer, List<T>> groups,
+                                             VertexWriter<T> writer) throws IOException {
+        json.name("depths").beginArray();
+        for (Map.Entry<Integer, List<T>> group : groups.entrySet()) {
+            json.beginObject();
+            json.name("depth").value(group.getKey());
+            json.name("vertices").beginArray();
+            for (T vertex : group.getValue()) writer.write(json, vertex);
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Interface for writing one vertex of any kind
+     */
+    private interface VertexWriter<T> {
+        void write(JsonWriter json, T vertex) throws IOException;
+    }
+
+    /**
+     * Class representing the state of a streaming read: where vertices go, how many have been read and how far
+     * through the file the read is
+     */
+    private static final class VertexReading {
 
+        private final Consumer<Vertex> sink;
+        private final LoadMonitor monitor;
+        private final CountingInputStream in;
+        private final long totalBytes;
+        private int count = 0;
 
+        VertexReading(Consumer<Vertex> sink, LoadMonitor monitor, CountingInputStream in, long totalBytes) {
+            this.sink = sink;
+            this.monitor = monitor;
+            this.in = in;
+            this.totalBytes = totalBytes;
+        }
+
+        /**
+         * Read an array of vertices
+         *
+         * @param depth the depth of the group the vertices are in, which may be any integer, or null if they are not
+         *              grouped by depth
+         */
+        void readVertices(JsonReader json, TypeAdapter<Vertex> adapter, Integer depth) throws IOException {
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                return;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                if (monitor.isCancelled()) throw new CancellationException("Load cancelled");
+                Vertex vertex = adapter.read(json);
+                if (vertex == null) continue;
+                if (depth != null) vertex.setDepth(depth);
+                sink.accept(vertex);
+                if (++count % PROGRESS_INTERVAL == 0) monitor.progress(in.getCount(), totalBytes);
+            }
+            json.endArray();
+        }
+
+        void readDepthGroups(JsonReader json, TypeAdapter<Vertex> adapter) throws IOException {
+            json.beginArray();
+            while (json.hasNext()) {
+                Integer depth = null;
+                json.beginObject();
+                while (json.hasNext()) {
+                    switch (json.nextName()) {
+                        case "depth":
+                            depth = json.nextInt();
+                            break;
+                        case "vertices":
+                            if (depth == null) {
+                                throw new IOException("A depth group needs its depth before its vertices");
+                            }
+                            readVertices(json, adapter, depth);
+                            break;
+                        default:
+                            json.skipValue();
+                    }
+                }
+                json.endObject();
+            }
+            json.endArray();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.models.Vertex;
+import com.edenrump.toolkit.models.VertexId;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.edenrump.toolkit.loaders.VertexTypeAdapter.nextStringOrNull;
+
+/**
+ * Class representing the json form of a vertex in version 1 of the file format, which Gson wrote by reflection over
+ * the fields of Vertex: {"connectedVertices":[...],"depth":0,"priority":0,"name":"&lt;name&gt;",
+ * "id":{"name":"","value":"&lt;id&gt;","valid":true},"propertiesMap":{...}}.
+ * <p>
+ * Version 1 files are read so that they are upgraded when they are next saved. Vertices are written in this form only
+ * for programs that still expect it.
+ */
+class LegacyVertexTypeAdapter extends TypeAdapter<Vertex> {
+
+    private final VertexIdTypeAdapter idAdapter = new VertexIdTypeAdapter();
+
+    @Override
+    public void write(JsonWriter out, Vertex vertex) throws IOException {
+        if (vertex == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("connectedVertices").beginArray();
+        for (String connectedId : vertex.getConnectedVertices()) out.value(connectedId);
+        out.endArray();
+        out.name("depth").value(vertex.getDepth());
+        out.name("priority").value(vertex.getPriority());
+        if (vertex.getName() != null) out.name("name").value(vertex.getName());
+        out.name("id");
+        idAdapter.write(out, vertex.getVertexId());
+        out.name("propertiesMap").beginObject();
+        for (Map.Entry<String, String> property : vertex.getProperties().entrySet()) {
+            if (property.getValue() != null) out.name(property.getKey()).value(property.getValue());
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    @Override
+    public Vertex read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String name = null;
+        VertexId id = null;
+        List<String> connected = new ArrayList<>();
+        int depth = 0;
+        int priority = 0;
+        Map<String, String> properties = new LinkedHashMap<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "connectedVertices":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        break;
+                    }
+                    in.beginArray();
+                    while (in.hasNext()) connected.add(in.nextString());
+                    in.endArray();
+                    break;
+                case "depth":
+                    depth = in.nextInt();
+                    break;
+                case "priority":
+                    priority = in.nextInt();
+                    break;
+                case "name":
+                    name = nextStringOrNull(in);
+                    break;
+                case "id":
+                    id = idAdapter.read(in);
+                    break;
+                case "propertiesMap":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        break;
+                    }
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        String propertyName = in.nextName();
+                        String value = nextStringOrNull(in);
+                        if (value != null) properties.put(propertyName, value);
+                    }
+                    in.endObject();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == null) throw new IOException("Vertex \"" + name + "\" has no id");
+
+        Vertex vertex = new Vertex(name, id, connected, depth, priority);
+        properties.forEach(vertex::overwriteProperty);
+        return vertex;
+    }
+}
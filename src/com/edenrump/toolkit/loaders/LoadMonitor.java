@@ -0,0 +1,39 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+/**
+ * Interface for following and cancelling a load in progress.
+ */
+public interface LoadMonitor {
+
+    /**
+     * A monitor that ignores progress and never cancels
+     */
+    LoadMonitor NONE = (bytesRead, totalBytes) -> {
+    };
+
+    /**
+     * Called as the load proceeds
+     *
+     * @param bytesRead  the number of bytes read so far
+     * @param totalBytes the size of the input, or -1 if it is unknown
+     */
+    void progress(long bytesRead, long totalBytes);
+
+    /**
+     * Return whether the load should stop. It is checked between vertices.
+     *
+     * @return whether the load has been cancelled
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
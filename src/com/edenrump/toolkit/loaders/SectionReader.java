@@ -0,0 +1,111 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class representing the payload of one section of a binary threads file while it is being read. See SectionWriter
+ * for the encoding.
+ * <p>
+ * The payload may be held in an array, as when a file is read in full, or be part of a mapped file, as when an
+ * IndexedDocument reads single vertices. Either way the reader never reads past the end of the payload.
+ */
+final class SectionReader {
+
+    private final ByteBuffer bytes;
+
+    /**
+     * Create a reader over the start of an array
+     *
+     * @param bytes  the array
+     * @param length the number of bytes of the array that hold the payload
+     */
+    SectionReader(byte[] bytes, int length) {
+        this(ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    /**
+     * Create a reader over the remaining bytes of a buffer. The reader has its own position, so reading does not move
+     * the position of the buffer.
+     *
+     * @param bytes the buffer
+     */
+    SectionReader(ByteBuffer bytes) {
+        this.bytes = bytes.slice();
+    }
+
+    /**
+     * Move to a position in the payload
+     *
+     * @param position the number of bytes from the start of the payload
+     * @throws IOException if the position is outside the payload
+     */
+    void seek(int position) throws IOException {
+        if (position < 0 || position > bytes.limit()) throw new IOException("Section ends early");
+        bytes.position(position);
+    }
+
+    int readByte() throws IOException {
+        require(1);
+        return bytes.get() & 0xff;
+    }
+
+    int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed number in section");
+    }
+
+    int readSignedVarint() throws IOException {
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readInt() throws IOException {
+        require(4);
+        return bytes.getInt();
+    }
+
+    long readLong() throws IOException {
+        require(8);
+        return bytes.getLong();
+    }
+
+    String readString() throws IOException {
+        int byteLength = readVarint();
+        require(byteLength);
+        String value;
+        if (bytes.hasArray()) {
+            value = new String(bytes.array(), bytes.arrayOffset() + bytes.position(), byteLength,
+                    StandardCharsets.UTF_8);
+            bytes.position(bytes.position() + byteLength);
+        } else {
+            byte[] utf8 = new byte[byteLength];
+            bytes.get(utf8);
+            value = new String(utf8, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    boolean hasRemaining() {
+        return bytes.hasRemaining();
+    }
+
+    private void require(int count) throws IOException {
+        if (count < 0 || count > bytes.remaining()) throw new IOException("Section ends early");
+    }
+}
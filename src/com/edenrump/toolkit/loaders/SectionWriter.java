@@ -0,0 +1,116 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Class representing the payload of one section of a binary threads file while it is being written.
+ * <p>
+ * Whole numbers are written as varints: seven bits to a byte, low bits first, with the top bit of each byte set if
+ * another follows. Signed numbers are zigzag encoded first, so that small negative numbers stay short.
+ */
+final class SectionWriter {
+
+    private byte[] bytes = new byte[1 << 16];
+    private int size = 0;
+
+    void writeByte(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Write a number that is never negative
+     *
+     * @param value the number
+     */
+    void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7f) != 0) {
+            bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    void writeSignedVarint(int value) {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Write a number as four bytes, high byte first, so that it can be read in place without reading what comes
+     * before it
+     *
+     * @param value the number
+     */
+    void writeInt(int value) {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            bytes[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    /**
+     * Write a string as its length in bytes followed by its UTF-8 bytes
+     *
+     * @param value the string
+     */
+    void writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(utf8.length);
+        ensureCapacity(utf8.length);
+        System.arraycopy(utf8, 0, bytes, size, utf8.length);
+        size += utf8.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return the CRC-32 checksum of the payload
+     *
+     * @return the checksum
+     */
+    int checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, size);
+        return (int) crc.getValue();
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    /**
+     * Empty the payload so that the writer can be used for the next section
+     */
+    void reset() {
+        size = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+        }
+    }
+}
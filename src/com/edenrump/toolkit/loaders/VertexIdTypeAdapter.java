@@ -0,0 +1,63 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.models.VertexId;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Class representing the json form of a vertex id.
+ * <p>
+ * Ids were first saved as the JavaFX string property that used to hold them, so they are written in that shape,
+ * {"name":"","value":"&lt;id&gt;","valid":true}, to keep files readable by earlier versions. Either that shape or a
+ * bare string is accepted when reading.
+ */
+class VertexIdTypeAdapter extends TypeAdapter<VertexId> {
+
+    @Override
+    public void write(JsonWriter out, VertexId id) throws IOException {
+        if (id == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("name").value("");
+        out.name("value").value(id.toString());
+        out.name("valid").value(true);
+        out.endObject();
+    }
+
+    @Override
+    public VertexId read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.STRING) return VertexId.of(in.nextString());
+
+        String value = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if ("value".equals(in.nextName()) && in.peek() == JsonToken.STRING) {
+                value = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return value == null ? null : VertexId.of(value);
+    }
+}
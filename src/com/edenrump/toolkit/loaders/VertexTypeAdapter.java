@@ -0,0 +1,169 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.graph.VertexRecord;
+import com.edenrump.toolkit.models.Vertex;
+import com.edenrump.toolkit.models.VertexId;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class representing the json form of a vertex in version 2 of the file format:
+ * {"id":"&lt;id&gt;","name":"&lt;name&gt;","depth":0,"priority":0,"connected":[...],"properties":{...}}.
+ * <p>
+ * The id is a plain string. Empty connection lists are left out, as are properties with empty values, which mean the
+ * same as no property (see Vertex.hasProperty). When vertices are grouped by depth in the file the depth is left out
+ * as well, and the reader of the group sets it.
+ */
+class VertexTypeAdapter extends TypeAdapter<Vertex> {
+
+    private final boolean writeDepth;
+
+    /**
+     * Create an adapter that writes the depth of each vertex
+     */
+    VertexTypeAdapter() {
+        this(true);
+    }
+
+    /**
+     * Create an adapter
+     *
+     * @param writeDepth whether to write the depth of each vertex, false when the vertices are grouped by depth
+     */
+    VertexTypeAdapter(boolean writeDepth) {
+        this.writeDepth = writeDepth;
+    }
+
+    @Override
+    public void write(JsonWriter out, Vertex vertex) throws IOException {
+        if (vertex == null) {
+            out.nullValue();
+            return;
+        }
+        write(out, vertex.getId(), vertex.getName(), vertex.getDepth(), vertex.getPriority(),
+                vertex.getConnectedVertices(), vertex.getProperties());
+    }
+
+    /**
+     * Write a vertex from a graph snapshot
+     *
+     * @param out    the writer
+     * @param record the vertex
+     * @throws IOException if the vertex cannot be written
+     */
+    void write(JsonWriter out, VertexRecord record) throws IOException {
+        write(out, record.getId(), record.getName(), record.getDepth(), record.getPriority(),
+                record.getConnectedVertices(), record.getProperties());
+    }
+
+    private void write(JsonWriter out, String id, String name, int depth, int priority, List<String> connected,
+                       Map<String, String> properties) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        if (name != null) out.name("name").value(name);
+        if (writeDepth) out.name("depth").value(depth);
+        out.name("priority").value(priority);
+        if (!connected.isEmpty()) {
+            out.name("connected").beginArray();
+            for (String connectedId : connected) out.value(connectedId);
+            out.endArray();
+        }
+        boolean anyProperties = false;
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            if (property.getValue() == null || property.getValue().isEmpty()) continue;
+            if (!anyProperties) {
+                out.name("properties").beginObject();
+                anyProperties = true;
+            }
+            out.name(property.getKey()).value(property.getValue());
+        }
+        if (anyProperties) out.endObject();
+        out.endObject();
+    }
+
+    @Override
+    public Vertex read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String id = null;
+        String name = null;
+        int depth = 0;
+        int priority = 0;
+        List<String> connected = new ArrayList<>();
+        Map<String, String> properties = new LinkedHashMap<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    id = nextStringOrNull(in);
+                    break;
+                case "name":
+                    name = nextStringOrNull(in);
+                    break;
+                case "depth":
+                    depth = in.nextInt();
+                    break;
+                case "priority":
+                    priority = in.nextInt();
+                    break;
+                case "connected":
+                    in.beginArray();
+                    while (in.hasNext()) connected.add(in.nextString());
+                    in.endArray();
+                    break;
+                case "properties":
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        String propertyName = in.nextName();
+                        String value = nextStringOrNull(in);
+                        if (value != null) properties.put(propertyName, value);
+                    }
+                    in.endObject();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (id == null) throw new IOException("Vertex \"" + name + "\" has no id");
+
+        Vertex vertex = new Vertex(name, VertexId.of(id), connected, depth, priority);
+        properties.forEach(vertex::overwriteProperty);
+        return vertex;
+    }
+
+    /**
+     * Read a string, or null if the next value is null
+     *
+     * @param in the reader
+     * @return the string or null
+     * @throws IOException if the next value is neither
+     */
+    static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+}
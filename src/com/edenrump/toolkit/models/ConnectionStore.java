@@ -0,0 +1,62 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.models;
+
+/**
+ * Interface for storage (usually a graph) that holds the connections of attached vertices on their behalf. Each vertex
+ * is given a row in the store when it is attached; the store never calls back into the vertex. Connections are kept in
+ * the order they were added.
+ */
+public interface ConnectionStore {
+
+    /**
+     * Return the number of connections held for a row
+     *
+     * @param row the row of the vertex
+     * @return the number of connections
+     */
+    int count(int row);
+
+    /**
+     * Return the id of the vertex at a position in the connections of a row
+     *
+     * @param row      the row of the vertex
+     * @param position the position, from zero to count(row) - 1
+     * @return the id of the connected vertex
+     */
+    String get(int row, int position);
+
+    /**
+     * Return whether a row holds a connection
+     *
+     * @param row         the row of the vertex
+     * @param connectedId the id of the connected vertex
+     * @return whether the connection is present
+     */
+    boolean contains(int row, String connectedId);
+
+    /**
+     * Add a connection to the end of a row, if not already present
+     *
+     * @param row         the row of the vertex
+     * @param connectedId the id of the vertex to connect to
+     * @return whether the connection was added
+     */
+    boolean add(int row, String connectedId);
+
+    /**
+     * Remove a connection from a row
+     *
+     * @param row         the row of the vertex
+     * @param connectedId the id of the connected vertex
+     * @return whether the connection was present
+     */
+    boolean remove(int row, String connectedId);
+}
@@ -0,0 +1,64 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.models;
+
+import java.util.Map;
+
+/**
+ * Interface for storage (usually a graph) that holds the properties of attached vertices on their behalf. Each vertex
+ * is given a row in the store when it is attached; the store never calls back into the vertex.
+ */
+public interface PropertyStore {
+
+    /**
+     * Return whether a row holds a property, whatever its value
+     *
+     * @param row          the row of the vertex
+     * @param propertyName the name of the property
+     * @return whether the property is present
+     */
+    boolean contains(int row, String propertyName);
+
+    /**
+     * Return the value of a property
+     *
+     * @param row          the row of the vertex
+     * @param propertyName the name of the property
+     * @return the value, or null if the property is absent
+     */
+    String get(int row, String propertyName);
+
+    /**
+     * Set the value of a property, adding it if absent
+     *
+     * @param row          the row of the vertex
+     * @param propertyName the name of the property
+     * @param value        the value
+     * @return the previous value, or null if there was none
+     */
+    String put(int row, String propertyName, String value);
+
+    /**
+     * Remove a property
+     *
+     * @param row          the row of the vertex
+     * @param propertyName the name of the property
+     * @return whether the property was present
+     */
+    boolean remove(int row, String propertyName);
+
+    /**
+     * Copy the properties held for a row into a new map
+     *
+     * @param row the row of the vertex
+     * @return the property names and values
+     */
+    Map<String, String> toMap(int row);
+}
@@ -9,7 +9,6 @@
 
 package com.edenrump.toolkit.models;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -58,7 +57,8 @@ public class ThreadsData {
     //TODO: add edge data
 
     /**
-     * Create ThreadsData object with all parameters
+     * Create ThreadsData object with all parameters. The list of vertices is held, not copied, so callers should pass
+     * a list they no longer change.
      * @param name the name of the datas et
      * @param id the id of the data set
      * @param vertices the vertices in the data set
@@ -66,7 +66,7 @@ public class ThreadsData {
     public ThreadsData(String name, String id, List<Vertex> vertices){
         this.name = name;
         this.id = id;
-        this.vertices = new ArrayList<>(vertices);
+        this.vertices = vertices;
 
     }
 }
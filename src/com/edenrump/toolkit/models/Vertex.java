@@ -9,9 +9,6 @@
 
 package com.edenrump.toolkit.models;
 
-import javafx.beans.property.ReadOnlyObjectWrapper;
-import javafx.beans.property.ReadOnlyStringWrapper;
-
 import java.util.*;
 
 /**
@@ -21,7 +18,7 @@ import java.util.*;
 public class Vertex implements Comparable<Vertex> {
 
     /**
-     * List of upstream node ids
+     * List of upstream node ids. Null while the connections are held by a connection store.
      */
     private List<String> connectedVertices;
     /**
@@ -39,11 +36,28 @@ public class Vertex implements Comparable<Vertex> {
     /**
      * The id of this node
      */
-    private ReadOnlyStringWrapper id;
+    private VertexId id;
     /**
-     * the hyperlink associated with this vertex
+     * The properties of this vertex, such as its colour and hyperlink. Null while the properties are held by a
+     * property store.
      */
     private Map<String, String> propertiesMap = new HashMap<>();
+    /**
+     * The store holding the properties of this vertex while it is attached to one (usually the containing graph),
+     * and the row of this vertex in it
+     */
+    private transient PropertyStore propertyStore;
+    private transient int propertyRow;
+    /**
+     * The store holding the connections of this vertex while it is attached to one (usually the containing graph),
+     * and the row of this vertex in it
+     */
+    private transient ConnectionStore connectionStore;
+    private transient int connectionRow;
+    /**
+     * The listener (usually the containing graph) that is told about structural changes to this vertex
+     */
+    private transient VertexListener listener;
 
     /**
      * Create VertexData fron a name and a random id
@@ -51,7 +65,7 @@ public class Vertex implements Comparable<Vertex> {
      * @param name the name of the vertex
      */
     public Vertex(String name) {
-        this(name, UUID.randomUUID().toString());
+        this(name, VertexId.random(), new ArrayList<>(), 0, 0);
     }
 
     /**
@@ -62,7 +76,7 @@ public class Vertex implements Comparable<Vertex> {
      * @param priority the priority of the vertex
      */
     public Vertex(String name, int depth, int priority) {
-        this(name, UUID.randomUUID().toString(), new ArrayList<>(), depth, priority);
+        this(name, VertexId.random(), new ArrayList<>(), depth, priority);
     }
 
     /**
@@ -83,17 +97,24 @@ public class Vertex implements Comparable<Vertex> {
      * @param connected a list of connected vertices by id
      */
     public Vertex(String name, String id, List<String> connected, int depth, int priority) {
+        this(name, VertexId.of(id), connected, depth, priority);
+    }
+
+    /**
+     * Create a VertexData object
+     *
+     * @param name      the name of the vertex
+     * @param id        the id of the vertex
+     * @param connected a list of connected vertices by id
+     */
+    public Vertex(String name, VertexId id, List<String> connected, int depth, int priority) {
         this.name = name;
-        this.id = new ReadOnlyStringWrapper(id);
+        this.id = id;
         this.connectedVertices = new ArrayList<>(connected);
         this.depth = depth;
         this.priority = priority;
     }
 
-    public ReadOnlyObjectWrapper<Vertex> readOnly() {
-        return new ReadOnlyObjectWrapper<>(this);
-    }
-
     /**
      * Return the depth of the node in the graph
      *
@@ -109,7 +130,9 @@ public class Vertex implements Comparable<Vertex> {
      * @param depth depth of the node in the graph
      */
     public void setDepth(int depth) {
+        int previousDepth = this.depth;
         this.depth = depth;
+        if (listener != null && previousDepth != depth) listener.depthChanged(this, previousDepth);
     }
 
     /**
@@ -127,25 +150,139 @@ public class Vertex implements Comparable<Vertex> {
      * @param priority the priority value
      */
     public void setPriority(int priority) {
+        int previousPriority = this.priority;
         this.priority = priority;
+        if (listener != null && previousPriority != priority) listener.priorityChanged(this, previousPriority);
     }
 
     /**
-     * Return the ids of the upstream nodes
+     * Return the ids of the upstream nodes. The list cannot be modified directly; use addConnection and
+     * removeConnection so that any listener is kept informed.
      *
      * @return list of ids
      */
     public List<String> getConnectedVertices() {
-        return connectedVertices;
+        if (connectionStore == null) return Collections.unmodifiableList(connectedVertices);
+        ConnectionStore store = connectionStore;
+        int row = connectionRow;
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index);
+                return store.get(row, index);
+            }
+
+            @Override
+            public int size() {
+                return store.count(row);
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && store.contains(row, (String) o);
+            }
+        };
     }
 
     /**
-     * Add an integer id to the list of upstream nodes
+     * Add an integer id to the list of upstream nodes. The listener, if any, may refuse the connection, for instance
+     * because it would close a cycle.
      *
      * @param connection the id of the node to be added
+     * @return whether the connection was added
+     */
+    public boolean addConnection(String connection) {
+        if (getConnectedVertices().contains(connection)) return false;
+        if (listener != null && !listener.connectionAllowed(this, connection)) return false;
+        if (connectionStore != null) {
+            connectionStore.add(connectionRow, connection);
+        } else {
+            this.connectedVertices.add(connection);
+        }
+        if (listener != null) listener.connectionAdded(this, connection);
+        return true;
+    }
+
+    /**
+     * Remove an id from the list of upstream nodes
+     *
+     * @param connection the id of the node to be removed
+     * @return whether the connection was present
+     */
+    public boolean removeConnection(String connection) {
+        boolean removed = connectionStore != null ? connectionStore.remove(connectionRow, connection) :
+                this.connectedVertices.remove(connection);
+        if (removed) {
+            if (listener != null) listener.connectionRemoved(this, connection);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the listener currently attached to this vertex
+     *
+     * @return the listener, or null if the vertex is not attached
+     */
+    public VertexListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Set the listener that is told about structural changes to this vertex. A vertex has at most one listener,
+     * normally the graph that contains it.
+     *
+     * @param listener the listener, or null to detach the vertex
+     */
+    public void setListener(VertexListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Move the properties of this vertex into a store, which then holds them on the vertex's behalf, or back out of
+     * the store into the vertex. The store's row is left as it was when the properties are moved out; clearing it is
+     * up to the store's owner.
+     *
+     * @param store the store, or null to take the properties back into the vertex
+     * @param row   the row of this vertex in the store
      */
-    public void addConnection(String connection) {
-        if (!this.connectedVertices.contains(connection)) this.connectedVertices.add(connection);
+    public void storePropertiesIn(PropertyStore store, int row) {
+        if (store == propertyStore && (store == null || row == propertyRow)) return;
+        Map<String, String> properties = propertyStore != null ? propertyStore.toMap(propertyRow) :
+                propertiesMap != null ? propertiesMap : new HashMap<>();
+        propertyStore = store;
+        propertyRow = row;
+        if (store == null) {
+            propertiesMap = new HashMap<>(properties);
+        } else {
+            propertiesMap = null;
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                store.put(row, property.getKey(), property.getValue());
+            }
+        }
+    }
+
+    /**
+     * Move the connections of this vertex into a store, which then holds them on the vertex's behalf, or back out of
+     * the store into the vertex. The store's row is left as it was when the connections are moved out; clearing it is
+     * up to the store's owner.
+     *
+     * @param store the store, or null to take the connections back into the vertex
+     * @param row   the row of this vertex in the store
+     */
+    public void storeConnectionsIn(ConnectionStore store, int row) {
+        if (store == connectionStore && (store == null || row == connectionRow)) return;
+        List<String> connections = new ArrayList<>(getConnectedVertices());
+        connectionStore = store;
+        connectionRow = row;
+        if (store == null) {
+            connectedVertices = connections;
+        } else {
+            connectedVertices = null;
+            for (String connection : connections) {
+                store.add(row, connection);
+            }
+        }
     }
 
     /**
@@ -163,7 +300,9 @@ public class Vertex implements Comparable<Vertex> {
      * @param name the name
      */
     public void setName(String name) {
+        String previous = this.name;
         this.name = name;
+        if (listener != null && !Objects.equals(previous, name)) listener.nameChanged(this);
     }
 
     /**
@@ -172,12 +311,21 @@ public class Vertex implements Comparable<Vertex> {
      * @return the id
      */
     public String getId() {
-        return id.get();
+        return id.toString();
+    }
+
+    /**
+     * Return the id of the node in its compact form, for use as a key
+     *
+     * @return the id
+     */
+    public VertexId getVertexId() {
+        return id;
     }
 
     @Override
     public int compareTo(Vertex o) {
-        return o.getId().equals(this.getId()) ? 1 : 0;
+        return o.id.equals(id) ? 1 : 0;
     }
 
     /**
@@ -186,11 +334,22 @@ public class Vertex implements Comparable<Vertex> {
      * @param vertex the vertex whose properties are to be copied
      */
     public void update(Vertex vertex) {
-        this.name = vertex.getName();
-        this.connectedVertices = new ArrayList<>(vertex.getConnectedVertices());
-        this.depth = vertex.getDepth();
-        this.priority = vertex.getPriority();
-        this.propertiesMap = vertex.propertiesMap;
+        setName(vertex.getName());
+        for (String connection : new ArrayList<>(getConnectedVertices())) {
+            if (!vertex.getConnectedVertices().contains(connection)) removeConnection(connection);
+        }
+        for (String connection : vertex.getConnectedVertices()) {
+            addConnection(connection);
+        }
+        setDepth(vertex.getDepth());
+        setPriority(vertex.getPriority());
+        Map<String, String> properties = vertex.getProperties();
+        for (String propertyName : getProperties().keySet()) {
+            if (!properties.containsKey(propertyName)) removeProperty(propertyName);
+        }
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            overwriteProperty(property.getKey(), property.getValue());
+        }
     }
 
     /**
@@ -201,10 +360,11 @@ public class Vertex implements Comparable<Vertex> {
      * @return whether the property was added
      */
     public boolean addProperty(String propertyName, String propertyValue) {
-        if (propertiesMap.containsKey(propertyName)) {
+        if (containsProperty(propertyName)) {
             return false;
         } else {
-            propertiesMap.put(propertyName, propertyValue);
+            putProperty(propertyName, propertyValue);
+            if (listener != null) listener.propertyChanged(this, propertyName);
             return true;
         }
     }
@@ -216,7 +376,8 @@ public class Vertex implements Comparable<Vertex> {
      * @param propertyValue the value of the property
      */
     public void overwriteProperty(String propertyName, String propertyValue) {
-        propertiesMap.put(propertyName, propertyValue);
+        String previous = putProperty(propertyName, propertyValue);
+        if (listener != null && !Objects.equals(previous, propertyValue)) listener.propertyChanged(this, propertyName);
     }
 
     /**
@@ -225,11 +386,37 @@ public class Vertex implements Comparable<Vertex> {
      * @param propertyName the name of the property
      */
     public void removeProperty(String propertyName) {
-        propertiesMap.remove(propertyName);
+        boolean removed;
+        if (propertyStore != null) {
+            removed = propertyStore.remove(propertyRow, propertyName);
+        } else {
+            removed = propertiesMap.containsKey(propertyName);
+            propertiesMap.remove(propertyName);
+        }
+        if (removed && listener != null) listener.propertyChanged(this, propertyName);
+    }
+
+    /**
+     * Return the properties of the vertex
+     *
+     * @return an unmodifiable map of the property names and values; a copy when the properties are held by a store
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(propertyStore != null ? propertyStore.toMap(propertyRow) : propertiesMap);
     }
 
     public String getProperty(String propertyName) {
-        return propertiesMap.get(propertyName);
+        return propertyStore != null ? propertyStore.get(propertyRow, propertyName) : propertiesMap.get(propertyName);
+    }
+
+    private boolean containsProperty(String propertyName) {
+        return propertyStore != null ? propertyStore.contains(propertyRow, propertyName) :
+                propertiesMap.containsKey(propertyName);
+    }
+
+    private String putProperty(String propertyName, String propertyValue) {
+        return propertyStore != null ? propertyStore.put(propertyRow, propertyName, propertyValue) :
+                propertiesMap.put(propertyName, propertyValue);
     }
 
     /**
@@ -239,6 +426,7 @@ public class Vertex implements Comparable<Vertex> {
      * @return whether the vertex has a property of the specified name
      */
     public boolean hasProperty(String propertyName) {
-        return propertiesMap.containsKey(propertyName) && propertiesMap.getOrDefault(propertyName, "").length() > 0;
+        String value = getProperty(propertyName);
+        return value != null && value.length() > 0;
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.models;
+
+import java.util.UUID;
+
+/**
+ * Class representing the identity of a vertex.
+ * <p>
+ * Ids are almost always random UUIDs, which are held as their 128 bits in two longs rather than as 36-character
+ * strings, so they are small to store and cheap to hash and compare. Any other id is held as its text. The text form
+ * (see toString) is exactly the text the id was created from, so ids read from files are written back unchanged:
+ * only UUIDs in canonical lower-case form are held as bits.
+ */
+public final class VertexId {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long high;
+    private final long low;
+    private final String text;
+    /**
+     * The text form of a compact id, formatted when first asked for. Racing threads at worst format it twice.
+     */
+    private String formatted;
+
+    private VertexId(long high, long low, String text) {
+        this.high = high;
+        this.low = low;
+        this.text = text;
+    }
+
+    /**
+     * Create a new random id
+     *
+     * @return the id
+     */
+    public static VertexId random() {
+        UUID uuid = UUID.randomUUID();
+        return new VertexId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null);
+    }
+
+    /**
+     * Return the id with the given text form
+     *
+     * @param text the text of the id
+     * @return the id
+     */
+    public static VertexId of(String text) {
+        if (isCompact(text)) return new VertexId(highBits(text), lowBits(text), null);
+        return new VertexId(0, 0, text);
+    }
+
+    /**
+     * Return the UUID id with the given bits
+     *
+     * @param high the upper 64 bits
+     * @param low  the lower 64 bits
+     * @return the id
+     */
+    public static VertexId of(long high, long low) {
+        return new VertexId(high, low, null);
+    }
+
+    /**
+     * Return whether an id with the given text is held as bits: whether the text is a UUID in canonical lower-case form
+     *
+     * @param text the text of the id
+     * @return whether the id is compact
+     */
+    public static boolean isCompact(String text) {
+        if (text == null || text.length() != 36) return false;
+        for (int i = 0; i < 36; i++) {
+            char c = text.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') return false;
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the upper 64 bits of a compact id given as text, without creating an id
+     *
+     * @param text the text of a compact id (see isCompact)
+     * @return the upper bits
+     */
+    public static long highBits(String text) {
+        return (parseHex(text, 0, 8) << 32) | (parseHex(text, 9, 13) << 16) | parseHex(text, 14, 18);
+    }
+
+    /**
+     * Return the lower 64 bits of a compact id given as text, without creating an id
+     *
+     * @param text the text of a compact id (see isCompact)
+     * @return the lower bits
+     */
+    public static long lowBits(String text) {
+        return (parseHex(text, 19, 23) << 48) | parseHex(text, 24, 36);
+    }
+
+    /**
+     * Write the text form of a compact id
+     *
+     * @param high the upper bits
+     * @param low  the lower bits
+     * @return the id in canonical UUID form
+     */
+    public static String format(long high, long low) {
+        char[] chars = new char[36];
+        writeHex(chars, 0, high >>> 32, 8);
+        chars[8] = '-';
+        writeHex(chars, 9, high >>> 16, 4);
+        chars[13] = '-';
+        writeHex(chars, 14, high, 4);
+        chars[18] = '-';
+        writeHex(chars, 19, low >>> 48, 4);
+        chars[23] = '-';
+        writeHex(chars, 24, low, 12);
+        return new String(chars);
+    }
+
+    public boolean isCompact() {
+        return text == null;
+    }
+
+    /**
+     * @return the upper 64 bits of a compact id, or 0 for an id held as text
+     */
+    public long getHighBits() {
+        return high;
+    }
+
+    /**
+     * @return the lower 64 bits of a compact id, or 0 for an id held as text
+     */
+    public long getLowBits() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VertexId)) return false;
+        VertexId other = (VertexId) o;
+        return high == other.high && low == other.low && (text == null ? other.text == null : text.equals(other.text));
+    }
+
+    @Override
+    public int hashCode() {
+        if (text != null) return text.hashCode();
+        long mixed = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * Return the text form of the id, the same text it was created from
+     *
+     * @return the id as text
+     */
+    @Override
+    public String toString() {
+        if (text != null) return text;
+        String formatted = this.formatted;
+        if (formatted == null) {
+            formatted = format(high, low);
+            this.formatted = formatted;
+        }
+        return formatted;
+    }
+
+    private static long parseHex(String text, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            value = (value << 4) | Character.digit(text.charAt(i), 16);
+        }
+        return value;
+    }
+
+    private static void writeHex(char[] chars, int at, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[at + i] = HEX_DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+}
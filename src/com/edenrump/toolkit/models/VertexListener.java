@@ -0,0 +1,73 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.models;
+
+/**
+ * Interface for objects (usually a graph) which hold derived information about a vertex and therefore need to be told
+ * when the vertex changes.
+ */
+public interface VertexListener {
+
+    /**
+     * Called before a connection is added to the vertex, giving the listener the chance to refuse it
+     *
+     * @param vertex      the vertex the connection would be added to
+     * @param connectedId the id of the vertex it would connect to
+     * @return whether the connection may be added
+     */
+    boolean connectionAllowed(Vertex vertex, String connectedId);
+
+    /**
+     * Called after a connection has been added to the vertex
+     *
+     * @param vertex      the vertex that changed
+     * @param connectedId the id of the newly connected vertex
+     */
+    void connectionAdded(Vertex vertex, String connectedId);
+
+    /**
+     * Called after a connection has been removed from the vertex
+     *
+     * @param vertex      the vertex that changed
+     * @param connectedId the id of the vertex that is no longer connected
+     */
+    void connectionRemoved(Vertex vertex, String connectedId);
+
+    /**
+     * Called after the depth of the vertex has changed
+     *
+     * @param vertex        the vertex that changed
+     * @param previousDepth the depth before the change
+     */
+    void depthChanged(Vertex vertex, int previousDepth);
+
+    /**
+     * Called after the priority of the vertex has changed
+     *
+     * @param vertex           the vertex that changed
+     * @param previousPriority the priority before the change
+     */
+    void priorityChanged(Vertex vertex, int previousPriority);
+
+    /**
+     * Called after a property of the vertex has been added, overwritten or removed
+     *
+     * @param vertex       the vertex that changed
+     * @param propertyName the name of the property
+     */
+    void propertyChanged(Vertex vertex, String propertyName);
+
+    /**
+     * Called after the name of the vertex has changed
+     *
+     * @param vertex the vertex that changed
+     */
+    void nameChanged(Vertex vertex);
+}
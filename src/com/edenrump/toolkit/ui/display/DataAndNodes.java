@@ -7,7 +7,7 @@
  *  *****************************************************************************
  */
 
-package com.edenrump.toolkit.graph;
+package com.edenrump.toolkit.ui.display;
 
 import com.edenrump.toolkit.models.Vertex;
 import javafx.scene.Node;
@@ -9,8 +9,12 @@
 
 package com.edenrump.toolkit.ui.display;
 
-import com.edenrump.toolkit.graph.DataAndNodes;
 import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.graph.GraphChange;
+import com.edenrump.toolkit.graph.GraphSnapshot;
+import com.edenrump.toolkit.graph.GraphView;
+import com.edenrump.toolkit.graph.StructureReport;
+import com.edenrump.toolkit.graph.VertexRecord;
 import com.edenrump.toolkit.models.Vertex;
 import com.edenrump.toolkit.ui.components.TitledContentPane;
 import com.edenrump.toolkit.ui.layout.DepthLayout;
@@ -19,9 +23,12 @@ import javafx.animation.KeyValue;
 import javafx.animation.PauseTransition;
 import javafx.animation.Timeline;
 import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.geometry.Bounds;
 import javafx.geometry.HorizontalDirection;
 import javafx.scene.Node;
 import javafx.scene.SnapshotParameters;
@@ -41,6 +48,7 @@ import javafx.util.Duration;
 
 import java.util.*;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.edenrump.toolkit.config.Defaults.ANIMATION_LENGTH;
@@ -67,8 +75,31 @@ public class DepthGraphDisplay {
 
     private Set<String> verticesToBeRemovedOnNextRefresh = new HashSet<>();
 
+    private Set<String> verticesToRecolor = new HashSet<>();
+
+    /**
+     * Batch state: how many batches are open, whether a display update was asked for inside them, and the graph and
+     * unsaved flag to return to if the outermost batch fails
+     */
+    private int openBatches = 0;
+    private boolean displayUpdatePending = false;
+    private GraphSnapshot stateBeforeBatch;
+    private boolean unsavedBeforeBatch;
+
 
     private BooleanProperty hasUnsavedContent = new SimpleBooleanProperty(false);
+    private ReadOnlyObjectWrapper<StructureReport> structureReport = new ReadOnlyObjectWrapper<>();
+
+    /**
+     * Graphs with more vertices than this are checked on a background thread
+     */
+    private static final int BACKGROUND_CHECK_SIZE = 5000;
+    /**
+     * The structure version of the graph last checked, and how many checks have been started, so that a background
+     * check overtaken by a later one is discarded
+     */
+    private long checkedStructureVersion = -1;
+    private long checksStarted = 0;
     private HorizontalDirection plottingDirection;
 
     Set<Predicate<Vertex>> visibleNodesFilters = new HashSet<>(Collections.singleton(entry -> true));
@@ -84,6 +115,7 @@ public class DepthGraphDisplay {
         setStyleOnDisplayContainer();
         addMouseEventsToDisplayPane();
         wrapDisplayAndPreparationPanesInGraphDisplay();
+        graph.addGraphListener(this::recordChangeForRecoloring);
 
         pauseAndThenRunMethod(Duration.seconds(2), this::setDisplayPaneToRefreshOnWindowResize); //pause is essential else stage is null
     }
@@ -190,6 +222,110 @@ public class DepthGraphDisplay {
         updateDisplay();
     }
 
+    /**
+     * Create nodes for vertices the graph has faulted in from its source, and let the nodes of vertices it has
+     * released fade out on the next update. Neither is an unsaved change.
+     *
+     * @param faultedIn the vertices returned by Graph.expand
+     * @param released  the ids returned by Graph.collapse
+     */
+    protected void showFaultedInVertices(List<Vertex> faultedIn, List<String> released) {
+        for (Vertex vertex : faultedIn) {
+            addNodeWithoutRefreshingDisplay(vertex.getId(), generateNodes_LinkToData(vertex));
+        }
+        for (String id : released) {
+            verticesToBeRemovedOnNextRefresh.add(id);
+            depthLayout.removeVertexById(id);
+        }
+    }
+
+    /**
+     * Run a set of mutations as a single batch. However many vertices are added, updated or deleted, the display is
+     * updated once, with one visibility diff, one layout pass and one set of animations, when the batch commits.
+     * <p>
+     * If the mutations throw, the graph and the display are returned to their state before the batch and the
+     * exception is rethrown. Batches may be nested; only the outermost one commits or rolls back.
+     *
+     * @param mutations the mutations to apply
+     */
+    public void runBatch(Runnable mutations) {
+        beginBatch();
+        try {
+            mutations.run();
+        } catch (RuntimeException e) {
+            rollbackBatch();
+            throw e;
+        }
+        commitBatch();
+    }
+
+    /**
+     * Open a batch. Every call must be matched by a call to commitBatch or rollbackBatch.
+     */
+    public void beginBatch() {
+        if (openBatches++ == 0) {
+            stateBeforeBatch = graph.snapshot();
+            unsavedBeforeBatch = hasUnsavedContent.get();
+        }
+    }
+
+    /**
+     * Close a batch, updating the display once if anything inside the batch asked for it
+     */
+    public void commitBatch() {
+        if (openBatches == 0) throw new IllegalStateException("No batch to commit");
+        if (--openBatches > 0) return;
+        stateBeforeBatch = null;
+        if (displayUpdatePending) {
+            displayUpdatePending = false;
+            updateDisplay();
+        }
+    }
+
+    /**
+     * Close a batch, undoing every change made to the graph since the outermost batch began
+     */
+    public void rollbackBatch() {
+        if (openBatches == 0) throw new IllegalStateException("No batch to roll back");
+        if (--openBatches > 0) return;
+
+        GraphSnapshot before = stateBeforeBatch;
+        GraphSnapshot after = graph.snapshot();
+        stateBeforeBatch = null;
+
+        for (VertexRecord added : after.getVertices()) {
+            if (!before.containsVertex(added.getId())) {
+                removeNodeWithoutRefreshingDisplay(added.getId());
+                displayNodesById.remove(added.getId());
+            }
+        }
+        before.forEachVertex(record -> {
+            if (!after.containsVertex(record.getId())) {
+                //the display node of a deleted vertex stays on screen until the next refresh, so it is reused
+                DataAndNodes nodes = generateNodes_LinkToData(record.toVertex());
+                TitledContentPane displayNode = getDisplayNodeById(record.getId());
+                if (displayNode != null) {
+                    nodes = new DataAndNodes(nodes.getVertex(), nodes.getPreparationNode(), displayNode);
+                }
+                verticesToBeRemovedOnNextRefresh.remove(record.getId());
+                addNodeWithoutRefreshingDisplay(record.getId(), nodes);
+            }
+        });
+        before.forEachVertex(record -> {
+            if (after.containsVertex(record.getId()) && after.getVertex(record.getId()) != record) {
+                graph.restoreVertex(record);
+                Vertex vertex = graph.getVertexById(record.getId());
+                updateNode(depthLayout.getPreparationNodeById(vertex.getVertexId()), vertex);
+                updateNode(getDisplayNodeById(vertex.getId()), vertex);
+            }
+        });
+
+        hasUnsavedContent.set(unsavedBeforeBatch);
+        unselectAllNodes();
+        displayUpdatePending = false;
+        updateDisplay();
+    }
+
     private void removeVertexFromMapsAndUnconnectOtherVertices(String vertexId) {
         removeNodeWithoutRefreshingDisplay(vertexId);
     }
@@ -202,11 +338,58 @@ public class DepthGraphDisplay {
         updateDisplay();
     }
 
+    /**
+     * Return the result of checking the structure of the graph, refreshed when the display is updated after a change
+     * to the structure of the graph. For large graphs the check runs in the background, so the report can lag
+     * slightly behind the display.
+     *
+     * @return the structure report property
+     */
+    public ReadOnlyObjectProperty<StructureReport> structureReportProperty() {
+        return structureReport.getReadOnlyProperty();
+    }
+
+    /**
+     * Update the layout and colours of the display. Inside a batch, the update is deferred until the batch commits.
+     */
     public void updateDisplay() {
+        if (openBatches > 0) {
+            displayUpdatePending = true;
+            return;
+        }
+        checkStructureIfChanged();
         updateLayout();
         updateColors();
     }
 
+    /**
+     * Check the structure of the graph if it has changed since it was last checked, off the FX thread for large
+     * graphs
+     */
+    private void checkStructureIfChanged() {
+        if (graph.getStructureVersion() == checkedStructureVersion) return;
+        checkedStructureVersion = graph.getStructureVersion();
+        long check = ++checksStarted;
+        if (graph.size() <= BACKGROUND_CHECK_SIZE) {
+            structureReport.set(graph.validate());
+            return;
+        }
+
+        Supplier<StructureReport> validation = graph.prepareValidation();
+        Task<StructureReport> checkTask = new Task<StructureReport>() {
+            @Override
+            protected StructureReport call() {
+                return validation.get();
+            }
+        };
+        checkTask.setOnSucceeded(event -> {
+            if (check == checksStarted) structureReport.set(checkTask.getValue());
+        });
+        Thread checkThread = new Thread(checkTask, "structure-check");
+        checkThread.setDaemon(true);
+        checkThread.start();
+    }
+
     NodeStatus visibilityStatusOfVertices;
 
     /**
@@ -223,7 +406,14 @@ public class DepthGraphDisplay {
         updateNodeVisibility();
         currentlyVisibleVerticesById = visibilityStatusOfVertices.shouldBeVisible;
 
-        depthLayout.layoutPreparationDisplay(currentlyVisibleVerticesById.stream().map(id -> graph.getVertexById(id)).collect(Collectors.toSet()));
+        GraphView visible = graph.view(currentlyVisibleVerticesById);
+        NavigableMap<Integer, List<Vertex>> visibleColumns = new TreeMap<>();
+        for (int depth : graph.getDepths()) {
+            List<Vertex> column = new ArrayList<>();
+            visible.forEachVertexAtDepth(depth, column::add);
+            if (!column.isEmpty()) visibleColumns.put(depth, column);
+        }
+        depthLayout.layoutPreparationDisplay(visibleColumns);
 
         for (String vertexToAppear : visibilityStatusOfVertices.verticesToAppear) {
             getDisplayNodeById(vertexToAppear).setOpacity(0);
@@ -240,6 +430,8 @@ public class DepthGraphDisplay {
         fadeOut.setOnFinished((removeNodes) -> {
             for (String id : visibilityStatusOfVertices.verticesToDisappear) {
                 displayOverlay.getChildren().remove(getDisplayNodeById(id));
+                //nodes of vertices that have left the graph are not needed again
+                if (graph.getVertexById(id) == null) displayNodesById.remove(id);
             }
             for (Node edge : visibilityStatusOfVertices.edgesToDisappear) {
                 displayOverlay.getChildren().remove(edge);
@@ -281,11 +473,32 @@ public class DepthGraphDisplay {
     }
 
     /**
-     * Update colours for all nodes based on the associated vertex data
+     * Remember which vertices need their colour re-applying on the next display update
+     *
+     * @param change the change made to the graph
+     */
+    private void recordChangeForRecoloring(GraphChange change) {
+        switch (change.getType()) {
+            case VERTEX_ADDED:
+                verticesToRecolor.add(change.getVertexId());
+                break;
+            case PROPERTY_CHANGED:
+                if ("color".equals(change.getPropertyName())) verticesToRecolor.add(change.getVertexId());
+                break;
+            case CLEARED:
+                verticesToRecolor.clear();
+                break;
+        }
+    }
+
+    /**
+     * Update colours for nodes whose vertex was added or had its colour changed since the last update
      */
     private void updateColors() {
-        for (String id : graph.getAllVertexIds()) {
+        for (String id : verticesToRecolor) {
             Vertex vertex = graph.getVertexById(id);
+            TitledContentPane node = getDisplayNodeById(id);
+            if (vertex == null || node == null) continue;
             if (vertex.hasProperty("color")) {
                 Color color;
                 try {
@@ -295,13 +508,13 @@ public class DepthGraphDisplay {
                     //TODO: log error
                 }
 
-                TitledContentPane node = getDisplayNodeById(id);
                 node.setHeaderColor(color);
                 if (color.getBrightness() < 0.7) {
                     node.setTextColor(Color.WHITE);
                 }
             }
         }
+        verticesToRecolor.clear();
     }
 
     /**
@@ -318,16 +531,12 @@ public class DepthGraphDisplay {
     private void updateNodeVisibility() {
         visibilityStatusOfVertices = new NodeStatus();
         //find all nodes that should be visible
-        visibilityStatusOfVertices.shouldBeVisible = new HashSet<>(graph.getAllVertexIds());
-
         Predicate<Vertex> allPredicates = visibleNodesFilters.stream()
                 .reduce(p -> true, Predicate::and);
 
-        visibilityStatusOfVertices.shouldBeVisible = visibilityStatusOfVertices.shouldBeVisible.stream()
-                .map(graph::getVertexById)
-                .filter(allPredicates)
-                .map(Vertex::getId)
-                .collect(Collectors.toSet());
+        Set<String> shouldBeVisible = new HashSet<>();
+        graph.view(allPredicates).forEachVertex(vertex -> shouldBeVisible.add(vertex.getId()));
+        visibilityStatusOfVertices.shouldBeVisible = shouldBeVisible;
 
         //nodes that should be visible but aren't
         visibilityStatusOfVertices.verticesToAppear = new HashSet<>(visibilityStatusOfVertices.shouldBeVisible);
@@ -491,6 +700,56 @@ public class DepthGraphDisplay {
         lowlightUnselectedNodes();
     }
 
+    /**
+     * Select the given vertices as the results of a search and scroll the display to bring the focused one into view.
+     * Vertices hidden by the visibility filters are left out.
+     *
+     * @param vertexIds the ids of the matching vertices
+     * @param focusedId the id of the match to bring into view, or null
+     */
+    public void showSearchResults(List<String> vertexIds, String focusedId) {
+        List<String> visible = new ArrayList<>();
+        for (String id : vertexIds) {
+            if (currentlyVisibleVerticesById.contains(id)) visible.add(id);
+        }
+        boolean focusVisible = focusedId != null && currentlyVisibleVerticesById.contains(focusedId);
+
+        resetHighlightingOnAllNodes();
+        vertexSelection.setAllSelectedVertexIds(visible);
+        vertexSelection.setLastSelectedVertexId(focusVisible ? focusedId : null);
+        highlightSelectedNodes();
+        if (focusVisible) scrollToVertex(focusedId);
+    }
+
+    /**
+     * Scroll the display so that the node for a vertex is as near the centre of the viewport as the content allows
+     *
+     * @param vertexId the id of the vertex
+     */
+    public void scrollToVertex(String vertexId) {
+        TitledContentPane displayNode = getDisplayNodeById(vertexId);
+        Node content = graphDisplay.getContent();
+        if (displayNode == null || content == null) return;
+
+        Bounds nodeBounds = content.sceneToLocal(displayNode.localToScene(displayNode.getBoundsInLocal()));
+        Bounds contentBounds = content.getLayoutBounds();
+        Bounds viewport = graphDisplay.getViewportBounds();
+        graphDisplay.setHvalue(scrollValue((nodeBounds.getMinX() + nodeBounds.getMaxX()) / 2,
+                contentBounds.getWidth(), viewport.getWidth(), graphDisplay.getHmin(), graphDisplay.getHmax()));
+        graphDisplay.setVvalue(scrollValue((nodeBounds.getMinY() + nodeBounds.getMaxY()) / 2,
+                contentBounds.getHeight(), viewport.getHeight(), graphDisplay.getVmin(), graphDisplay.getVmax()));
+    }
+
+    /**
+     * Convert a position in the content to the scroll value that centres it in the viewport
+     */
+    private static double scrollValue(double centre, double contentSize, double viewportSize, double min, double max) {
+        double scrollable = contentSize - viewportSize;
+        if (scrollable <= 0) return min;
+        double fraction = Math.max(0, Math.min(1, (centre - viewportSize / 2) / scrollable));
+        return min + fraction * (max - min);
+    }
+
     private DataAndNodes generateNodes_LinkToData(Vertex data) {
         TitledContentPane prepNode = createTitledContentPaneFromVertex(data);
         TitledContentPane displayNode = createTitledContentPaneFromVertex(data);
@@ -523,7 +782,7 @@ public class DepthGraphDisplay {
 
         Vertex vertexClicked = graph.getVertexById(vertexId);
         if (event.isShiftDown() && vertexSelection.getLastSelectedVertexId() != null) {
-            List<Vertex> vertices = Graph.findShortestPath(graph.getVertexById(vertexId), vertexClicked, graph.getAllVertexData());
+            List<Vertex> vertices = graph.findShortestPath(vertexSelection.getLastSelectedVertexId(), vertexId);
             vertexSelection.setAllSelectedVertexIds(vertices.stream().map(Vertex::getId).collect(Collectors.toList()));
             preventAdditionalActions = true;
         } else if (event.isControlDown()) {
@@ -677,8 +936,12 @@ public class DepthGraphDisplay {
 
     protected Graph graph = new Graph();
 
+    public Graph getGraph() {
+        return graph;
+    }
+
     public ReadOnlyObjectWrapper<Vertex> getReadOnlyVertex(String id) {
-        return graph.getReadOnlyVertex(id);
+        return new ReadOnlyObjectWrapper<>(graph.getVertexById(id));
     }
 
     public List<Vertex> getAllVertexData() {
@@ -10,6 +10,7 @@
 package com.edenrump.toolkit.ui.layout;
 
 import com.edenrump.toolkit.models.Vertex;
+import com.edenrump.toolkit.models.VertexId;
 import com.edenrump.toolkit.ui.components.TitledContentPane;
 import com.edenrump.toolkit.ui.contracts.DisplaysGraph;
 import javafx.geometry.HorizontalDirection;
@@ -21,13 +22,12 @@ import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class DepthLayout implements DisplaysGraph {
 
     private HBox preparationContainer = new HBox();
 
-    Map<String, Region> nodesById;
+    Map<VertexId, Region> nodesById;
 
     @Override
     public void addVertex(Vertex vertex) {
@@ -36,12 +36,12 @@ public class DepthLayout implements DisplaysGraph {
 
     @Override
     public void removeVertex(Vertex vertex) {
-        removeVertexById(vertex.getId());
+        nodesById.remove(vertex.getVertexId());
     }
 
     @Override
     public void removeVertexById(String id) {
-        nodesById.remove(id);
+        nodesById.remove(VertexId.of(id));
     }
 
     HorizontalDirection plottingDirection;
@@ -63,28 +63,27 @@ public class DepthLayout implements DisplaysGraph {
         preparationContainer.getChildren().clear();
     }
 
-    private void removeVertex(String vertexId) {
-        nodesById.remove(vertexId);
+    public TitledContentPane getPreparationNodeById(String id) {
+        return getPreparationNodeById(VertexId.of(id));
     }
 
-    public TitledContentPane getPreparationNodeById(String id) {
+    public TitledContentPane getPreparationNodeById(VertexId id) {
         return (TitledContentPane) nodesById.get(id);
     }
 
-    public void layoutPreparationDisplay(Set<Vertex> vertices) {
+    /**
+     * Lay out the preparation display as one column per depth
+     *
+     * @param columns the vertices to show at each depth, each list already in priority order
+     */
+    public void layoutPreparationDisplay(NavigableMap<Integer, List<Vertex>> columns) {
         preparationContainer.getChildren().clear();
-        vertices.stream()
-                .map(Vertex::getDepth)
-                .distinct()
-                .sorted(plottingDirection == HorizontalDirection.LEFT ? Comparator.reverseOrder() : Comparator.naturalOrder())
-                .collect(Collectors.toList())
-                .forEach(depth -> {
-                    List<Vertex> prepNodes = new ArrayList<>();
-                    vertices.stream()
-                            .filter(vertex -> vertex.getDepth() == depth)
-                            .forEach(prepNodes::add);
-                    preparationContainer.getChildren().add(createPrepColumn(prepNodes));
-                });
+        Collection<List<Vertex>> ordered = plottingDirection == HorizontalDirection.LEFT ?
+                columns.descendingMap().values() :
+                columns.values();
+        for (List<Vertex> column : ordered) {
+            preparationContainer.getChildren().add(createPrepColumn(column));
+        }
     }
 
     private VBox createPrepColumn(List<Vertex> vertices) {
@@ -92,18 +91,16 @@ public class DepthLayout implements DisplaysGraph {
         body.setSpacing(35);
         body.setAlignment(Pos.TOP_CENTER);
 
-        vertices.stream()
-                .sorted(Comparator.comparingInt(Vertex::getPriority))
-                .forEach(vertex -> {
-                    body.getChildren().add(getPreparationNodeById(vertex.getId()));
-                });
+        for (Vertex vertex : vertices) {
+            body.getChildren().add(getPreparationNodeById(vertex.getVertexId()));
+        }
 
         return body;
     }
 
     public void addNode(String vertexId, TitledContentPane preparationNode) {
         preparationContainer.getChildren().add(preparationNode);
-        nodesById.put(vertexId, preparationNode);
+        nodesById.put(VertexId.of(vertexId), preparationNode);
     }
 
     public Node getContainer() {
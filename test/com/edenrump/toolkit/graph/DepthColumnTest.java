@@ -0,0 +1,106 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DepthColumnTest {
+
+    @Test
+    public void keepsItsOrderUnderRepeatedInsertionAtOnePlace() {
+        Graph graph = new Graph();
+        List<String> expected = new ArrayList<>();
+        add(graph, expected, "first", ColumnPosition.LAST);
+        add(graph, expected, "last", ColumnPosition.LAST);
+        for (int i = 0; i < 5000; i++) {
+            String id = "v" + i;
+            graph.addVertex(new Vertex(id, id, new ArrayList<>(), 0, graph.priorityAfter("first")));
+            expected.add(1, id);
+        }
+        assertColumn(graph, expected);
+    }
+
+    @Test
+    public void matchesAListUnderRandomEdits() {
+        for (int seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            Graph graph = new Graph();
+            List<String> expected = new ArrayList<>();
+            int nextId = 0;
+            for (int step = 0; step < 3000; step++) {
+                String id = "v" + nextId++;
+                int action = expected.size() < 2 ? 0 : random.nextInt(6);
+                if (action == 0) {
+                    add(graph, expected, id, random.nextBoolean() ? ColumnPosition.FIRST : ColumnPosition.LAST);
+                } else if (action <= 2) {
+                    //insert next to a member, most often at the same few places so that labels run out
+                    int at = random.nextInt(4) == 0 ? random.nextInt(expected.size()) : expected.size() / 2;
+                    boolean after = random.nextBoolean();
+                    String anchor = expected.get(at);
+                    int priority = after ? graph.priorityAfter(anchor) : graph.priorityBefore(anchor);
+                    graph.addVertex(new Vertex(id, id, new ArrayList<>(), 0, priority));
+                    expected.add(after ? at + 1 : at, id);
+                } else if (action == 3) {
+                    String moved = expected.remove(random.nextInt(expected.size()));
+                    String anchor = expected.get(random.nextInt(expected.size()));
+                    boolean after = random.nextBoolean();
+                    if (after) graph.moveAfter(moved, anchor);
+                    else graph.moveBefore(moved, anchor);
+                    expected.add(expected.indexOf(anchor) + (after ? 1 : 0), moved);
+                } else if (action == 4) {
+                    graph.removeVertex(expected.remove(random.nextInt(expected.size())));
+                } else {
+                    assertRange(graph, expected, random);
+                }
+            }
+            assertColumn(graph, expected);
+        }
+    }
+
+    private static void add(Graph graph, List<String> expected, String id, ColumnPosition position) {
+        graph.addVertex(new Vertex(id, id, new ArrayList<>(), 0, graph.calculatePriority(0, position)));
+        expected.add(position == ColumnPosition.FIRST ? 0 : expected.size(), id);
+    }
+
+    private static void assertColumn(Graph graph, List<String> expected) {
+        List<String> actual = new ArrayList<>();
+        int previousPriority = Integer.MIN_VALUE;
+        for (Vertex vertex : graph.getVerticesAtDepth(0)) {
+            assertTrue("priorities are distinct and increasing", vertex.getPriority() > previousPriority);
+            previousPriority = vertex.getPriority();
+            actual.add(vertex.getId());
+        }
+        assertEquals(expected, actual);
+    }
+
+    private static void assertRange(Graph graph, List<String> expected, Random random) {
+        assertColumn(graph, expected);
+        List<Vertex> column = graph.getVerticesAtDepth(0);
+        int from = column.get(random.nextInt(column.size())).getPriority() + random.nextInt(3) - 1;
+        int to = (int) Math.min(Integer.MAX_VALUE, (long) from + random.nextInt(Integer.MAX_VALUE / 4));
+        List<String> inRange = new ArrayList<>();
+        for (Vertex vertex : column) {
+            if (vertex.getPriority() >= from && vertex.getPriority() <= to) inRange.add(vertex.getId());
+        }
+        List<String> actual = new ArrayList<>();
+        for (Vertex vertex : graph.getVerticesAtDepth(0, from, to)) {
+            actual.add(vertex.getId());
+        }
+        assertEquals(inRange, actual);
+    }
+}
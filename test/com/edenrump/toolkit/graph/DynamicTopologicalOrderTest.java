@@ -0,0 +1,124 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.edenrump.toolkit.graph.TestVertices.vertex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamicTopologicalOrderTest {
+
+    @Test
+    public void refusesAConnectionThatClosesACycle() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a"));
+        graph.addVertex(vertex("c", 2, "b"));
+
+        assertTrue(graph.wouldCreateCycle("a", "c"));
+        assertFalse(graph.addConnection("a", "c"));
+        assertFalse(graph.getVertexById("a").getConnectedVertices().contains("c"));
+        assertTrue(graph.addConnection("c", "a"));
+        assertTrue(graph.validate().isAcyclic());
+    }
+
+    @Test
+    public void acceptsConnectionsThatRunWithTheOrder() {
+        Graph graph = new Graph();
+        for (int i = 0; i < 50; i++) {
+            graph.addVertex(vertex("v" + i, i));
+        }
+        for (int i = 49; i > 0; i--) {
+            assertTrue(graph.addConnection("v" + i, "v" + (i - 1)));
+        }
+        assertEquals(50, graph.validate().getTopologicalOrder().size());
+        assertFalse(graph.addConnection("v0", "v49"));
+    }
+
+    @Test
+    public void matchesAFullCheckOnRandomEdits() {
+        for (int seed = 0; seed < 30; seed++) {
+            Random random = new Random(seed);
+            Graph graph = new Graph();
+            int size = 5 + random.nextInt(30);
+            for (int i = 0; i < size; i++) {
+                graph.addVertex(vertex("v" + i, random.nextInt(4)));
+            }
+            for (int step = 0; step < 300; step++) {
+                String from = "v" + random.nextInt(size);
+                String to = "v" + random.nextInt(size);
+                int action = random.nextInt(10);
+                if (action < 6) {
+                    if (graph.getVertexById(from).getConnectedVertices().contains(to)) continue;
+                    boolean wasAcyclic = graph.validate().isAcyclic();
+                    boolean closesCycle = !withConnection(graph, from, to).validate().isAcyclic();
+                    boolean predicted = graph.wouldCreateCycle(from, to);
+                    boolean added = graph.addConnection(from, to);
+                    if (wasAcyclic) {
+                        String message = "seed " + seed + " step " + step + " " + from + " -> " + to;
+                        assertEquals(message, closesCycle, predicted);
+                        assertEquals(message, !closesCycle, added);
+                        assertTrue(message, graph.validate().isAcyclic());
+                    }
+                } else if (action < 9) {
+                    List<String> connections = graph.getVertexById(from).getConnectedVertices();
+                    if (!connections.isEmpty()) {
+                        graph.removeConnection(from, connections.get(random.nextInt(connections.size())));
+                    }
+                } else {
+                    graph.getVertexById(from).setDepth(random.nextInt(4));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void restoresConnectionsRefusedByTheCheckMidwayThroughARollback() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("x", 0));
+        graph.addVertex(vertex("y", 1, "x"));
+        graph.addVertex(vertex("z", 2, "y"));
+        GraphSnapshot before = graph.snapshot();
+
+        graph.removeConnection("z", "y");
+        assertTrue(graph.addConnection("x", "z"));
+        assertFalse(graph.addConnection("z", "y"));
+
+        graph.restoreVertex(before.getVertex("z"));
+        assertEquals(Arrays.asList("y"), graph.getVertexById("z").getConnectedVertices());
+        assertFalse(graph.validate().isAcyclic());
+        graph.restoreVertex(before.getVertex("x"));
+        assertTrue(graph.getVertexById("x").getConnectedVertices().isEmpty());
+        assertTrue(graph.validate().isAcyclic());
+        assertFalse(graph.addConnection("x", "z"));
+    }
+
+    /**
+     * Copy a graph with one more connection, added without any check
+     */
+    private static Graph withConnection(Graph graph, String fromId, String toId) {
+        Graph copy = new Graph();
+        for (Vertex vertex : graph.getAllVertexData()) {
+            List<String> connections = new ArrayList<>(vertex.getConnectedVertices());
+            if (vertex.getId().equals(fromId)) connections.add(toId);
+            copy.addVertex(new Vertex(vertex.getName(), vertex.getId(), connections, vertex.getDepth(), 0));
+        }
+        return copy;
+    }
+}
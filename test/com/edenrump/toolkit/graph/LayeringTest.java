@@ -0,0 +1,104 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.edenrump.toolkit.graph.TestVertices.vertex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LayeringTest {
+
+    @Test
+    public void placesEachVertexOneBelowItsDeepestUpstreamVertex() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            Graph graph = new Graph();
+            int size = 2 + random.nextInt(60);
+            for (int i = 0; i < size; i++) {
+                List<String> upstream = new ArrayList<>();
+                for (int k = random.nextInt(3); k > 0 && i > 0; k--) {
+                    upstream.add("v" + random.nextInt(i));
+                }
+                graph.addVertex(new Vertex("v" + i, "v" + i, upstream, 0, 0));
+            }
+
+            graph.assignDepths();
+
+            for (Vertex vertex : graph.getAllVertexData()) {
+                int expected = 0;
+                for (String upstreamId : vertex.getConnectedVertices()) {
+                    expected = Math.max(expected, graph.getVertexById(upstreamId).getDepth() + 1);
+                }
+                assertEquals("seed " + seed + " " + vertex.getId(), expected, vertex.getDepth());
+            }
+            assertTrue(graph.validate().isValid());
+        }
+    }
+
+    @Test
+    public void orientsMutualConnectionsAwayFromTheRoot() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("root", 0, "a"));
+        graph.addVertex(vertex("a", 0, "root", "b"));
+        graph.addVertex(vertex("b", 0, "a", "c"));
+        graph.addVertex(vertex("c", 0, "b"));
+        graph.addVertex(vertex("d", 0, "root"));
+
+        graph.assignDepths();
+
+        assertEquals(0, graph.getVertexById("root").getDepth());
+        assertEquals(1, graph.getVertexById("a").getDepth());
+        assertEquals(2, graph.getVertexById("b").getDepth());
+        assertEquals(3, graph.getVertexById("c").getDepth());
+        assertEquals(1, graph.getVertexById("d").getDepth());
+        assertTrue(graph.validate().isValid());
+    }
+
+    @Test
+    public void relayersOnlyTheDescendantsOfAnEditedVertex() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a"));
+        graph.addVertex(vertex("c", 2, "b"));
+        graph.addVertex(vertex("d", 3, "c"));
+        graph.addVertex(vertex("other", 5));
+
+        graph.getVertexById("b").setDepth(4);
+        assertEquals(2, graph.relayerDescendants("b"));
+
+        assertEquals(0, graph.getVertexById("a").getDepth());
+        assertEquals(4, graph.getVertexById("b").getDepth());
+        assertEquals(5, graph.getVertexById("c").getDepth());
+        assertEquals(6, graph.getVertexById("d").getDepth());
+        assertEquals(5, graph.getVertexById("other").getDepth());
+    }
+
+    @Test
+    public void leavesVerticesOnCyclesWhereTheyAre() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", 7, "c"));
+        graph.addVertex(vertex("b", 8, "a"));
+        graph.addVertex(vertex("c", 9, "b"));
+        graph.addVertex(vertex("d", 0, "c"));
+
+        graph.assignDepths();
+
+        assertEquals(7, graph.getVertexById("a").getDepth());
+        assertEquals(8, graph.getVertexById("b").getDepth());
+        assertEquals(9, graph.getVertexById("c").getDepth());
+    }
+}
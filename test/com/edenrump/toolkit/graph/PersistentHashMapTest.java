@@ -0,0 +1,131 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PersistentHashMapTest {
+
+    @Test
+    public void updatesLeaveEarlierVersionsUnchanged() {
+        PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> one = empty.plus("a", 1);
+        PersistentHashMap<String, Integer> two = one.plus("b", 2);
+        PersistentHashMap<String, Integer> replaced = two.plus("a", 3);
+        PersistentHashMap<String, Integer> removed = replaced.minus("b");
+
+        assertEquals(0, empty.size());
+        assertNull(empty.get("a"));
+        assertEquals(Integer.valueOf(1), one.get("a"));
+        assertNull(one.get("b"));
+        assertEquals(Integer.valueOf(1), two.get("a"));
+        assertEquals(Integer.valueOf(3), replaced.get("a"));
+        assertEquals(2, replaced.size());
+        assertEquals(1, removed.size());
+        assertNull(removed.get("b"));
+        assertEquals(Integer.valueOf(2), replaced.get("b"));
+    }
+
+    @Test
+    public void unchangedUpdatesReturnTheSameMap() {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>empty().plus("a", 1);
+        assertSame(map, map.plus("a", 1));
+        assertSame(map, map.minus("b"));
+        assertSame(PersistentHashMap.empty(), map.minus("a"));
+    }
+
+    @Test
+    public void keepsKeysWithTheSameHashApart() {
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.plus(new Key(i, 7), i);
+        }
+        assertEquals(10, map.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), map.get(new Key(i, 7)));
+        }
+        for (int i = 0; i < 10; i += 2) {
+            map = map.minus(new Key(i, 7));
+        }
+        assertEquals(5, map.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(new Key(i, 7)));
+        }
+    }
+
+    @Test
+    public void matchesAHashMapUnderRandomUpdates() {
+        Random random = new Random(8);
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        Map<Key, Integer> expected = new HashMap<>();
+        List<PersistentHashMap<Key, Integer>> versions = new ArrayList<>();
+        List<Map<Key, Integer>> expectedVersions = new ArrayList<>();
+        for (int step = 0; step < 20000; step++) {
+            //a quarter of the keys share eight hashes, so collision nodes are exercised alongside bitmap nodes
+            int id = random.nextInt(3000);
+            Key key = new Key(id, id % 4 == 0 ? id % 8 : id * 0x9E3779B1);
+            if (random.nextInt(3) == 0) {
+                map = map.minus(key);
+                expected.remove(key);
+            } else {
+                int value = random.nextInt(100);
+                map = map.plus(key, value);
+                expected.put(key, value);
+            }
+            assertEquals(expected.size(), map.size());
+            if (step % 1000 == 0) {
+                versions.add(map);
+                expectedVersions.add(new HashMap<>(expected));
+            }
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(expectedVersions.get(i), toMap(versions.get(i)));
+        }
+    }
+
+    private static <K, V> Map<K, V> toMap(PersistentHashMap<K, V> map) {
+        Map<K, V> copy = new HashMap<>();
+        map.forEach((key, value) -> assertNull("key visited twice", copy.put(key, value)));
+        assertEquals(map.size(), copy.size());
+        for (Map.Entry<K, V> entry : copy.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        return copy;
+    }
+
+    /**
+     * Key whose hash is chosen by the test
+     */
+    private static final class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id && ((Key) o).hash == hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PropertyColumnsTest {
+
+    @Test
+    public void holdsPropertiesByRow() {
+        PropertyColumns columns = new PropertyColumns();
+        assertNull(columns.put(0, "color", "red"));
+        assertNull(columns.put(5, "color", "red"));
+        assertNull(columns.put(5, "url", "http://example.org"));
+
+        assertEquals("red", columns.put(0, "color", "blue"));
+        assertEquals("blue", columns.get(0, "color"));
+        assertEquals("red", columns.get(5, "color"));
+        assertFalse(columns.contains(1, "color"));
+        assertNull(columns.get(1, "color"));
+        assertNull(columns.get(0, "missing"));
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("color", "red");
+        expected.put("url", "http://example.org");
+        assertEquals(expected, columns.toMap(5));
+
+        assertTrue(columns.remove(5, "color"));
+        assertFalse(columns.remove(5, "color"));
+        columns.clearRow(5);
+        assertTrue(columns.toMap(5).isEmpty());
+        assertEquals("blue", columns.get(0, "color"));
+    }
+
+    @Test
+    public void keepsEmptyAndNullValuesApart() {
+        PropertyColumns columns = new PropertyColumns();
+        columns.put(0, "note", "");
+        columns.put(1, "note", null);
+        assertEquals("", columns.get(0, "note"));
+        assertTrue(columns.contains(1, "note"));
+        assertNull(columns.get(1, "note"));
+        assertNull(columns.put(1, "note", "text"));
+        assertEquals("text", columns.get(1, "note"));
+    }
+
+    @Test
+    public void recyclesValuesEditedAway() {
+        PropertyColumns columns = new PropertyColumns();
+        for (int round = 0; round < 1000; round++) {
+            for (int row = 0; row < 4; row++) {
+                columns.put(row, "status", "status " + round + "/" + row);
+            }
+        }
+        for (int row = 0; row < 4; row++) {
+            assertEquals("status 999/" + row, columns.get(row, "status"));
+        }
+        columns.put(0, "status", "status 999/1");
+        assertEquals("status 999/1", columns.get(1, "status"));
+        columns.remove(1, "status");
+        assertEquals("status 999/1", columns.get(0, "status"));
+    }
+
+    @Test
+    public void matchesMapsAfterRandomEdits() {
+        Random random = new Random(18);
+        PropertyColumns columns = new PropertyColumns();
+        List<Map<String, String>> expected = new ArrayList<>();
+        String[] names = {"color", "url", "note", "status"};
+        for (int step = 0; step < 50000; step++) {
+            int row = random.nextInt(600);
+            while (expected.size() <= row) expected.add(new HashMap<>());
+            String name = names[random.nextInt(names.length)];
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.get(row).containsKey(name), columns.remove(row, name));
+                expected.get(row).remove(name);
+            } else {
+                // Colours repeat and stay encoded; hyperlinks hardly repeat, so their column falls back
+                String value = name.equals("url") ? "http://x/" + random.nextInt(100000) :
+                        name.equals("color") ? "c" + random.nextInt(8) : name + random.nextInt(300);
+                assertEquals(expected.get(row).get(name), columns.put(row, name, value));
+                expected.get(row).put(name, value);
+            }
+            if (step % 10000 == 9999) {
+                for (int check = 0; check < expected.size(); check++) {
+                    assertEquals(expected.get(check), columns.toMap(check));
+                }
+            }
+        }
+    }
+}
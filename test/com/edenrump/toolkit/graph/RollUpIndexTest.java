@@ -0,0 +1,184 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.edenrump.toolkit.graph.TestVertices.vertex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RollUpIndexTest {
+
+    private Graph graph;
+    private RollUpIndex<Set<String>> colours;
+
+    @Before
+    public void setUp() {
+        graph = new Graph();
+        colours = graph.addRollUp(RollUps.propertyValues("color"));
+    }
+
+    @Test
+    public void rollsUpThroughACycle() {
+        //a -> b -> c -> d -> b, where d lists b against depth so that the connection is one-way
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a", "d"));
+        graph.addVertex(vertex("c", 2, "b"));
+        Vertex d = vertex("d", 3, "c");
+        d.addProperty("color", "red");
+        graph.addVertex(d);
+        assertFalse(graph.validate().isAcyclic());
+
+        assertEquals(set("red"), colours.get("a"));
+        assertEquals(set("red"), colours.get("b"));
+        assertEquals(set("red"), colours.get("c"));
+        assertEquals(set("red"), colours.get("d"));
+    }
+
+    @Test
+    public void valuesDoNotDependOnTheOrderOfQueries() {
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a", "d"));
+        graph.addVertex(vertex("c", 2, "b"));
+        graph.addVertex(vertex("d", 3, "c"));
+        graph.addVertex(vertex("e", 4, "c"));
+        graph.getVertexById("e").addProperty("color", "blue");
+
+        assertEquals(set("blue"), colours.get("c"));
+        assertEquals(set("blue"), colours.get("a"));
+        assertEquals(set("blue"), colours.get("d"));
+    }
+
+    @Test
+    public void changesReachEveryVertexOnACycle() {
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a", "c"));
+        graph.addVertex(vertex("c", 2, "b"));
+        assertEquals(set(), colours.get("a"));
+
+        graph.getVertexById("c").addProperty("color", "green");
+        assertEquals(set("green"), colours.get("b"));
+        assertEquals(set("green"), colours.get("a"));
+
+        graph.removeConnection("b", "c");
+        graph.getVertexById("b").addProperty("color", "red");
+        assertEquals(set("green"), colours.get("c"));
+        assertEquals(set("red", "green"), colours.get("a"));
+    }
+
+    @Test
+    public void matchesAFullSearchOnRandomGraphs() {
+        for (int seed = 0; seed < 40; seed++) {
+            setUp();
+            Random random = new Random(seed);
+            int size = 5 + random.nextInt(40);
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                ids.add("v" + i);
+            }
+            for (String id : ids) {
+                graph.addVertex(randomVertex(id, ids, random));
+            }
+
+            for (int step = 0; step < 60; step++) {
+                List<String> queried = new ArrayList<>(ids);
+                Collections.shuffle(queried, random);
+                for (String id : queried.subList(0, 1 + random.nextInt(queried.size()))) {
+                    if (graph.getVertexById(id) == null) continue;
+                    assertEquals("seed " + seed + " step " + step + " vertex " + id, expectedColours(id), colours.get(id));
+                }
+                mutate(ids, random);
+            }
+        }
+    }
+
+    private void mutate(List<String> ids, Random random) {
+        String id = ids.get(random.nextInt(ids.size()));
+        Vertex vertex = graph.getVertexById(id);
+        switch (random.nextInt(6)) {
+            case 0:
+                if (vertex != null) graph.removeVertex(id);
+                else graph.addVertex(randomVertex(id, ids, random));
+                break;
+            case 1:
+                if (vertex != null) vertex.setDepth(random.nextInt(5));
+                break;
+            case 2:
+                if (vertex != null) graph.addConnection(id, ids.get(random.nextInt(ids.size())));
+                break;
+            case 3:
+                if (vertex != null && !vertex.getConnectedVertices().isEmpty()) {
+                    List<String> connections = vertex.getConnectedVertices();
+                    graph.removeConnection(id, connections.get(random.nextInt(connections.size())));
+                }
+                break;
+            case 4:
+                if (vertex != null) vertex.overwriteProperty("color", randomColour(random));
+                break;
+            default:
+                if (vertex != null) vertex.removeProperty("color");
+        }
+    }
+
+    /**
+     * Collect the colours of every vertex reachable from a vertex along the connections oriented by depth, without
+     * any of the graph's indexes
+     */
+    private Set<String> expectedColours(String id) {
+        Map<String, List<String>> down = new HashMap<>();
+        for (Vertex vertex : graph.getAllVertexData()) {
+            for (String connectedId : vertex.getConnectedVertices()) {
+                Vertex connected = graph.getVertexById(connectedId);
+                if (connected == null || connected == vertex) continue;
+                if (connected.getConnectedVertices().contains(vertex.getId())) {
+                    if (connected.getDepth() < vertex.getDepth()) {
+                        down.computeIfAbsent(connectedId, k -> new ArrayList<>()).add(vertex.getId());
+                    }
+                } else {
+                    down.computeIfAbsent(connectedId, k -> new ArrayList<>()).add(vertex.getId());
+                }
+            }
+        }
+        Set<String> reached = new HashSet<>(Collections.singleton(id));
+        Deque<String> queue = new ArrayDeque<>(reached);
+        Set<String> colours = new HashSet<>();
+        while (!queue.isEmpty()) {
+            Vertex vertex = graph.getVertexById(queue.poll());
+            if (vertex.hasProperty("color")) colours.add(vertex.getProperty("color"));
+            for (String next : down.getOrDefault(vertex.getId(), Collections.emptyList())) {
+                if (reached.add(next)) queue.add(next);
+            }
+        }
+        return colours;
+    }
+
+    private static Vertex randomVertex(String id, List<String> ids, Random random) {
+        List<String> connections = new ArrayList<>();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            connections.add(ids.get(random.nextInt(ids.size())));
+        }
+        Vertex vertex = new Vertex(id, id, connections, random.nextInt(5), 0);
+        if (random.nextInt(3) == 0) vertex.addProperty("color", randomColour(random));
+        return vertex;
+    }
+
+    private static String randomColour(Random random) {
+        return new String[]{"red", "green", "blue"}[random.nextInt(3)];
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static com.edenrump.toolkit.graph.TestVertices.vertex;
+import static org.junit.Assert.*;
+
+public class StructureReportTest {
+
+    @Test
+    public void ordersAWellFormedGraph() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a"));
+        graph.addVertex(vertex("c", 2, "b", "a"));
+
+        StructureReport report = graph.validate();
+        assertTrue(report.isValid());
+        assertEquals(Arrays.asList("a", "b", "c"), report.getTopologicalOrder());
+    }
+
+    @Test
+    public void reportsEachKindOfProblem() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a", "d"));
+        graph.addVertex(vertex("c", 2, "b"));
+        graph.addVertex(vertex("d", 3, "c", "missing"));
+        graph.addVertex(vertex("e", 0, "f"));
+        graph.addVertex(vertex("f", 0, "e"));
+
+        StructureReport report = graph.validate();
+        assertEquals(EnumSet.allOf(StructureReport.Problem.class), report.getProblems());
+        assertEquals(Arrays.asList("b", "c", "d"), sorted(report.getCyclicVertices()));
+        assertEquals(3, report.getExampleCycle().size());
+        assertEquals(1, report.getLevelConnections().size());
+        assertEquals("d", report.getConnectionsAgainstDepth().get(0).getToId());
+        assertEquals("missing", report.getDanglingConnections().get(0).getToId());
+    }
+
+    @Test
+    public void isOnlyCheckedAgainWhenTheStructureChanges() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a"));
+        StructureReport report = graph.validate();
+        long structureVersion = graph.getStructureVersion();
+
+        graph.getVertexById("b").setName("renamed");
+        graph.getVertexById("b").setPriority(5);
+        graph.getVertexById("b").addProperty("color", "red");
+        assertEquals(structureVersion, graph.getStructureVersion());
+        assertSame(report, graph.validate());
+
+        graph.getVertexById("b").setDepth(0);
+        assertNotEquals(structureVersion, graph.getStructureVersion());
+        assertEquals(1, graph.validate().getConnectionsAgainstDepth().size());
+    }
+
+    @Test
+    public void preparedChecksIgnoreLaterChanges() throws InterruptedException {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", 0));
+        graph.addVertex(vertex("b", 1, "a"));
+        Supplier<StructureReport> check = graph.prepareValidation();
+
+        graph.getVertexById("b").setDepth(0);
+        graph.addVertex(vertex("c", 2, "gone"));
+
+        StructureReport[] report = new StructureReport[1];
+        Thread thread = new Thread(() -> report[0] = check.get());
+        thread.start();
+        thread.join();
+        assertTrue(report[0].isValid());
+        assertEquals(Arrays.asList("a", "b"), report[0].getTopologicalOrder());
+        assertFalse(graph.validate().isValid());
+    }
+
+    private static List<String> sorted(List<String> ids) {
+        List<String> copy = new ArrayList<>(ids);
+        Collections.sort(copy);
+        return copy;
+    }
+}
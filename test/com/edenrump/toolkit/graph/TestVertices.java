@@ -0,0 +1,35 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+
+import java.util.Arrays;
+
+/**
+ * Vertices for the graph tests
+ */
+final class TestVertices {
+
+    private TestVertices() {
+    }
+
+    /**
+     * Make a vertex whose name is its id, with priority zero
+     *
+     * @param id          the id and name of the vertex
+     * @param depth       the depth of the vertex
+     * @param connections the ids of the vertices it lists
+     * @return the vertex
+     */
+    static Vertex vertex(String id, int depth, String... connections) {
+        return new Vertex(id, id, Arrays.asList(connections), depth, 0);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.graph;
+
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TextIndexTest {
+
+    private static final String[] WORDS = {"Internal", "Document", "raw", "data", "Module", "Study", "report", "CSR"};
+
+    @Test
+    public void findsNamesAndTextPropertiesInDisplayOrder() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", "Study report", 1, 0));
+        graph.addVertex(vertex("b", "Raw data", 0, 3));
+        graph.addVertex(vertex("c", "Module", 0, 1));
+        graph.getVertexById("c").addProperty("notes", "see the study protocol");
+
+        assertEquals(Arrays.asList("c", "a"), graph.searchVertices("STUDY"));
+        assertEquals(Arrays.asList("b"), graph.searchVerticesByWordPrefix("dat"));
+        assertEquals(Collections.emptyList(), graph.searchVerticesByWordPrefix("ata"));
+        assertEquals(Arrays.asList("b"), graph.searchVertices("ata"));
+        assertEquals(Arrays.asList("a", "b", "c"), sorted(graph.searchVertices("")));
+    }
+
+    @Test
+    public void leavesHyperlinksAndColoursOutUnlessAsked() {
+        Graph graph = new Graph();
+        graph.addVertex(vertex("a", "Study", 0, 0));
+        graph.getVertexById("a").addProperty("url", "http://example.org/report");
+        graph.getVertexById("a").addProperty("color", "#ff0000");
+
+        assertTrue(graph.searchVertices("example").isEmpty());
+        assertTrue(graph.searchVertices("ff00").isEmpty());
+
+        graph.setPropertySearchable("url", true);
+        assertEquals(Arrays.asList("a"), graph.searchVertices("example"));
+        graph.setPropertySearchable("notes", false);
+        graph.getVertexById("a").addProperty("notes", "hidden");
+        assertTrue(graph.searchVertices("hidden").isEmpty());
+
+        graph.setPropertySearchable("url", false);
+        assertTrue(graph.searchVertices("example").isEmpty());
+    }
+
+    @Test
+    public void matchesAPlainScanAfterRandomEdits() {
+        Random random = new Random(9);
+        Graph graph = new Graph();
+        Map<String, Vertex> live = new HashMap<>();
+        int created = 0;
+        for (int step = 0; step < 5000; step++) {
+            int operation = random.nextInt(5);
+            if (operation < 2 || live.isEmpty()) {
+                Vertex vertex = vertex("v" + created++, text(random), random.nextInt(4), random.nextInt(100));
+                if (random.nextBoolean()) vertex.addProperty("url", "http://x/" + text(random));
+                if (random.nextBoolean()) vertex.addProperty("notes", text(random));
+                graph.addVertex(vertex);
+                live.put(vertex.getId(), vertex);
+                continue;
+            }
+            Vertex vertex = live.get("v" + random.nextInt(created));
+            if (vertex == null) continue;
+            if (operation == 2) {
+                vertex.setName(text(random));
+            } else if (operation == 3) {
+                vertex.overwriteProperty(random.nextBoolean() ? "url" : "notes", text(random));
+            } else {
+                graph.removeVertex(vertex.getId());
+                live.remove(vertex.getId());
+            }
+        }
+
+        for (String query : Arrays.asList("int", "INTERNAL doc", "doc", "a", "csr 5", "x/", "-raw", "zzz", "study-")) {
+            Set<String> containing = new HashSet<>();
+            Set<String> withWordStarting = new HashSet<>();
+            for (Vertex vertex : live.values()) {
+                List<String> texts = new ArrayList<>();
+                texts.add(vertex.getName());
+                if (vertex.getProperty("notes") != null) texts.add(vertex.getProperty("notes"));
+                for (String text : texts) {
+                    if (text.toLowerCase().contains(query.toLowerCase())) containing.add(vertex.getId());
+                    if (hasWordStarting(text, query)) withWordStarting.add(vertex.getId());
+                }
+            }
+            assertEquals(query, containing, new HashSet<>(graph.searchVertices(query)));
+            assertEquals(query, withWordStarting, new HashSet<>(graph.searchVerticesByWordPrefix(query)));
+        }
+    }
+
+    private static boolean hasWordStarting(String text, String prefix) {
+        text = text.toLowerCase();
+        prefix = prefix.toLowerCase();
+        for (int found = text.indexOf(prefix); found >= 0; found = text.indexOf(prefix, found + 1)) {
+            if (found == 0 || !Character.isLetterOrDigit(text.charAt(found - 1))) return true;
+        }
+        return false;
+    }
+
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = 1 + random.nextInt(3);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(random.nextBoolean() ? " " : "-");
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextBoolean()) text.append(random.nextInt(100));
+        }
+        return text.toString();
+    }
+
+    private static Vertex vertex(String id, String name, int depth, int priority) {
+        return new Vertex(name, id, new ArrayList<>(), depth, priority);
+    }
+
+    private static List<String> sorted(List<String> ids) {
+        List<String> copy = new ArrayList<>(ids);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.models.ThreadsData;
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+
+import static com.edenrump.toolkit.loaders.JSONLoaderTest.assertSameData;
+import static com.edenrump.toolkit.loaders.JSONLoaderTest.sample;
+import static org.junit.Assert.*;
+
+public class BinaryLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsData() throws IOException {
+        ThreadsData data = sample();
+        File file = folder.newFile("sample" + BinaryLoader.EXTENSION);
+        assertTrue(BinaryLoader.saveToBinary(data, file));
+        assertSameData(data, BinaryLoader.loadOneFromBinary(file));
+    }
+
+    @Test
+    public void roundTripsAGraphSnapshot() throws IOException {
+        ThreadsData data = sample();
+        Graph graph = new Graph();
+        for (Vertex vertex : data.getVertices()) graph.addVertex(vertex);
+
+        File file = folder.newFile("snapshot" + BinaryLoader.EXTENSION);
+        assertTrue(BinaryLoader.saveToBinary(data.getName(), data.getId(), graph.snapshot(), file));
+        Graph loaded = new Graph();
+        ThreadsData header = BinaryLoader.loadIntoGraph(file, loaded, LoadMonitor.NONE);
+        assertSameData(copyOf(data), new ThreadsData(header.getName(), header.getId(), loaded.snapshot().toVertices()));
+    }
+
+    @Test
+    public void convertsBetweenJsonAndBinary() throws IOException {
+        ThreadsData data = random(new Random(24), 3 * BinaryLoader.BLOCK_SIZE + 17);
+        File json = folder.newFile("data.json");
+        try (Writer out = JSONLoader.newFileWriter(json)) {
+            JSONLoader.writeJSON(data, out, true);
+        }
+        File binary = folder.newFile("data" + BinaryLoader.EXTENSION);
+        FormatConverter.convert(json, binary);
+        assertSameData(data, BinaryLoader.loadOneFromBinary(binary));
+
+        File back = folder.newFile("back.json");
+        FormatConverter.convert(binary, back);
+        assertSameData(data, JSONLoader.loadOneFromJSON(back));
+        assertArrayEquals(Files.readAllBytes(json.toPath()), Files.readAllBytes(back.toPath()));
+
+        File again = folder.newFile("again" + BinaryLoader.EXTENSION);
+        FormatConverter.convert(back, again);
+        assertArrayEquals(Files.readAllBytes(binary.toPath()), Files.readAllBytes(again.toPath()));
+    }
+
+    @Test
+    public void detectsEveryCorruptByte() throws IOException {
+        File file = folder.newFile("corrupt" + BinaryLoader.EXTENSION);
+        assertTrue(BinaryLoader.saveToBinary(sample(), file));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Set<Integer> skippable = skippableSectionTypes(bytes);
+        for (int at = 0; at < bytes.length; at++) {
+            if (skippable.contains(at)) continue;
+            byte[] corrupt = bytes.clone();
+            corrupt[at] ^= 0x10;
+            Files.write(file.toPath(), corrupt);
+            try {
+                BinaryLoader.streamFromBinary(file, vertex -> { }, LoadMonitor.NONE);
+                fail("Corrupt byte " + at + " was not noticed");
+            } catch (IOException expected) {
+                // the corruption was noticed
+            }
+        }
+    }
+
+    @Test
+    public void detectsTruncation() throws IOException {
+        File file = folder.newFile("truncated" + BinaryLoader.EXTENSION);
+        assertTrue(BinaryLoader.saveToBinary(sample(), file));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int length = 0; length < bytes.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+            try {
+                BinaryLoader.streamFromBinary(file, vertex -> { }, LoadMonitor.NONE);
+                fail("Truncation to " + length + " bytes was not noticed");
+            } catch (IOException expected) {
+                // the truncation was noticed
+            }
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void stopsWhenCancelled() throws IOException {
+        File file = folder.newFile("cancelled" + BinaryLoader.EXTENSION);
+        assertTrue(BinaryLoader.saveToBinary(random(new Random(1), 2 * BinaryLoader.BLOCK_SIZE), file));
+        BinaryLoader.streamFromBinary(file, vertex -> { }, new LoadMonitor() {
+            @Override
+            public void progress(long bytesRead, long totalBytes) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Return where the type bytes of the index sections are. A streaming read skips sections it does not need, so
+     * changing their type is only noticed by readers that look for them.
+     */
+    private static Set<Integer> skippableSectionTypes(byte[] bytes) {
+        Set<Integer> positions = new HashSet<>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int at = BinaryLoader.MAGIC.length + 1; bytes[at] != BinaryLoader.END; ) {
+            if (bytes[at] == BinaryLoader.INDEX || bytes[at] == BinaryLoader.SUBTREES) positions.add(at);
+            at += BinaryLoader.SECTION_HEADER + buffer.getInt(at + 1) + 4;
+        }
+        return positions;
+    }
+
+    /**
+     * Return a fresh copy of the sample with the same ids, since adding vertices to a graph hands them over
+     */
+    private static ThreadsData copyOf(ThreadsData data) {
+        List<Vertex> vertices = new ArrayList<>();
+        for (Vertex vertex : data.getVertices()) {
+            Vertex copy = new Vertex(vertex.getName(), vertex.getVertexId(), vertex.getConnectedVertices(),
+                    vertex.getDepth(), vertex.getPriority());
+            vertex.getProperties().forEach(copy::addProperty);
+            vertices.add(copy);
+        }
+        return new ThreadsData(data.getName(), data.getId(), vertices);
+    }
+
+    /**
+     * Return data of the given size, sorted as a grouped json file would list it, with random depths, connections
+     * and properties
+     */
+    private static ThreadsData random(Random random, int size) {
+        List<Vertex> vertices = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String id = random.nextInt(10) == 0 ? "text-" + i : new UUID(random.nextLong(), random.nextLong()).toString();
+            Set<String> connected = new LinkedHashSet<>();
+            for (int c = random.nextInt(4); c > 0 && !ids.isEmpty(); c--) {
+                connected.add(random.nextInt(50) == 0 ? "missing-" + c : ids.get(random.nextInt(ids.size())));
+            }
+            Vertex vertex = new Vertex("vertex " + i, id, new ArrayList<>(connected), random.nextInt(9) - 4, i);
+            if (random.nextBoolean()) vertex.addProperty("color", "c" + random.nextInt(5));
+            if (random.nextInt(3) == 0) vertex.addProperty("url", "http://x/" + i);
+            vertices.add(vertex);
+            ids.add(id);
+        }
+        vertices.sort((a, b) -> a.getDepth() != b.getDepth() ? Integer.compare(a.getDepth(), b.getDepth())
+                : Integer.compare(a.getPriority(), b.getPriority()));
+        return new ThreadsData("Random", "random-" + size, vertices);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.models.ThreadsData;
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.edenrump.toolkit.loaders.JSONLoaderTest.assertSameData;
+import static org.junit.Assert.*;
+
+public class IndexedDocumentTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsSubtreesAsTheGraphFindsThem() throws IOException {
+        Random random = new Random(25);
+        ThreadsData data = randomTree(random, 3000);
+        File file = save(data, "tree");
+        Graph graph = new Graph();
+        for (Vertex vertex : BinaryLoader.loadOneFromBinary(file).getVertices()) graph.addVertex(vertex);
+
+        try (IndexedDocument document = IndexedDocument.open(file)) {
+            assertNotNull(document);
+            assertEquals(data.getVertices().size(), document.size());
+            assertEquals(data.getName(), document.getName());
+
+            List<Vertex> roots = document.readRoots();
+            assertEquals(data.getVertices().stream().filter(v -> v.getDepth() == 0).map(Vertex::getId)
+                    .collect(Collectors.toList()), ids(roots));
+            for (Vertex root : roots) {
+                assertEquals(root.getId(), new HashSet<>(ids(graph.getDownstream(root.getId()))),
+                        new HashSet<>(ids(document.readSubtree(root.getId()))));
+            }
+            Vertex deeper = data.getVertices().get(data.getVertices().size() - 1);
+            assertTrue(document.contains(deeper.getId()));
+            assertTrue(document.readSubtree(deeper.getId()).isEmpty());
+            assertFalse(document.contains("missing"));
+            assertTrue(document.readSubtree("missing").isEmpty());
+
+            List<Vertex> all = new ArrayList<>();
+            document.forEachVertex(all::add);
+            assertSameData(data, new ThreadsData(document.getName(), document.getId(), all));
+        }
+    }
+
+    @Test
+    public void findsTheRootsAboveMatches() throws IOException {
+        List<Vertex> vertices = new ArrayList<>();
+        vertices.add(new Vertex("first root", "a", new ArrayList<>(), 0, 0));
+        vertices.add(new Vertex("second root", "b", new ArrayList<>(), 0, 1));
+        vertices.add(new Vertex("third root", "c", new ArrayList<>(), 0, 2));
+        vertices.add(new Vertex("shared", "d", Arrays.asList("a", "b"), 1, 0));
+        vertices.add(new Vertex("needle", "e", Arrays.asList("d"), 2, 0));
+        vertices.add(new Vertex("cycle one", "f", Arrays.asList("c", "g"), 1, 1));
+        vertices.add(new Vertex("cycle two", "g", Arrays.asList("f"), 2, 1));
+        File file = save(new ThreadsData("Roots", "roots", vertices), "roots");
+
+        try (IndexedDocument document = IndexedDocument.open(file)) {
+            assertEquals(new HashSet<>(Arrays.asList("a", "b")), document.findRoots(v -> v.getName().equals("needle")));
+            assertEquals(new HashSet<>(Arrays.asList("c")), document.findRoots(v -> v.getName().equals("cycle two")));
+            assertEquals(new HashSet<>(Arrays.asList("b")), document.findRoots(v -> v.getId().equals("b")));
+            assertTrue(document.findRoots(v -> false).isEmpty());
+            assertEquals(new HashSet<>(Arrays.asList("d", "e")), new HashSet<>(ids(document.readSubtree("b"))));
+            assertEquals(new HashSet<>(Arrays.asList("f", "g")), new HashSet<>(ids(document.readSubtree("c"))));
+        }
+    }
+
+    @Test
+    public void searchesTheUnreadPartOfAGraph() throws IOException {
+        List<Vertex> vertices = new ArrayList<>();
+        vertices.add(new Vertex("root", "a", new ArrayList<>(), 0, 0));
+        vertices.add(new Vertex("other root", "b", new ArrayList<>(), 0, 1));
+        vertices.add(new Vertex("Report", "c", Arrays.asList("a"), 1, 0));
+        vertices.add(new Vertex("report draft", "d", Arrays.asList("b"), 1, 0));
+        vertices.get(0).addProperty("url", "http://example.org/report");
+        File file = save(new ThreadsData("Search", "search", vertices), "search");
+
+        try (IndexedDocument document = IndexedDocument.open(file)) {
+            Graph graph = new Graph();
+            for (Vertex root : document.readRoots()) graph.addVertex(root);
+            graph.setSource(document);
+            assertFalse(graph.holdsDownstreamOf("a"));
+            assertTrue(graph.searchVertices("report").isEmpty());
+            assertEquals(new HashSet<>(Arrays.asList("a", "b")),
+                    graph.prepareSourceSearch(graph.searchTest("REPORT")).get());
+
+            graph.expand("a");
+            assertTrue(graph.holdsDownstreamOf("a"));
+            assertEquals(Arrays.asList("c"), graph.searchVertices("report"));
+            assertEquals(new HashSet<>(Arrays.asList("b")), graph.prepareSourceSearch(graph.searchTest("report")).get());
+            graph.expand("b");
+            graph.removeVertex("d");
+            graph.collapse("b");
+            assertTrue(graph.prepareSourceSearch(graph.searchTest("report")).get().isEmpty());
+        }
+    }
+
+    @Test
+    public void growsWithTheConnectionsRatherThanTheSubtrees() throws IOException {
+        long few = save(sharedChain(10, 2000), "few").length();
+        long many = save(sharedChain(200, 2000), "many").length();
+        // each further root costs its own record and one connection, not a list of the whole chain below it
+        assertTrue(many - few + " bytes", many - few < 190 * 200);
+    }
+
+    @Test
+    public void cannotBeReadOnceClosed() throws IOException {
+        File file = save(randomTree(new Random(3), 100), "closed");
+        IndexedDocument document = IndexedDocument.open(file);
+        String rootId = document.readRoots().get(0).getId();
+        document.close();
+        document.close();
+        try {
+            document.readRoots();
+            fail("Read roots from a closed document");
+        } catch (IOException expected) {
+            // closed
+        }
+        try {
+            document.readSubtree(rootId);
+            fail("Read a subtree from a closed document");
+        } catch (UncheckedIOException expected) {
+            // closed
+        }
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void opensOnlyFilesWithAnIndex() throws IOException {
+        File json = folder.newFile("data.json");
+        assertTrue(JSONLoader.saveToJSON(randomTree(new Random(4), 10), json));
+        try {
+            IndexedDocument.open(json);
+            fail("Opened a json file");
+        } catch (IOException expected) {
+            // not binary
+        }
+    }
+
+    private File save(ThreadsData data, String name) throws IOException {
+        File file = folder.newFile(name + BinaryLoader.EXTENSION);
+        assertTrue(BinaryLoader.saveToBinary(data, file));
+        return file;
+    }
+
+    /**
+     * Return roots with a chain of vertices below them that every root connects to
+     */
+    private static ThreadsData sharedChain(int rootCount, int chainLength) {
+        List<Vertex> vertices = new ArrayList<>();
+        for (int i = 0; i < rootCount; i++) {
+            vertices.add(new Vertex("root " + i, "root-" + i, new ArrayList<>(), 0, i));
+        }
+        List<String> roots = vertices.stream().map(Vertex::getId).collect(Collectors.toList());
+        vertices.add(new Vertex("chain 0", "chain-0", roots, 1, 0));
+        for (int i = 1; i < chainLength; i++) {
+            vertices.add(new Vertex("chain " + i, "chain-" + i, Arrays.asList("chain-" + (i - 1)), i + 1, 0));
+        }
+        return new ThreadsData("Chain", "chain", vertices);
+    }
+
+    /**
+     * Return a layered graph with roots at depth zero, vertices at negative depths that are no root's subtree, and
+     * connections to shallower vertices, some of them listed from both ends, to vertices at the same depth and to
+     * vertices that are missing
+     */
+    private static ThreadsData randomTree(Random random, int size) {
+        List<Vertex> vertices = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int depth = i < size / 20 ? 0 : random.nextInt(8) - 1;
+            Set<String> connected = new HashSet<>();
+            for (int c = random.nextInt(3); c > 0 && i > 0; c--) {
+                Vertex other = vertices.get(random.nextInt(i));
+                if (other.getDepth() <= depth) connected.add(other.getId());
+                if (random.nextInt(10) == 0) other.addConnection("v" + i);
+            }
+            if (random.nextInt(40) == 0) connected.add("missing-" + i);
+            vertices.add(new Vertex("vertex " + i, "v" + i, new ArrayList<>(connected), depth, i));
+        }
+        return new ThreadsData("Tree", "tree", vertices);
+    }
+
+    private static List<String> ids(List<Vertex> vertices) {
+        return vertices.stream().map(Vertex::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.loaders;
+
+import com.edenrump.toolkit.graph.Graph;
+import com.edenrump.toolkit.models.ThreadsData;
+import com.edenrump.toolkit.models.Vertex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class JSONLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void upgradesVersionOneFiles() throws IOException {
+        File file = folder.newFile("v1.json");
+        write(file, "{\"name\":\"Study\",\"id\":\"set-1\",\"vertices\":[" +
+                "{\"connectedVertices\":[],\"depth\":-2,\"priority\":1,\"name\":\"a\"," +
+                "\"id\":{\"name\":\"\",\"value\":\"a\",\"valid\":true},\"propertiesMap\":{}}," +
+                "{\"connectedVertices\":[\"a\",\"c\"],\"depth\":0,\"priority\":0,\"name\":\"b\"," +
+                "\"id\":{\"name\":\"\",\"value\":\"b\",\"valid\":true},\"propertiesMap\":{\"color\":\"red\"}}," +
+                "{\"connectedVertices\":[\"b\"],\"depth\":1,\"priority\":0,\"name\":\"c\"," +
+                "\"id\":{\"name\":\"\",\"value\":\"c\",\"valid\":true},\"propertiesMap\":null}]}");
+
+        ThreadsData read = JSONLoader.loadOneFromJSON(file);
+        assertEquals("Study", read.getName());
+        assertEquals("set-1", read.getId());
+        assertEquals(3, read.getVertices().size());
+        assertEquals(-2, byId(read).get("a").getDepth());
+        assertEquals(Arrays.asList("a", "c"), byId(read).get("b").getConnectedVertices());
+        assertTrue(byId(read).get("c").getProperties().isEmpty());
+
+        File upgraded = folder.newFile("v2.json");
+        assertTrue(JSONLoader.saveToJSON(read, upgraded));
+        assertTrue(new String(Files.readAllBytes(upgraded.toPath()), StandardCharsets.UTF_8)
+                .startsWith("{\"version\":2,"));
+        assertSameData(read, JSONLoader.loadOneFromJSON(upgraded));
+    }
+
+    @Test
+    public void roundTripsListedVertices() throws IOException {
+        ThreadsData data = sample();
+        File file = folder.newFile("listed.json");
+        assertTrue(JSONLoader.saveToJSON(data, file));
+        assertSameData(data, JSONLoader.loadOneFromJSON(file));
+    }
+
+    @Test
+    public void roundTripsVerticesGroupedByDepth() throws IOException {
+        ThreadsData data = sample();
+        File file = folder.newFile("grouped.json");
+        try (Writer out = JSONLoader.newFileWriter(file)) {
+            JSONLoader.writeJSON(data, out, true);
+        }
+        ThreadsData read = JSONLoader.loadOneFromJSON(file);
+        assertSameData(data, read);
+
+        File again = folder.newFile("again.json");
+        try (Writer out = JSONLoader.newFileWriter(again)) {
+            JSONLoader.writeJSON(read, out, true);
+        }
+        assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(again.toPath()));
+    }
+
+    @Test
+    public void roundTripsAGraphSnapshot() throws IOException {
+        ThreadsData data = sample();
+        Graph graph = new Graph();
+        for (Vertex vertex : data.getVertices()) graph.addVertex(copy(vertex));
+
+        File file = folder.newFile("snapshot.json");
+        assertTrue(JSONLoader.saveToJSON(data.getName(), data.getId(), graph.snapshot(), file));
+        Graph loaded = new Graph();
+        ThreadsData header = JSONLoader.loadIntoGraph(file, loaded, LoadMonitor.NONE);
+        assertEquals(data.getName(), header.getName());
+        assertSameData(data, new ThreadsData(header.getName(), header.getId(), loaded.snapshot().toVertices()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsADepthGroupWithoutADepth() throws IOException {
+        File file = folder.newFile("broken.json");
+        write(file, "{\"version\":2,\"depths\":[{\"vertices\":[{\"id\":\"a\"}]}]}");
+        JSONLoader.streamFromJSON(file, vertex -> { }, LoadMonitor.NONE);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNewerVersions() throws IOException {
+        File file = folder.newFile("newer.json");
+        write(file, "{\"version\":" + (JSONLoader.FORMAT_VERSION + 1) + ",\"vertices\":[]}");
+        JSONLoader.streamFromJSON(file, vertex -> { }, LoadMonitor.NONE);
+    }
+
+    /**
+     * A data set with negative depths, a vertex without properties, a cycle, a dangling connection, ids of both
+     * kinds and text that needs escaping
+     */
+    static ThreadsData sample() {
+        String uuid = UUID.randomUUID().toString();
+        List<Vertex> vertices = new ArrayList<>();
+        vertices.add(new Vertex("Root \"quoted\"", "root", new ArrayList<>(), -3, 0));
+        vertices.add(new Vertex("\u00dcn\u00efcode <b>", uuid, Arrays.asList("root"), -1, 2));
+        vertices.add(new Vertex("", "empty-properties", Arrays.asList("root", uuid), 0, 1));
+        vertices.add(new Vertex("cycle a", "cycle-a", Arrays.asList("cycle-b"), 2, 0));
+        vertices.add(new Vertex("cycle b", "cycle-b", Arrays.asList("cycle-a", "missing"), 2, 1));
+        vertices.get(0).addProperty("color", "#ff0000");
+        vertices.get(1).addProperty("url", "http://example.org/?a=1&b=2");
+        vertices.get(1).addProperty("notes", "line one\nline two\ttabbed");
+        vertices.get(3).addProperty("blank", "");
+        return new ThreadsData("Study \u2603", "set-" + uuid, vertices);
+    }
+
+    static void assertSameData(ThreadsData expected, ThreadsData actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getId(), actual.getId());
+        Map<String, Vertex> actualById = byId(actual);
+        assertEquals(expected.getVertices().size(), actualById.size());
+        for (Vertex vertex : expected.getVertices()) {
+            Vertex read = actualById.get(vertex.getId());
+            assertNotNull(vertex.getId(), read);
+            assertEquals(vertex.getName(), read.getName());
+            assertEquals(vertex.getDepth(), read.getDepth());
+            assertEquals(vertex.getPriority(), read.getPriority());
+            assertEquals(vertex.getVertexId().isCompact(), read.getVertexId().isCompact());
+            assertEquals(vertex.getConnectedVertices(), read.getConnectedVertices());
+            assertEquals(nonEmpty(vertex.getProperties()), read.getProperties());
+        }
+    }
+
+    /**
+     * Return the properties with values, since an empty value means the same as no property and is not written
+     */
+    static Map<String, String> nonEmpty(Map<String, String> properties) {
+        Map<String, String> nonEmpty = new HashMap<>(properties);
+        nonEmpty.values().removeIf(String::isEmpty);
+        return nonEmpty;
+    }
+
+    static Map<String, Vertex> byId(ThreadsData data) {
+        Map<String, Vertex> vertices = new HashMap<>();
+        for (Vertex vertex : data.getVertices()) vertices.put(vertex.getId(), vertex);
+        return vertices;
+    }
+
+    private static Vertex copy(Vertex vertex) {
+        Vertex copy = new Vertex(vertex.getName(), vertex.getVertexId(), vertex.getConnectedVertices(),
+                vertex.getDepth(), vertex.getPriority());
+        vertex.getProperties().forEach(copy::addProperty);
+        return copy;
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
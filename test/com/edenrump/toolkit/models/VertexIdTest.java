@@ -0,0 +1,53 @@
+/*
+ * ******************************************************************************
+ *  * Copyright (c) 05/12/2019, 09:12.2019. Edward Eden-Rump is licensed under a Creative Commons Attribution 4.0 International License.
+ *  *
+ *  * Based on a work at https://github.com/nested-space/
+ *  To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/.
+ *  *****************************************************************************
+ */
+
+package com.edenrump.toolkit.models;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class VertexIdTest {
+
+    @Test
+    public void holdsCanonicalUuidsAsBits() {
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            VertexId id = VertexId.of(uuid.toString());
+            assertTrue(id.isCompact());
+            assertEquals(uuid.getMostSignificantBits(), id.getHighBits());
+            assertEquals(uuid.getLeastSignificantBits(), id.getLowBits());
+            assertEquals(uuid.toString(), id.toString());
+            assertEquals(id, VertexId.of(id.getHighBits(), id.getLowBits()));
+            assertEquals(id.hashCode(), VertexId.of(id.getHighBits(), id.getLowBits()).hashCode());
+        }
+    }
+
+    @Test
+    public void keepsOtherIdsAsWritten() {
+        String upperCase = UUID.randomUUID().toString().toUpperCase();
+        for (String text : new String[]{upperCase, "node-1", "", "{" + UUID.randomUUID() + "}"}) {
+            VertexId id = VertexId.of(text);
+            assertFalse(text, id.isCompact());
+            assertEquals(text, id.toString());
+            assertEquals(id, VertexId.of(text));
+        }
+        assertNotEquals(VertexId.of(upperCase), VertexId.of(upperCase.toLowerCase()));
+    }
+
+    @Test
+    public void formatsACompactIdOnce() {
+        VertexId id = VertexId.random();
+        String text = id.toString();
+        assertSame(text, id.toString());
+        assertEquals(id, VertexId.of(text));
+    }
+}